@@ -0,0 +1,64 @@
+package com.lowtuna.gymclasscal.benchmarks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.lowtuna.gymclasscal.core.ClassFilter;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.ScheduleIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filtering four weeks of classes through the {@link ScheduleIndex} by class, instructor, or day and time of day.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+    @Param({"none", "class", "instructor", "dayAndTime"})
+    public String filter;
+
+    private ScheduleIndex index;
+    private ClassFilter classFilter;
+
+    @Setup
+    public void setUp() throws IOException {
+        index = ScheduleIndex.build(Fixtures.classes(Fixtures.PAGES.length), 0);
+        List<String> none = Collections.emptyList();
+        switch (filter) {
+            case "class":
+                classFilter = ClassFilter.of(ImmutableList.of("Cycle", "Yoga", "Body Pump"), none, none, null, null);
+                break;
+            case "instructor":
+                classFilter = ClassFilter.of(none, ImmutableList.of("Jason", "Lisa"), none, null, null);
+                break;
+            case "dayAndTime":
+                classFilter = ClassFilter.of(none, none, ImmutableList.of("MON", "WED", "FRI"), "05:00", "09:00");
+                break;
+            default:
+                classFilter = ClassFilter.ALL;
+                break;
+        }
+    }
+
+    @Benchmark
+    public List<ClassInfo> filterClasses() {
+        return index.filter(classFilter);
+    }
+}
@@ -0,0 +1,50 @@
+package com.lowtuna.gymclasscal.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.lowtuna.gymclasscal.util.CachedDocument;
+import com.lowtuna.gymclasscal.util.JsoupDocumentLoader;
+import com.lowtuna.gymclasscal.util.PageResponse;
+import com.lowtuna.gymclasscal.util.PageTransport;
+import com.lowtuna.gymclasscal.util.RefreshPolicy;
+import com.lowtuna.gymclasscal.util.StoredPage;
+import io.dropwizard.util.Duration;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+/**
+ * Serves one fixture page for every url. Documents are parsed on every call, like an uncached load would be.
+ */
+public class FixtureDocumentLoader extends JsoupDocumentLoader {
+    private final byte[] page;
+
+    public FixtureDocumentLoader(byte[] page) {
+        super(new MetricRegistry(), new PageTransport() {
+            @Override
+            public PageResponse fetch(String url, Map<String, String> requestHeaders) throws IOException {
+                throw new IOException("Benchmarks don't fetch " + url);
+            }
+        }, new RefreshPolicy(Duration.hours(1), Duration.hours(12), MoreExecutors.sameThreadExecutor()));
+        this.page = page;
+    }
+
+    @Override
+    public Optional<CachedDocument> loadCachedDocument(String url) {
+        try {
+            Document document = Jsoup.parse(new ByteArrayInputStream(page), "utf-8", url);
+            return Optional.of(CachedDocument.builder().document(document).fetchedAt(System.currentTimeMillis()).build());
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't parse fixture page", e);
+        }
+    }
+
+    @Override
+    public Optional<StoredPage> loadPage(String url) {
+        return Optional.of(StoredPage.builder().url(url).body(page).charset("utf-8").build());
+    }
+}
@@ -0,0 +1,61 @@
+package com.lowtuna.gymclasscal.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import com.lowtuna.gymclasscal.business.StreamingSchedulePageParser;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.Club;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+
+/**
+ * The checked-in gxschedule pages for club 572, four consecutive weeks starting {@link #FIRST_WEEK}.
+ */
+public final class Fixtures {
+    public static final int CLUB_ID = 572;
+    public static final LocalDate FIRST_WEEK = new LocalDate(2014, 1, 27);
+    public static final String[] PAGES = {"572_2014-01-27.html", "572_2014-02-03.html", "572_2014-02-10.html", "572_2014-02-17.html"};
+
+    private Fixtures() {
+    }
+
+    public static byte[] page(String name) throws IOException {
+        return Resources.toByteArray(Resources.getResource(name));
+    }
+
+    public static Club club() {
+        return Club.builder()
+                .clubId(CLUB_ID)
+                .name("Lowry Sport")
+                .address("7550 E 1st Pl, Denver, CO 80230")
+                .phoneNumber("303-340-8000")
+                .build();
+    }
+
+    /**
+     * Classes for {@code weeks} weeks, repeating the four fixture weeks as often as needed.
+     */
+    public static List<ClassInfo> classes(int weeks) throws IOException {
+        StreamingSchedulePageParser pageParser = new StreamingSchedulePageParser();
+        List<ClassInfo> fixtureClasses = Lists.newArrayList();
+        for (String page: PAGES) {
+            fixtureClasses.addAll(pageParser.parse(page(page), "utf-8"));
+        }
+
+        LocalDateTime end = FIRST_WEEK.plusWeeks(weeks).toLocalDateTime(LocalTime.MIDNIGHT);
+        List<ClassInfo> classes = Lists.newArrayList();
+        for (int week = 0; week < weeks; week += PAGES.length) {
+            for (ClassInfo classInfo: fixtureClasses) {
+                LocalDateTime time = classInfo.getTime().plusWeeks(week);
+                if (time.isBefore(end)) {
+                    classes.add(ClassInfo.builder().name(classInfo.getName()).instructor(classInfo.getInstructor()).time(time).build());
+                }
+            }
+        }
+        return classes;
+    }
+}
@@ -0,0 +1,52 @@
+package com.lowtuna.gymclasscal.benchmarks;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import com.lowtuna.gymclasscal.business.ScheduleParserMode;
+import com.lowtuna.gymclasscal.business.TwentyFourHourParser;
+import com.lowtuna.gymclasscal.config.GymClassCalConfig;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link TwentyFourHourParser#fetchClassSchedules} over a fixture page, with either parser.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"DOM", "STREAMING"})
+    public ScheduleParserMode mode;
+
+    @Param({"572_2014-01-27.html"})
+    public String page;
+
+    private TwentyFourHourParser parser;
+
+    @Setup
+    public void setUp() throws IOException {
+        GymClassCalConfig config = new GymClassCalConfig();
+        parser = new TwentyFourHourParser(config.getClubListBaseUrl(), config.getClubDetailPattern(), config.getClubCalendarTemplate(), new MetricRegistry(), null, new FixtureDocumentLoader(Fixtures.page(page)), mode);
+    }
+
+    @Benchmark
+    public Set<ClassInfo> fetchClassSchedules() {
+        return parser.fetchClassSchedules(Fixtures.CLUB_ID, Fixtures.FIRST_WEEK);
+    }
+}
@@ -0,0 +1,121 @@
+package com.lowtuna.gymclasscal.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.lowtuna.gymclasscal.core.ClassFilter;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.Club;
+import com.lowtuna.gymclasscal.core.ScheduleIndex;
+import com.lowtuna.gymclasscal.jersey.CalendarWriter;
+import net.fortuna.ical4j.data.CalendarOutputter;
+import net.fortuna.ical4j.extensions.property.WrCalName;
+import net.fortuna.ical4j.model.Calendar;
+import net.fortuna.ical4j.model.DateTime;
+import net.fortuna.ical4j.model.Dur;
+import net.fortuna.ical4j.model.ParameterList;
+import net.fortuna.ical4j.model.TimeZoneRegistry;
+import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
+import net.fortuna.ical4j.model.ValidationException;
+import net.fortuna.ical4j.model.component.VEvent;
+import net.fortuna.ical4j.model.property.CalScale;
+import net.fortuna.ical4j.model.property.Description;
+import net.fortuna.ical4j.model.property.Location;
+import net.fortuna.ical4j.model.property.ProdId;
+import net.fortuna.ical4j.model.property.Uid;
+import net.fortuna.ical4j.model.property.Version;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering a calendar with {@link CalendarWriter} against the ical4j object model it replaced, building a
+ * {@link Calendar} and writing it with {@link CalendarOutputter}, for a typical four week calendar and a large one
+ * covering a year. Compare the {@code gc.alloc.rate.norm} of {@code writeCalendar} with the other two combined.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    private static final String TIME_ZONE = "America/Denver";
+    private static final long LOADED_AT = 1390838400000L;
+
+    @Param({"4", "52"})
+    public int weeks;
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private Club club;
+    private ScheduleIndex index;
+    private List<ClassInfo> classes;
+    private TimeZoneRegistry registry;
+    private Calendar calendar;
+    private CalendarWriter writer;
+
+    @Setup
+    public void setUp() throws IOException {
+        club = Fixtures.club();
+        index = ScheduleIndex.build(Fixtures.classes(weeks), 0);
+        classes = index.filter(ClassFilter.ALL);
+        registry = TimeZoneRegistryFactory.getInstance().createRegistry();
+        calendar = buildCalendar(club, classes, TIME_ZONE, registry);
+        writer = new CalendarWriter(registry);
+        writer.write(club, index, classes, LOADED_AT, TIME_ZONE, output);
+    }
+
+    @Benchmark
+    public Calendar buildCalendar() {
+        return buildCalendar(club, classes, TIME_ZONE, registry);
+    }
+
+    @Benchmark
+    public int outputCalendar() throws IOException, ValidationException {
+        output.reset();
+        new CalendarOutputter().output(calendar, output);
+        return output.size();
+    }
+
+    @Benchmark
+    public int writeCalendar() throws IOException {
+        output.reset();
+        writer.write(club, index, classes, LOADED_AT, TIME_ZONE, output);
+        return output.size();
+    }
+
+    /**
+     * How the calendar endpoint built calendars before {@link CalendarWriter}.
+     */
+    static Calendar buildCalendar(Club club, List<ClassInfo> classes, String timeZone, TimeZoneRegistry registry) {
+        Calendar calendar = new Calendar();
+        calendar.getProperties().add(new ProdId("-//Tristan Burch//GymClassCal 1.0//EN"));
+        calendar.getProperties().add(Version.VERSION_2_0);
+        calendar.getProperties().add(CalScale.GREGORIAN);
+        calendar.getComponents().add(registry.getTimeZone(timeZone).getVTimeZone());
+        calendar.getProperties().add(new WrCalName(new ParameterList(), WrCalName.FACTORY, "24 Hour Fitness - " + club.getName()));
+
+        for (ClassInfo classInfo: classes) {
+            DateTime start = new DateTime(classInfo.getTime().toDateTime(DateTimeZone.forID(timeZone)).toCalendar(Locale.US).getTime());
+            VEvent event = new VEvent(start, new Dur("1H"), classInfo.getName());
+            event.getProperties().add(new Uid(UUID.randomUUID().toString()));
+            event.getProperties().add(new Location(club.getAddress()));
+            event.getProperties().add(new Description("Instructor: " + classInfo.getInstructor()));
+            calendar.getComponents().add(event);
+        }
+        return calendar;
+    }
+}
@@ -1,18 +1,44 @@
 package com.lowtuna.gymclasscal;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
+import com.google.common.base.Optional;
 import com.lowtuna.dropwizard.extras.heroku.AntiIdlerBundle;
 import com.lowtuna.dropwizard.extras.heroku.AntiIdlerConfig;
 import com.lowtuna.gymclasscal.business.ClassScheduleManager;
+import com.lowtuna.gymclasscal.business.ClubLocator;
+import com.lowtuna.gymclasscal.business.ClubManager;
+import com.lowtuna.gymclasscal.business.ScheduleChangeLog;
+import com.lowtuna.gymclasscal.business.ScheduleHistory;
+import com.lowtuna.gymclasscal.business.SchedulePrewarmer;
+import com.lowtuna.gymclasscal.business.ScheduleStore;
+import com.lowtuna.gymclasscal.business.SearchIndex;
 import com.lowtuna.gymclasscal.business.TwentyFourHourParser;
+import com.lowtuna.gymclasscal.business.UpstreamHealthProbe;
 import com.lowtuna.gymclasscal.config.GymClassCalConfig;
 import com.lowtuna.gymclasscal.jersey.ApiResource;
+import com.lowtuna.gymclasscal.jersey.CalendarCache;
+import com.lowtuna.gymclasscal.jersey.NearbyClubsResource;
 import com.lowtuna.gymclasscal.jersey.RequestIdFilter;
+import com.lowtuna.gymclasscal.jersey.SearchResource;
+import com.lowtuna.gymclasscal.util.CircuitBreaker;
+import com.lowtuna.gymclasscal.util.CircuitBreakingTransport;
+import com.lowtuna.gymclasscal.util.FetchScheduler;
 import com.lowtuna.gymclasscal.util.JsoupDocumentLoader;
+import com.lowtuna.gymclasscal.util.PersistentPageCache;
+import com.lowtuna.gymclasscal.util.PooledHttpTransport;
+import com.lowtuna.gymclasscal.util.RefreshPolicy;
+import com.lowtuna.gymclasscal.util.ZipCentroids;
+import com.mongodb.DBCollection;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
 import io.dropwizard.Application;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.dropwizard.views.ViewBundle;
@@ -56,16 +82,91 @@ public class GymClassCalApplication extends Application<GymClassCalConfig> {
 
     @Override
     public void run(GymClassCalConfig configuration, Environment environment) throws Exception {
-        JsoupDocumentLoader documentLoader = new JsoupDocumentLoader(environment.metrics());
-        TwentyFourHourParser parser = new TwentyFourHourParser(configuration.getClubListBaseUrl(), configuration.getClubDetailPattern(), configuration.getClubCalendarTemplate(), environment.metrics(), configuration.getClubIdsUpdateDuration(), documentLoader);
-        environment.healthChecks().register("24 Hour Fitness Schedule Parser", parser);
+        Optional<PersistentPageCache> pageCache = Optional.absent();
+        if (configuration.getPageCacheDirectory() != null) {
+            PersistentPageCache persistentPageCache = new PersistentPageCache(new File(configuration.getPageCacheDirectory()), configuration.getPageCacheTtl(), configuration.getPageCacheMaxSize());
+            environment.lifecycle().manage(persistentPageCache);
+            pageCache = Optional.of(persistentPageCache);
+        }
+
+        PooledHttpTransport transport = new PooledHttpTransport(configuration.getHttpTransport(), environment.metrics());
+        environment.lifecycle().manage(transport);
+
+        FetchScheduler fetchScheduler = new FetchScheduler(configuration.getFetchScheduler(), environment.metrics());
+        environment.lifecycle().manage(fetchScheduler);
+        RefreshPolicy refreshPolicy = new RefreshPolicy(configuration.getCacheSoftTtl(), configuration.getCacheHardTtl(), fetchScheduler.executor(FetchScheduler.Priority.BACKGROUND));
+
+        CircuitBreaker upstreamCircuitBreaker = new CircuitBreaker("upstream", configuration.getUpstreamCircuitBreaker(), environment.metrics());
+        UpstreamHealthProbe upstreamHealthProbe = new UpstreamHealthProbe(transport, configuration.getClubCalendarTemplate(), configuration.getHealthProbeInterval(), upstreamCircuitBreaker);
+        environment.lifecycle().manage(upstreamHealthProbe);
+        environment.healthChecks().register("24 Hour Fitness Schedule Parser", upstreamHealthProbe);
+
+        JsoupDocumentLoader documentLoader = new JsoupDocumentLoader(environment.metrics(), new CircuitBreakingTransport(transport, upstreamCircuitBreaker), refreshPolicy, pageCache, configuration.getDocumentCacheMaxEntries());
+        ExecutorService clubCrawlStateExecutorService = environment.lifecycle().executorService("clubCrawlStateExecutorService-%d").minThreads(configuration.getClubCrawlStateConcurrency()).maxThreads(configuration.getClubCrawlStateConcurrency()).build();
+        ExecutorService clubCrawlCityExecutorService = environment.lifecycle().executorService("clubCrawlCityExecutorService-%d").minThreads(configuration.getClubCrawlCityConcurrency()).maxThreads(configuration.getClubCrawlCityConcurrency()).build();
+        TwentyFourHourParser parser = new TwentyFourHourParser(configuration.getClubListBaseUrl(), configuration.getClubDetailPattern(), configuration.getClubCalendarTemplate(), environment.metrics(), configuration.getClubIdsUpdateDuration(), documentLoader, configuration.getScheduleParserMode(), clubCrawlStateExecutorService, clubCrawlCityExecutorService);
 
-        ExecutorService scheduleManagerExecutorService = environment.lifecycle().executorService("scheduleManagerExecutorService-%d").maxThreads(80).build();
-        ClassScheduleManager scheduleManager = new ClassScheduleManager(parser, configuration.getNumberOfWeekToLoad(), scheduleManagerExecutorService);
+        ClubManager clubManager = new ClubManager(parser, configuration.getClubInfoTtl(), fetchScheduler.executor(FetchScheduler.Priority.BACKGROUND), environment.metrics());
+        parser.addClubIdListener(clubManager);
+
+        ClubLocator clubLocator = new ClubLocator(loadZipCentroids(configuration), clubManager, configuration.getClubLocatorRebuildInterval(), environment.metrics());
+        clubManager.addClubListener(clubLocator);
+        environment.lifecycle().manage(clubLocator);
+        environment.jersey().register(new NearbyClubsResource(clubLocator));
+
+        Optional<ScheduleHistory> scheduleHistory = Optional.absent();
+        if (configuration.getScheduleHistory().getUri() != null) {
+            final MongoClient mongoClient = new MongoClient(new MongoClientURI(configuration.getScheduleHistory().getUri()));
+            environment.lifecycle().manage(new Managed() {
+                @Override
+                public void start() throws Exception {
+                }
+
+                @Override
+                public void stop() throws Exception {
+                    mongoClient.close();
+                }
+            });
+            DBCollection collection = mongoClient.getDB(configuration.getScheduleHistory().getDatabase()).getCollection(configuration.getScheduleHistory().getCollection());
+            ScheduleHistory history = new ScheduleHistory(collection, configuration.getScheduleHistory().getBatchSize(), configuration.getScheduleHistory().getFlushInterval(),
+                    configuration.getScheduleHistory().getReadTimeout(), configuration.getScheduleHistory().getMissingWeekTtl(), environment.metrics());
+            environment.lifecycle().manage(history);
+            scheduleHistory = Optional.of(history);
+        }
+        ScheduleStore scheduleStore = new ScheduleStore(parser, configuration.getScheduleStoreMaxSize(), configuration.getScheduleStoreLastKnownGoodMaxSize(), refreshPolicy, scheduleHistory, environment.metrics());
+        ClassScheduleManager scheduleManager = new ClassScheduleManager(scheduleStore, configuration.getNumberOfWeekToLoad(), configuration.getNumberOfPastWeeksToKeep(), fetchScheduler);
 
-        ApiResource apiResource = new ApiResource(scheduleManager, parser, environment.metrics());
+        SchedulePrewarmer prewarmer = new SchedulePrewarmer(scheduleManager, configuration.getPrewarmInterval(), configuration.getPrewarmBudget(), environment.metrics());
+        environment.lifecycle().manage(prewarmer);
+
+        CalendarCache calendarCache = new CalendarCache(configuration.getCalendarCacheMaxSize(), configuration.getCalendarCacheIdleTtl(), environment.metrics());
+        ScheduleChangeLog changeLog = new ScheduleChangeLog(configuration.getChangeLogMaxClubs(), configuration.getChangeLogMaxChangesPerClub(), environment.metrics());
+        ApiResource apiResource = new ApiResource(scheduleManager, clubManager, prewarmer, calendarCache, changeLog, configuration.getMaxClubsPerCalendar(), environment.metrics());
         environment.jersey().register(apiResource);
 
+        if (configuration.getSearchIndex().isEnabled()) {
+            SearchIndex searchIndex = new SearchIndex(configuration.getSearchIndex(), clubManager, scheduleManager, environment.metrics());
+            environment.lifecycle().manage(searchIndex);
+            clubManager.addClubListener(searchIndex);
+            scheduleManager.addScheduleListener(searchIndex);
+            environment.jersey().register(new SearchResource(searchIndex));
+        }
+
         environment.jersey().getResourceConfig().getContainerRequestFilters().add(RequestIdFilter.class);
     }
+
+    private static ZipCentroids loadZipCentroids(GymClassCalConfig configuration) throws IOException {
+        String file = configuration.getZipCentroidsFile();
+        try (InputStream input = file != null ? new FileInputStream(file) : GymClassCalApplication.class.getResourceAsStream("/zip-centroids.txt")) {
+            if (input == null) {
+                throw new IOException("No zip-centroids.txt on the class path, the build bundles it from the Census gazetteer");
+            }
+            ZipCentroids zipCentroids = ZipCentroids.load(input);
+            if (zipCentroids.size() == 0) {
+                throw new IOException("The zip code centroid table is empty, clubs can't be located");
+            }
+            log.info("Loaded {} zip code centroids", zipCentroids.size());
+            return zipCentroids;
+        }
+    }
 }
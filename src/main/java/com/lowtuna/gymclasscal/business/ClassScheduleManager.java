@@ -2,60 +2,367 @@ package com.lowtuna.gymclasscal.business;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.ClubSchedule;
+import com.lowtuna.gymclasscal.core.ScheduleIndex;
+import com.lowtuna.gymclasscal.core.WeekSchedule;
+import com.lowtuna.gymclasscal.util.FetchScheduler;
 import lombok.extern.slf4j.Slf4j;
 import org.joda.time.LocalDate;
 
 @Slf4j
 public class ClassScheduleManager {
-    private final TwentyFourHourParser parser;
+    private static final long WEEKS_TIMEOUT_MILLIS = 5000;
+
+    private final ScheduledExecutorService deadlineExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("scheduleDeadlines-%d").setDaemon(true).build());
+    private final Cache<Integer, ScheduleIndex> indexes = CacheBuilder.newBuilder()
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .removalListener(new RemovalListener<Integer, ScheduleIndex>() {
+                @Override
+                public void onRemoval(RemovalNotification<Integer, ScheduleIndex> notification) {
+                    if (notification.wasEvicted()) {
+                        for (ScheduleListener listener: scheduleListeners) {
+                            listener.onScheduleEvicted(notification.getKey());
+                        }
+                    }
+                }
+            })
+            .build();
+
+    private final ScheduleStore scheduleStore;
     private final int numWeeks;
-    private final ExecutorService executorService;
+    private final int numPastWeeks;
+    private final FetchScheduler fetchScheduler;
+    private final List<ScheduleListener> scheduleListeners = Lists.newCopyOnWriteArrayList();
+
+    /**
+     * Told about every new version of a club's schedule, on the thread that loaded it, and when a club's schedule is
+     * evicted after going unused.
+     */
+    public interface ScheduleListener {
+        void onSchedule(int clubId, ScheduleIndex index);
 
-    public ClassScheduleManager(TwentyFourHourParser parser, int numWeeks, ExecutorService executorService) {
-        this.parser = parser;
+        void onScheduleEvicted(int clubId);
+    }
+
+    public ClassScheduleManager(ScheduleStore scheduleStore, int numWeeks, FetchScheduler fetchScheduler) {
+        this(scheduleStore, numWeeks, 0, fetchScheduler);
+    }
+
+    /**
+     * Serves a rolling window of {@code numPastWeeks} frozen past weeks followed by the current week and the weeks after
+     * it, {@code numWeeks} in total. Only the current and future weeks are ever fetched or refreshed; when the window
+     * rolls over the week that just ended is frozen and the one that entered it is the only new fetch.
+     */
+    public ClassScheduleManager(ScheduleStore scheduleStore, int numWeeks, int numPastWeeks, FetchScheduler fetchScheduler) {
+        this.scheduleStore = scheduleStore;
         this.numWeeks = numWeeks;
-        this.executorService = executorService;
+        this.numPastWeeks = numPastWeeks;
+        this.fetchScheduler = fetchScheduler;
     }
 
-    public Set<ClassInfo> getClassInfos(final int clubId) {
-        List<Future<Collection<ClassInfo>>> futures = Lists.newArrayList();
+    public void addScheduleListener(ScheduleListener listener) {
+        scheduleListeners.add(listener);
+    }
 
-        for (int i = 0; i < numWeeks; i++) {
-            final LocalDate weekStart = (new LocalDate()).dayOfWeek().withMinimumValue().plusWeeks(i);
+    /**
+     * Whether every loaded week of the club is held and fresh for at least the look-ahead.
+     */
+    public boolean isWarm(int clubId, long lookAheadMillis) {
+        for (LocalDate weekStart: getWeekStarts()) {
+            if (!scheduleStore.isFresh(clubId, weekStart, lookAheadMillis)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            Future<Collection<ClassInfo>> classInfoFuture = executorService.submit(new Callable<Collection<ClassInfo>>() {
-                @Override
-                public Collection<ClassInfo> call() throws Exception {
-                    return parser.fetchClassSchedules(clubId, weekStart);
+    /**
+     * Refreshes up to {@code budget} of the club's weeks that would otherwise go stale within the look-ahead, returning
+     * how many refreshes were started.
+     */
+    public int prewarm(final int clubId, long lookAheadMillis, int budget) {
+        int refreshed = 0;
+        for (final LocalDate weekStart: getWeekStarts()) {
+            if (refreshed >= budget) {
+                break;
+            }
+            if (!scheduleStore.isFresh(clubId, weekStart, lookAheadMillis)) {
+                try {
+                    fetchScheduler.execute(FetchScheduler.Priority.PREWARM, new Runnable() {
+                        @Override
+                        public void run() {
+                            scheduleStore.refresh(clubId, weekStart);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    log.debug("Stopped prewarming clubId={}, the fetch queue is full", clubId);
+                    break;
                 }
-            });
-            futures.add(classInfoFuture);
+                refreshed++;
+            }
         }
+        return refreshed;
+    }
+
+    /**
+     * The latest index of every club whose schedule has been loaded recently.
+     */
+    public Map<Integer, ScheduleIndex> getLoadedIndexes() {
+        return Maps.newHashMap(indexes.asMap());
+    }
 
-        Set<ClassInfo> classes = Sets.newHashSet();
-        for (Future<Collection<ClassInfo>> future: futures) {
+    public Set<ClassInfo> getClassInfos(int clubId) {
+        return getSchedule(clubId).getClasses();
+    }
+
+    public ClubSchedule getSchedule(int clubId) {
+        try {
+            return getScheduleAsync(clubId, System.currentTimeMillis() + WEEKS_TIMEOUT_MILLIS).get();
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while trying to get classes for clubId={}", clubId, e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warn("Exception while trying to get classes for clubId={}", clubId, e);
+        }
+        return emptySchedule();
+    }
+
+    /**
+     * Loads the schedules of all the clubs in parallel under a single deadline, keeping the order of the club ids.
+     */
+    public Map<Integer, ClubSchedule> getSchedules(Collection<Integer> clubIds) {
+        long deadlineMillis = System.currentTimeMillis() + WEEKS_TIMEOUT_MILLIS;
+        Map<Integer, ListenableFuture<ClubSchedule>> futures = Maps.newLinkedHashMap();
+        for (Integer clubId: clubIds) {
+            futures.put(clubId, getScheduleAsync(clubId, deadlineMillis));
+        }
+
+        Map<Integer, ClubSchedule> schedules = Maps.newLinkedHashMap();
+        for (Map.Entry<Integer, ListenableFuture<ClubSchedule>> future: futures.entrySet()) {
             try {
-                classes.addAll(future.get(5, TimeUnit.SECONDS));
+                schedules.put(future.getKey(), future.getValue().get());
             } catch (InterruptedException e) {
-                log.warn("Interrupted while trying to get classes for clubId={}", clubId, e);
+                log.warn("Interrupted while trying to get classes for clubId={}", future.getKey(), e);
+                Thread.currentThread().interrupt();
+                schedules.put(future.getKey(), emptySchedule());
             } catch (ExecutionException e) {
-                log.warn("Exception while trying to get classes for clubId={}", clubId, e);
-            } catch (TimeoutException e) {
-                log.warn("Timed out while trying to get classes for clubId={}", clubId, e);
+                log.warn("Exception while trying to get classes for clubId={}", future.getKey(), e);
+                schedules.put(future.getKey(), emptySchedule());
             }
         }
-        return classes;
+        return schedules;
     }
 
-}
\ No newline at end of file
+    /**
+     * Loads all weeks of the club, completing no later than {@code deadlineMillis}. Weeks that are already held are
+     * answered without queueing a fetch. Weeks that fail or miss the deadline are served from their last known good
+     * copy when there is one, so the returned future never fails because of a single week. Past weeks that can't be
+     * read from the history by the deadline are left out.
+     */
+    public ListenableFuture<ClubSchedule> getScheduleAsync(final int clubId, long deadlineMillis) {
+        final List<LocalDate> pastWeekStarts = getPastWeekStarts();
+        final List<SettableFuture<WeekSchedule>> frozenResults = Lists.newArrayList();
+        for (LocalDate weekStart: pastWeekStarts) {
+            final SettableFuture<WeekSchedule> frozenResult = SettableFuture.create();
+            frozenResults.add(frozenResult);
+            Futures.addCallback(scheduleStore.getFrozenWeek(clubId, weekStart), new FutureCallback<Optional<WeekSchedule>>() {
+                @Override
+                public void onSuccess(Optional<WeekSchedule> result) {
+                    frozenResult.set(result.orNull());
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    frozenResult.set(null);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        final List<LocalDate> weekStarts = getWeekStarts();
+        final List<SettableFuture<WeekResult>> weekResults = Lists.newArrayList();
+        for (final LocalDate weekStart: weekStarts) {
+            final SettableFuture<WeekResult> weekResult = SettableFuture.create();
+            weekResults.add(weekResult);
+
+            Optional<WeekSchedule> heldWeek = scheduleStore.getWeekIfPresent(clubId, weekStart);
+            if (heldWeek.isPresent()) {
+                weekResult.set(new WeekResult(heldWeek.get(), false));
+                continue;
+            }
+
+            scheduleStore.prefetchLastKnownGood(clubId, weekStart);
+            ListenableFuture<WeekSchedule> loadedWeek;
+            try {
+                loadedWeek = fetchScheduler.submit(FetchScheduler.Priority.INTERACTIVE, new Callable<WeekSchedule>() {
+                    @Override
+                    public WeekSchedule call() throws Exception {
+                        return scheduleStore.getWeek(clubId, weekStart);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.warn("Couldn't queue loading classes for clubId={} and week starting {}", clubId, weekStart, e);
+                weekResult.set(lastKnownGood(clubId, weekStart));
+                continue;
+            }
+            Futures.addCallback(loadedWeek, new FutureCallback<WeekSchedule>() {
+                @Override
+                public void onSuccess(WeekSchedule result) {
+                    weekResult.set(new WeekResult(result, false));
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    log.warn("Exception while trying to get classes for clubId={} and week starting {}", clubId, weekStart, t);
+                    weekResult.set(lastKnownGood(clubId, weekStart));
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        final ListenableFuture<List<WeekSchedule>> allFrozenWeeks = Futures.allAsList(frozenResults);
+        final ListenableFuture<List<WeekResult>> allWeeks = Futures.allAsList(weekResults);
+        ListenableFuture<List<Object>> everything = Futures.<Object>allAsList(allFrozenWeeks, allWeeks);
+        if (!everything.isDone()) {
+            final ScheduledFuture<?> deadline = deadlineExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < pastWeekStarts.size(); i++) {
+                        if (!frozenResults.get(i).isDone()) {
+                            log.warn("Timed out while trying to read classes for clubId={} and week starting {}", clubId, pastWeekStarts.get(i));
+                            frozenResults.get(i).set(null);
+                        }
+                    }
+                    for (int i = 0; i < weekStarts.size(); i++) {
+                        if (!weekResults.get(i).isDone()) {
+                            log.warn("Timed out while trying to get classes for clubId={} and week starting {}", clubId, weekStarts.get(i));
+                            weekResults.get(i).set(lastKnownGood(clubId, weekStarts.get(i)));
+                        }
+                    }
+                }
+            }, Math.max(0, deadlineMillis - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            everything.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    deadline.cancel(false);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        return Futures.transform(everything, new Function<List<Object>, ClubSchedule>() {
+            @Override
+            public ClubSchedule apply(List<Object> ignored) {
+                List<WeekResult> results = Futures.getUnchecked(allWeeks);
+                List<WeekSchedule> weeks = Lists.newArrayList();
+                long oldestLoadedAt = Long.MAX_VALUE;
+                int fallbackWeeks = 0;
+                int missingWeeks = 0;
+                long version = 1;
+                for (WeekResult result: results) {
+                    if (result.weekSchedule == null) {
+                        missingWeeks++;
+                        version = 31 * version;
+                        continue;
+                    }
+                    version = 31 * version + result.weekSchedule.getContentHash();
+                    if (result.fallback) {
+                        fallbackWeeks++;
+                    }
+                    weeks.add(result.weekSchedule);
+                    oldestLoadedAt = Math.min(oldestLoadedAt, result.weekSchedule.getLoadedAt());
+                }
+                for (WeekSchedule frozenWeek: Futures.getUnchecked(allFrozenWeeks)) {
+                    if (frozenWeek != null) {
+                        version = 31 * version + frozenWeek.getContentHash();
+                        weeks.add(frozenWeek);
+                    }
+                }
+                return new ClubSchedule(getIndex(clubId, weeks, version), oldestLoadedAt == Long.MAX_VALUE ? System.currentTimeMillis() : oldestLoadedAt, fallbackWeeks, missingWeeks, version);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * Returns the club's index for the weeks, only decoding them and building a new one when the version changed.
+     */
+    private ScheduleIndex getIndex(int clubId, List<WeekSchedule> weeks, long version) {
+        ScheduleIndex index = indexes.getIfPresent(clubId);
+        if (index != null && index.getVersion() == version) {
+            return index;
+        }
+        List<ClassInfo> classes = Lists.newArrayList();
+        for (WeekSchedule week: weeks) {
+            classes.addAll(scheduleStore.decode(week));
+        }
+        index = ScheduleIndex.build(classes, version);
+        indexes.put(clubId, index);
+        for (ScheduleListener listener: scheduleListeners) {
+            listener.onSchedule(clubId, index);
+        }
+        return index;
+    }
+
+    private ClubSchedule emptySchedule() {
+        return new ClubSchedule(ScheduleIndex.EMPTY, System.currentTimeMillis(), 0, numWeeks, 0);
+    }
+
+    private WeekResult lastKnownGood(int clubId, LocalDate weekStart) {
+        Optional<WeekSchedule> lastKnownGood = scheduleStore.getLastKnownGood(clubId, weekStart);
+        if (!lastKnownGood.isPresent()) {
+            return new WeekResult(null, false);
+        }
+        log.info("Serving last known good schedule for clubId={} and week starting {}", clubId, weekStart);
+        return new WeekResult(lastKnownGood.get(), true);
+    }
+
+    private List<LocalDate> getPastWeekStarts() {
+        List<LocalDate> weekStarts = Lists.newArrayList();
+        LocalDate firstWeekStart = (new LocalDate()).dayOfWeek().withMinimumValue();
+        for (int i = numPastWeeks; i > 0; i--) {
+            weekStarts.add(firstWeekStart.minusWeeks(i));
+        }
+        return weekStarts;
+    }
+
+    private List<LocalDate> getWeekStarts() {
+        List<LocalDate> weekStarts = Lists.newArrayList();
+        LocalDate firstWeekStart = (new LocalDate()).dayOfWeek().withMinimumValue();
+        for (int i = 0; i < numWeeks; i++) {
+            weekStarts.add(firstWeekStart.plusWeeks(i));
+        }
+        return weekStarts;
+    }
+
+    private static class WeekResult {
+        private final WeekSchedule weekSchedule;
+        private final boolean fallback;
+
+        private WeekResult(WeekSchedule weekSchedule, boolean fallback) {
+            this.weekSchedule = weekSchedule;
+            this.fallback = fallback;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.lowtuna.gymclasscal.util.JsoupDocumentLoader;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+/**
+ * Crawls the club list as a pipeline: the state list is fetched first, every state page is then fetched on the state
+ * executor and every newly discovered city page on the city executor. The executors' pool sizes bound how many pages of
+ * each stage are fetched at once, and club ids are handed to the listener as soon as their city page has been parsed.
+ */
+@Slf4j
+public class ClubIdCrawler {
+    public interface ClubIdListener {
+        void onClubIds(Set<Integer> clubIds);
+    }
+
+    private final String baseClubListUrl;
+    private final Pattern clubDetailPagePattern;
+    private final JsoupDocumentLoader documentLoader;
+    private final ExecutorService statePageExecutor;
+    private final ExecutorService cityPageExecutor;
+
+    private final Timer stateListTimer;
+    private final Timer statePageTimer;
+    private final Timer cityPageTimer;
+
+    private final AtomicInteger statePagesFound = new AtomicInteger();
+    private final AtomicInteger statePagesDone = new AtomicInteger();
+    private final AtomicInteger cityPagesFound = new AtomicInteger();
+    private final AtomicInteger cityPagesDone = new AtomicInteger();
+    private final AtomicInteger clubIdsFound = new AtomicInteger();
+
+    public ClubIdCrawler(String baseClubListUrl, Pattern clubDetailPagePattern, JsoupDocumentLoader documentLoader, ExecutorService statePageExecutor, ExecutorService cityPageExecutor, MetricRegistry metricRegistry) {
+        this.baseClubListUrl = baseClubListUrl;
+        this.clubDetailPagePattern = clubDetailPagePattern;
+        this.documentLoader = documentLoader;
+        this.statePageExecutor = statePageExecutor;
+        this.cityPageExecutor = cityPageExecutor;
+
+        this.stateListTimer = metricRegistry.timer(MetricRegistry.name(getClass(), "stateList"));
+        this.statePageTimer = metricRegistry.timer(MetricRegistry.name(getClass(), "statePages"));
+        this.cityPageTimer = metricRegistry.timer(MetricRegistry.name(getClass(), "cityPages"));
+
+        registerGauge(metricRegistry, statePagesFound, "statePages", "found");
+        registerGauge(metricRegistry, statePagesDone, "statePages", "done");
+        registerGauge(metricRegistry, cityPagesFound, "cityPages", "found");
+        registerGauge(metricRegistry, cityPagesDone, "cityPages", "done");
+        registerGauge(metricRegistry, clubIdsFound, "clubIds", "found");
+    }
+
+    /**
+     * Runs a full crawl, blocking until every page has been fetched, and returns all club ids that were found.
+     */
+    public Set<Integer> crawl(final ClubIdListener listener) {
+        final String prefixPath;
+        try {
+            prefixPath = new URI(baseClubListUrl).getPath();
+        } catch (URISyntaxException e) {
+            log.warn("Couldn't create URI for {}. Returning empty set of club ids", baseClubListUrl, e);
+            return Collections.emptySet();
+        }
+
+        statePagesFound.set(0);
+        statePagesDone.set(0);
+        cityPagesFound.set(0);
+        cityPagesDone.set(0);
+        clubIdsFound.set(0);
+
+        final Phaser pending = new Phaser(1);
+        final Set<String> cityLinks = Sets.newConcurrentHashSet();
+        final Set<Integer> clubIds = Sets.newConcurrentHashSet();
+
+        List<String> stateLinks = fetchLinks(baseClubListUrl, prefixPath, stateListTimer);
+        for (final String stateLink: ImmutableSet.copyOf(stateLinks)) {
+            statePagesFound.incrementAndGet();
+            submit(statePageExecutor, pending, new Runnable() {
+                @Override
+                public void run() {
+                    log.debug("Following state link {}", stateLink);
+                    for (final String cityLink: fetchLinks(stateLink, prefixPath, statePageTimer)) {
+                        if (!cityLinks.add(cityLink)) {
+                            continue;
+                        }
+                        cityPagesFound.incrementAndGet();
+                        submit(cityPageExecutor, pending, new Runnable() {
+                            @Override
+                            public void run() {
+                                log.debug("Following city link {}", cityLink);
+                                Set<Integer> discovered = Sets.newHashSet();
+                                for (Integer clubId: fetchClubIds(cityLink)) {
+                                    if (clubIds.add(clubId)) {
+                                        discovered.add(clubId);
+                                    }
+                                }
+                                clubIdsFound.set(clubIds.size());
+                                cityPagesDone.incrementAndGet();
+                                if (!discovered.isEmpty()) {
+                                    listener.onClubIds(discovered);
+                                }
+                            }
+                        });
+                    }
+                    statePagesDone.incrementAndGet();
+                }
+            });
+        }
+
+        pending.arriveAndAwaitAdvance();
+        log.debug("Crawled {} state pages and {} city pages, found {} club ids", statePagesDone.get(), cityPagesDone.get(), clubIds.size());
+        return clubIds;
+    }
+
+    private void submit(ExecutorService executor, final Phaser pending, final Runnable task) {
+        pending.register();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        log.error("Club id crawl task failed", e);
+                    } finally {
+                        pending.arriveAndDeregister();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.arriveAndDeregister();
+            log.warn("Couldn't schedule club id crawl task", e);
+        }
+    }
+
+    private List<String> fetchLinks(String url, String prefixPath, Timer timer) {
+        Timer.Context context = timer.time();
+        try {
+            Document doc = documentLoader.fetchDocument(url);
+            return extractLinks(doc.select("a"), prefixPath);
+        } catch (IOException e) {
+            log.error("Couldn't get links for {}", url, e);
+            return Collections.emptyList();
+        } finally {
+            context.stop();
+        }
+    }
+
+    private Set<Integer> fetchClubIds(String cityLink) {
+        Set<Integer> clubIds = Sets.newHashSet();
+        Timer.Context context = cityPageTimer.time();
+        try {
+            Document cityClubsDoc = documentLoader.fetchDocument(cityLink);
+            Elements clubListLinks  = cityClubsDoc.select("#clubListTable tr.oddRow td a, #clubListTable tr.evenRow td a");
+
+            for (Element clubDetailsEl: clubListLinks) {
+                String link = clubDetailsEl.attr("href");
+                if (StringUtils.isEmpty(link)) {
+                    continue;
+                }
+                Matcher matcher = clubDetailPagePattern.matcher(link);
+                if (matcher.matches()) {
+                    Integer clubId = Integer.parseInt(matcher.group(1));
+                    clubIds.add(clubId);
+                    log.debug("Found club ID of {}", clubId);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Couldn't get city link for {}", cityLink, e);
+        } finally {
+            context.stop();
+        }
+        return clubIds;
+    }
+
+    private static List<String> extractLinks(Elements linkEls, String prefixPath) {
+        List<String> links = Lists.newArrayList();
+        for (Element linkElement: linkEls) {
+            String link = linkElement.attr("href");
+            if (link.startsWith(prefixPath) && !link.equals(prefixPath)) {
+                links.add(linkElement.attr("abs:href"));
+            }
+        }
+        return links;
+    }
+
+    private void registerGauge(MetricRegistry metricRegistry, final AtomicInteger counter, String... names) {
+        metricRegistry.register(MetricRegistry.name(getClass(), names), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return counter.get();
+            }
+        });
+    }
+}
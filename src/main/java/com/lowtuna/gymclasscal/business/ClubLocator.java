@@ -0,0 +1,142 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lowtuna.gymclasscal.core.Club;
+import com.lowtuna.gymclasscal.core.GeoPoint;
+import com.lowtuna.gymclasscal.core.NearbyClub;
+import com.lowtuna.gymclasscal.util.GeoGrid;
+import com.lowtuna.gymclasscal.util.ZipCentroids;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Finds the clubs nearest to a point or zip code. Clubs are placed at the center of the zip code their address ends
+ * with, and kept in a {@link GeoGrid} that is rebuilt from the club directory and swapped in whole, so lookups never
+ * see a half built index. Rather than on every club the directory loads, the grid is rebuilt at most once an interval:
+ * when clubs were loaded since the last rebuild, or when the directory holds a different number of clubs than the grid
+ * was built from, which is how clubs that expired from the directory drop out.
+ */
+@Slf4j
+public class ClubLocator implements ClubManager.ClubListener, Managed {
+    private static final double CELL_DEGREES = 0.5;
+
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("clubLocator-%d").setDaemon(true).build());
+    private final AtomicBoolean clubsLoaded = new AtomicBoolean();
+
+    private final ZipCentroids zipCentroids;
+    private final ClubManager clubManager;
+    private final Duration rebuildInterval;
+
+    private volatile GeoGrid<Club> grid = GeoGrid.build(ImmutableMap.<Club, GeoPoint>of(), CELL_DEGREES);
+    private volatile int unlocated = 0;
+    private int builtFrom = 0;
+
+    public ClubLocator(ZipCentroids zipCentroids, ClubManager clubManager, Duration rebuildInterval, MetricRegistry metricRegistry) {
+        this.zipCentroids = zipCentroids;
+        this.clubManager = clubManager;
+        this.rebuildInterval = rebuildInterval;
+
+        metricRegistry.register(MetricRegistry.name(getClass(), "clubs", "located"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return grid.size();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "clubs", "unlocated"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return unlocated;
+            }
+        });
+        rebuild();
+    }
+
+    @Override
+    public void start() throws Exception {
+        scheduledExecutorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebuildIfChanged();
+                } catch (RuntimeException e) {
+                    log.warn("Rebuilding the club locations failed", e);
+                }
+            }
+        }, rebuildInterval.getQuantity(), rebuildInterval.getQuantity(), rebuildInterval.getUnit());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        scheduledExecutorService.shutdownNow();
+    }
+
+    @Override
+    public void onClub(Club club) {
+        clubsLoaded.set(true);
+    }
+
+    /**
+     * Up to {@code limit} clubs within the radius of the point, nearest first.
+     */
+    public List<NearbyClub> near(GeoPoint center, double radiusMiles, int limit) {
+        List<NearbyClub> clubs = Lists.newArrayList();
+        for (GeoGrid.Neighbor<Club> neighbor: grid.near(center, radiusMiles, limit)) {
+            clubs.add(new NearbyClub(neighbor.getValue(), Math.round(neighbor.getDistanceMiles() * 10) / 10.0));
+        }
+        return clubs;
+    }
+
+    /**
+     * Up to {@code limit} clubs within the radius of the zip code's center, nearest first, or nothing if the zip code
+     * isn't known.
+     */
+    public Optional<List<NearbyClub>> near(String zip, double radiusMiles, int limit) {
+        Optional<GeoPoint> center = zipCentroids.get(zip);
+        if (!center.isPresent()) {
+            return Optional.absent();
+        }
+        return Optional.of(near(center.get(), radiusMiles, limit));
+    }
+
+    synchronized void rebuildIfChanged() {
+        List<Club> clubs = clubManager.getLoadedClubs();
+        if (clubsLoaded.getAndSet(false) || clubs.size() != builtFrom) {
+            rebuild(clubs);
+        }
+    }
+
+    synchronized void rebuild() {
+        clubsLoaded.set(false);
+        rebuild(clubManager.getLoadedClubs());
+    }
+
+    private void rebuild(List<Club> clubs) {
+        Map<Club, GeoPoint> locations = Maps.newLinkedHashMap();
+        int notFound = 0;
+        for (Club club: clubs) {
+            Optional<GeoPoint> location = zipCentroids.get(club.getZip());
+            if (location.isPresent()) {
+                locations.put(club, location.get());
+            } else {
+                notFound++;
+            }
+        }
+        grid = GeoGrid.build(locations, CELL_DEGREES);
+        unlocated = notFound;
+        builtFrom = clubs.size();
+        log.debug("Rebuilt the club locations with {} clubs, {} couldn't be located", locations.size(), notFound);
+    }
+}
@@ -1,13 +1,113 @@
 package com.lowtuna.gymclasscal.business;
 
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.lowtuna.gymclasscal.core.Club;
+import io.dropwizard.util.Duration;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Directory of club names, addresses and phone numbers. Club details rarely change, so they are kept for their own long
+ * TTL and loaded in the background for every club id the crawler reports, which lets lookups be answered from memory.
+ */
 @Slf4j
-public class ClubManager {
+public class ClubManager implements ClubIdCrawler.ClubIdListener {
     private final TwentyFourHourParser parser;
+    private final Executor loadExecutor;
+    private final Cache<Integer, Club> clubs;
+    private final Set<Integer> loading = Sets.newConcurrentHashSet();
+    private final List<ClubListener> clubListeners = Lists.newCopyOnWriteArrayList();
+
+    public interface ClubListener {
+        void onClub(Club club);
+    }
 
-    public ClubManager(TwentyFourHourParser parser) {
+    public ClubManager(TwentyFourHourParser parser, Duration clubInfoTtl, Executor loadExecutor, MetricRegistry metricRegistry) {
         this.parser = parser;
+        this.loadExecutor = loadExecutor;
+        this.clubs = CacheBuilder.newBuilder()
+                .expireAfterWrite(clubInfoTtl.toMilliseconds(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+
+        metricRegistry.register(MetricRegistry.name(getClass(), "clubs", "hitRate"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return clubs.stats().hitRate();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "clubs", "entries"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return clubs.size();
+            }
+        });
     }
 
+    public void addClubListener(ClubListener listener) {
+        clubListeners.add(listener);
+    }
+
+    /**
+     * Returns the club's details, fetching them only if the directory doesn't have them yet.
+     */
+    public Club getClub(int clubId) {
+        Club club = clubs.getIfPresent(clubId);
+        if (club == null) {
+            club = load(clubId);
+        }
+        return club;
+    }
+
+    /**
+     * The details of every club currently in the directory.
+     */
+    public List<Club> getLoadedClubs() {
+        return Lists.newArrayList(clubs.asMap().values());
+    }
+
+    @Override
+    public void onClubIds(Set<Integer> clubIds) {
+        for (final Integer clubId: clubIds) {
+            if (clubs.asMap().containsKey(clubId) || !loading.add(clubId)) {
+                continue;
+            }
+            try {
+                loadExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            load(clubId);
+                        } finally {
+                            loading.remove(clubId);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                loading.remove(clubId);
+                log.warn("Couldn't schedule loading details for clubId={}", clubId, e);
+            }
+        }
+    }
+
+    private Club load(int clubId) {
+        Club club = parser.fetchClubInfo(clubId);
+        if (club != null) {
+            clubs.put(clubId, club);
+            for (ClubListener listener: clubListeners) {
+                listener.onClub(club);
+            }
+        }
+        return club;
+    }
 }
@@ -0,0 +1,17 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.util.Set;
+
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import lombok.Data;
+
+/**
+ * The classes parsed for a week and when the page they came from was fetched upstream. A week whose page couldn't be
+ * fetched or parsed is failed and has no classes, as opposed to a week that is empty upstream.
+ */
+@Data
+public class FetchedWeek {
+    private final Set<ClassInfo> classes;
+    private final long fetchedAt;
+    private final boolean failed;
+}
@@ -0,0 +1,216 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.lowtuna.gymclasscal.core.ClassChange;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.ClubSchedule;
+import com.lowtuna.gymclasscal.core.ScheduleChanges;
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.LocalDateTime;
+
+/**
+ * Keeps a log of the classes added, changed and removed between the schedule versions seen for each club, so sync
+ * clients can be sent just the changes since their last sync token. Classes that drop out of the front of the rolling
+ * window aren't logged as removed. Tokens are only valid for this process, for the club's log they were handed out
+ * from (a club's log starts over when it's evicted) and as long as the changes they point at are still in the log;
+ * anything else gets a full sync.
+ */
+@Slf4j
+public class ScheduleChangeLog {
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong generations = new AtomicLong();
+    private final int maxChangesPerClub;
+    private final LoadingCache<Integer, ClubLog> logs;
+
+    private final Meter deltaSyncs;
+    private final Meter fullSyncs;
+
+    public ScheduleChangeLog(int maxClubs, int maxChangesPerClub, MetricRegistry metricRegistry) {
+        this.maxChangesPerClub = maxChangesPerClub;
+        this.logs = CacheBuilder.newBuilder().maximumSize(maxClubs).build(new CacheLoader<Integer, ClubLog>() {
+            @Override
+            public ClubLog load(Integer key) throws Exception {
+                return new ClubLog();
+            }
+        });
+
+        this.deltaSyncs = metricRegistry.meter(MetricRegistry.name(getClass(), "syncs", "delta"));
+        this.fullSyncs = metricRegistry.meter(MetricRegistry.name(getClass(), "syncs", "full"));
+        metricRegistry.register(MetricRegistry.name(getClass(), "clubs"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return logs.size();
+            }
+        });
+    }
+
+    /**
+     * Logs the differences between the club's schedule and the last version recorded for it. Empty schedules, which
+     * are what's served when a club's classes couldn't be loaded at all, and schedules missing weeks are ignored, as
+     * logging them would remove every class of the missing weeks.
+     */
+    public void record(int clubId, ClubSchedule schedule) {
+        if (schedule.getClasses().isEmpty() || schedule.getMissingWeeks() > 0) {
+            return;
+        }
+        logs.getUnchecked(clubId).record(clubId, schedule);
+    }
+
+    /**
+     * Returns the changes since the sync token, or the whole schedule if the token is missing or can't be served.
+     */
+    public ScheduleChanges getChanges(int clubId, ClubSchedule schedule, String syncToken) {
+        record(clubId, schedule);
+        ClubLog clubLog = logs.getUnchecked(clubId);
+        synchronized (clubLog) {
+            List<ClassChange> changes = clubLog.changesSince(parseToken(clubLog, syncToken));
+            if (changes != null) {
+                deltaSyncs.mark();
+                return new ScheduleChanges(token(clubLog), false, changes);
+            }
+            fullSyncs.mark();
+            List<ClassChange> all = Lists.newArrayListWithCapacity(clubLog.classes.size());
+            for (Map.Entry<String, ClassInfo> entry: clubLog.classes.entrySet()) {
+                all.add(new ClassChange(entry.getKey(), ClassChange.Type.ADDED, entry.getValue()));
+            }
+            return new ScheduleChanges(token(clubLog), true, all);
+        }
+    }
+
+    private String token(ClubLog clubLog) {
+        return clubLog.tokenPrefix + clubLog.sequence;
+    }
+
+    private long parseToken(ClubLog clubLog, String syncToken) {
+        if (syncToken == null || !syncToken.startsWith(clubLog.tokenPrefix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(syncToken.substring(clubLog.tokenPrefix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private class ClubLog {
+        private final String tokenPrefix = epoch + "-" + Long.toString(generations.incrementAndGet(), 36) + "-";
+        private final Deque<LoggedChange> changes = new ArrayDeque<>();
+        private Map<String, ClassInfo> classes = Maps.newHashMap();
+        private long version;
+        private long sequence = 0;
+        private long oldestServableSequence = 0;
+
+        synchronized void record(int clubId, ClubSchedule schedule) {
+            if (sequence > 0 && schedule.getVersion() == version) {
+                return;
+            }
+            Map<String, ClassInfo> current = Maps.newHashMapWithExpectedSize(schedule.getClasses().size());
+            LocalDateTime windowStart = null;
+            for (ClassInfo classInfo: schedule.getClasses()) {
+                current.put(schedule.getIndex().uid(clubId, classInfo), classInfo);
+                if (windowStart == null || classInfo.getTime().isBefore(windowStart)) {
+                    windowStart = classInfo.getTime();
+                }
+            }
+
+            long next = sequence + 1;
+            if (sequence == 0) {
+                // nobody holds a token yet, so the first version is only served as a full sync
+                oldestServableSequence = next;
+            } else {
+                int logged = changes.size();
+                for (Map.Entry<String, ClassInfo> entry: current.entrySet()) {
+                    ClassInfo previous = classes.get(entry.getKey());
+                    if (previous == null) {
+                        log(next, entry.getKey(), ClassChange.Type.ADDED, entry.getValue());
+                    } else if (!previous.equals(entry.getValue())) {
+                        log(next, entry.getKey(), ClassChange.Type.CHANGED, entry.getValue());
+                    }
+                }
+                for (Map.Entry<String, ClassInfo> entry: classes.entrySet()) {
+                    if (!current.containsKey(entry.getKey()) && !entry.getValue().getTime().isBefore(windowStart)) {
+                        log(next, entry.getKey(), ClassChange.Type.REMOVED, entry.getValue());
+                    }
+                }
+                ScheduleChangeLog.log.debug("Logged {} changes to the schedule of clubId={}", changes.size() - logged, clubId);
+            }
+
+            while (changes.size() > maxChangesPerClub) {
+                oldestServableSequence = changes.removeFirst().sequence;
+            }
+            classes = current;
+            version = schedule.getVersion();
+            sequence = next;
+        }
+
+        /**
+         * Net changes after the sequence, one per class, or {@code null} if they aren't all in the log anymore.
+         */
+        List<ClassChange> changesSince(long since) {
+            if (since < oldestServableSequence || since > sequence) {
+                return null;
+            }
+            Map<String, ClassChange> net = Maps.newLinkedHashMap();
+            Iterator<LoggedChange> newestFirst = changes.descendingIterator();
+            List<LoggedChange> pending = Lists.newArrayList();
+            while (newestFirst.hasNext()) {
+                LoggedChange change = newestFirst.next();
+                if (change.sequence <= since) {
+                    break;
+                }
+                pending.add(change);
+            }
+            for (LoggedChange change: Lists.reverse(pending)) {
+                ClassChange earlier = net.get(change.change.getUid());
+                ClassChange merged = earlier == null ? change.change : merge(earlier, change.change);
+                if (merged == null) {
+                    net.remove(change.change.getUid());
+                } else {
+                    net.put(change.change.getUid(), merged);
+                }
+            }
+            return Lists.newArrayList(net.values());
+        }
+
+        private void log(long sequence, String uid, ClassChange.Type type, ClassInfo classInfo) {
+            changes.addLast(new LoggedChange(sequence, new ClassChange(uid, type, classInfo)));
+        }
+    }
+
+    /**
+     * Combines two successive changes to the same class into the one a client needs, or {@code null} if they cancel out.
+     */
+    static ClassChange merge(ClassChange earlier, ClassChange later) {
+        if (earlier.getType() == ClassChange.Type.ADDED) {
+            return later.getType() == ClassChange.Type.REMOVED ? null : new ClassChange(later.getUid(), ClassChange.Type.ADDED, later.getClassInfo());
+        }
+        if (earlier.getType() == ClassChange.Type.REMOVED && later.getType() == ClassChange.Type.ADDED) {
+            return new ClassChange(later.getUid(), ClassChange.Type.CHANGED, later.getClassInfo());
+        }
+        return later;
+    }
+
+    private static class LoggedChange {
+        private final long sequence;
+        private final ClassChange change;
+
+        private LoggedChange(long sequence, ClassChange change) {
+            this.sequence = sequence;
+            this.change = change;
+        }
+    }
+}
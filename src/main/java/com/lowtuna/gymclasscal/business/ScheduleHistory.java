@@ -0,0 +1,396 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.ClubWeek;
+import com.lowtuna.gymclasscal.core.WeekSchedule;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import lombok.Data;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+
+/**
+ * Durable copy of every parsed week in a Mongo collection, one document per (clubId, weekStart). Weeks are queued as
+ * they're parsed and written in the background as unordered bulk upserts, so fetches never wait on Mongo; repeated
+ * loads of a week are coalesced and weeks whose classes haven't changed since they were last written are skipped.
+ * Reads stand in for weeks that aren't held in memory, after a restart or when upstream fails. They run on threads of
+ * their own so callers can bound how long they wait, share one query per week and remember weeks that aren't stored
+ * for a while, so weeks that were never parsed don't go to Mongo on every request.
+ */
+@Slf4j
+public class ScheduleHistory implements Managed {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final int READ_THREADS = 4;
+
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("scheduleHistory-%d").setDaemon(true).build());
+    private final ExecutorService readExecutor = Executors.newFixedThreadPool(READ_THREADS, new ThreadFactoryBuilder().setNameFormat("scheduleHistoryReads-%d").setDaemon(true).build());
+    private final ConcurrentMap<ClubWeek, Long> writtenHashes = Maps.newConcurrentMap();
+    private final ConcurrentMap<ClubWeek, ListenableFuture<Optional<StoredWeek>>> reads = Maps.newConcurrentMap();
+    private final Cache<ClubWeek, Boolean> missingWeeks;
+
+    private final DBCollection collection;
+    private final int batchSize;
+    private final Duration flushInterval;
+
+    /**
+     * How long a fetch that failed waits for a read of the stored copy before going without it.
+     */
+    @Getter
+    private final Duration readTimeout;
+
+    private final Meter upserts;
+    private final Meter unchanged;
+    private final Meter writeFailures;
+    private final Meter missingWeekHits;
+    private final Timer flushes;
+
+    private Map<ClubWeek, PendingWeek> pending = Maps.newLinkedHashMap();
+
+    public ScheduleHistory(DBCollection collection, int batchSize, Duration flushInterval, Duration readTimeout, Duration missingWeekTtl, MetricRegistry metricRegistry) {
+        this.collection = collection;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.readTimeout = readTimeout;
+        this.missingWeeks = CacheBuilder.newBuilder().expireAfterWrite(missingWeekTtl.getQuantity(), missingWeekTtl.getUnit()).build();
+
+        this.upserts = metricRegistry.meter(MetricRegistry.name(getClass(), "upserts"));
+        this.unchanged = metricRegistry.meter(MetricRegistry.name(getClass(), "unchanged"));
+        this.writeFailures = metricRegistry.meter(MetricRegistry.name(getClass(), "writeFailures"));
+        this.missingWeekHits = metricRegistry.meter(MetricRegistry.name(getClass(), "missingWeekHits"));
+        this.flushes = metricRegistry.timer(MetricRegistry.name(getClass(), "flushes"));
+        metricRegistry.register(MetricRegistry.name(getClass(), "pending"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                synchronized (ScheduleHistory.this) {
+                    return pending.size();
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads what was written for the weeks that can still change, so they aren't written again unless they do, and
+     * starts flushing.
+     */
+    @Override
+    public void start() throws Exception {
+        LocalDate currentWeek = new LocalDate().dayOfWeek().withMinimumValue();
+        try {
+            DBCursor cursor = collection.find(new BasicDBObject("weekStart", new BasicDBObject("$gte", currentWeek.toString())), new BasicDBObject("hash", 1));
+            try {
+                for (DBObject document: cursor) {
+                    writtenHashes.put(parseId((String) document.get("_id")), ((Number) document.get("hash")).longValue());
+                }
+            } finally {
+                cursor.close();
+            }
+            log.info("Loaded the history of {} current and future weeks", writtenHashes.size());
+        } catch (MongoException e) {
+            log.warn("Couldn't load the schedule history, every week will be written again", e);
+        }
+
+        flushExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    log.warn("Writing schedule history failed", e);
+                }
+            }
+        }, flushInterval.getQuantity(), flushInterval.getQuantity(), flushInterval.getUnit());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        readExecutor.shutdownNow();
+        flushExecutor.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Queues the week to be written unless the same classes were already written for it.
+     */
+    public void record(ClubWeek key, Collection<ClassInfo> classes, long loadedAt) {
+        long hash = hash(classes);
+        Long written = writtenHashes.get(key);
+        if (written != null && written == hash) {
+            unchanged.mark();
+            return;
+        }
+        boolean full;
+        synchronized (this) {
+            pending.put(key, new PendingWeek(classes, loadedAt, hash));
+            full = pending.size() >= batchSize;
+        }
+        if (full) {
+            try {
+                flushExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.debug("Not flushing schedule history early, it's shutting down");
+            }
+        }
+    }
+
+    /**
+     * Reads the stored copy of the week on a read thread, sharing the query with any read of the week still running.
+     * Weeks recently found missing are answered without a query.
+     */
+    public ListenableFuture<Optional<StoredWeek>> readWeek(final ClubWeek key) {
+        if (missingWeeks.getIfPresent(key) != null) {
+            missingWeekHits.mark();
+            return Futures.immediateFuture(Optional.<StoredWeek>absent());
+        }
+        ListenableFuture<Optional<StoredWeek>> read = reads.get(key);
+        if (read != null) {
+            return read;
+        }
+        final ListenableFutureTask<Optional<StoredWeek>> task = ListenableFutureTask.create(new Callable<Optional<StoredWeek>>() {
+            @Override
+            public Optional<StoredWeek> call() throws Exception {
+                return getWeek(key);
+            }
+        });
+        read = reads.putIfAbsent(key, task);
+        if (read != null) {
+            return read;
+        }
+        task.addListener(new Runnable() {
+            @Override
+            public void run() {
+                reads.remove(key, task);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        try {
+            readExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.cancel(false);
+            return Futures.immediateFuture(Optional.<StoredWeek>absent());
+        }
+        return task;
+    }
+
+    /**
+     * The stored copy of the week, if there is one and Mongo can be reached.
+     */
+    public Optional<StoredWeek> getWeek(ClubWeek key) {
+        try {
+            DBObject document = collection.findOne(new BasicDBObject("_id", id(key)));
+            if (document == null) {
+                missingWeeks.put(key, Boolean.TRUE);
+                return Optional.absent();
+            }
+            return Optional.of(toStoredWeek(document));
+        } catch (MongoException e) {
+            log.warn("Couldn't read the history of {}", key, e);
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * Writes everything queued so far in batches of at most {@code batchSize} upserts. Batches Mongo couldn't be reached
+     * for are queued again unless a newer copy of a week was queued in the meantime.
+     */
+    void flush() {
+        Map<ClubWeek, PendingWeek> weeks;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            weeks = pending;
+            pending = Maps.newLinkedHashMap();
+        }
+
+        Timer.Context flushContext = flushes.time();
+        try {
+            for (List<Map.Entry<ClubWeek, PendingWeek>> batch: Iterables.partition(weeks.entrySet(), batchSize)) {
+                write(batch);
+            }
+        } finally {
+            flushContext.stop();
+        }
+    }
+
+    private void write(List<Map.Entry<ClubWeek, PendingWeek>> batch) {
+        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+        for (Map.Entry<ClubWeek, PendingWeek> week: batch) {
+            bulk.find(new BasicDBObject("_id", id(week.getKey()))).upsert().replaceOne(toDocument(week.getKey(), week.getValue()));
+        }
+
+        Set<Integer> failed = Sets.newHashSet();
+        try {
+            bulk.execute();
+        } catch (BulkWriteException e) {
+            if (e.getWriteConcernError() != null) {
+                // the writes may not have been acknowledged, so none of them count as written
+                requeue(batch, e);
+                return;
+            }
+            for (BulkWriteError error: e.getWriteErrors()) {
+                failed.add(error.getIndex());
+                log.warn("Couldn't write the history of {}: {}", batch.get(error.getIndex()).getKey(), error.getMessage());
+            }
+            writeFailures.mark(failed.size());
+        } catch (MongoException e) {
+            requeue(batch, e);
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (!failed.contains(i)) {
+                writtenHashes.put(batch.get(i).getKey(), batch.get(i).getValue().hash);
+                missingWeeks.invalidate(batch.get(i).getKey());
+            }
+        }
+        upserts.mark(batch.size() - failed.size());
+        log.debug("Wrote the history of {} weeks", batch.size() - failed.size());
+    }
+
+    private void requeue(List<Map.Entry<ClubWeek, PendingWeek>> batch, MongoException e) {
+        writeFailures.mark(batch.size());
+        log.warn("Couldn't write the history of {} weeks, retrying with the next flush", batch.size(), e);
+        synchronized (this) {
+            for (Map.Entry<ClubWeek, PendingWeek> week: batch) {
+                if (!pending.containsKey(week.getKey())) {
+                    pending.put(week.getKey(), week.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Hash of the classes that doesn't depend on their order or on anything local to this process.
+     */
+    static long hash(Collection<ClassInfo> classes) {
+        if (classes.isEmpty()) {
+            return 0;
+        }
+        List<HashCode> hashes = Lists.newArrayListWithCapacity(classes.size());
+        for (ClassInfo classInfo: classes) {
+            hashes.add(Hashing.murmur3_128().newHasher()
+                    .putInt(WeekSchedule.toEpochMinute(classInfo.getTime()))
+                    .putString(String.valueOf(classInfo.getName()), Charsets.UTF_8)
+                    .putString(String.valueOf(classInfo.getInstructor()), Charsets.UTF_8)
+                    .hash());
+        }
+        return Hashing.combineUnordered(hashes).asLong();
+    }
+
+    private static String id(ClubWeek key) {
+        return key.getClubId() + ":" + key.getWeekStart();
+    }
+
+    private static ClubWeek parseId(String id) {
+        int separator = id.indexOf(':');
+        return new ClubWeek(Integer.parseInt(id.substring(0, separator)), LocalDate.parse(id.substring(separator + 1)));
+    }
+
+    private static DBObject toDocument(ClubWeek key, PendingWeek week) {
+        List<ClassInfo> sorted = Lists.newArrayList(week.classes);
+        Collections.sort(sorted, new Comparator<ClassInfo>() {
+            @Override
+            public int compare(ClassInfo o1, ClassInfo o2) {
+                return o1.getTime().compareTo(o2.getTime());
+            }
+        });
+
+        BasicDBList starts = new BasicDBList();
+        BasicDBList names = new BasicDBList();
+        BasicDBList instructors = new BasicDBList();
+        for (ClassInfo classInfo: sorted) {
+            starts.add(WeekSchedule.toEpochMinute(classInfo.getTime()));
+            names.add(classInfo.getName());
+            instructors.add(classInfo.getInstructor());
+        }
+        return new BasicDBObject("_id", id(key))
+                .append("clubId", key.getClubId())
+                .append("weekStart", key.getWeekStart().toString())
+                .append("loadedAt", week.loadedAt)
+                .append("hash", week.hash)
+                .append("starts", starts)
+                .append("names", names)
+                .append("instructors", instructors);
+    }
+
+    private static StoredWeek toStoredWeek(DBObject document) {
+        List<?> starts = (List<?>) document.get("starts");
+        List<?> names = (List<?>) document.get("names");
+        List<?> instructors = (List<?>) document.get("instructors");
+        List<ClassInfo> classes = Lists.newArrayListWithCapacity(starts.size());
+        for (int i = 0; i < starts.size(); i++) {
+            classes.add(ClassInfo.builder()
+                    .time(new LocalDateTime(((Number) starts.get(i)).intValue() * MILLIS_PER_MINUTE, DateTimeZone.UTC))
+                    .name((String) names.get(i))
+                    .instructor((String) instructors.get(i))
+                    .build());
+        }
+        return new StoredWeek(classes, ((Number) document.get("loadedAt")).longValue());
+    }
+
+    @Data
+    public static class StoredWeek {
+        private final List<ClassInfo> classes;
+        private final long loadedAt;
+    }
+
+    private static class PendingWeek {
+        private final Collection<ClassInfo> classes;
+        private final long loadedAt;
+        private final long hash;
+
+        private PendingWeek(Collection<ClassInfo> classes, long loadedAt, long hash) {
+            this.classes = classes;
+            this.loadedAt = loadedAt;
+            this.hash = hash;
+        }
+    }
+}
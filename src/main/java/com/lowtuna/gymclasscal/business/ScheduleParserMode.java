@@ -0,0 +1,16 @@
+package com.lowtuna.gymclasscal.business;
+
+/**
+ * How gxschedule calendar pages are turned into {@link com.lowtuna.gymclasscal.core.ClassInfo}s.
+ */
+public enum ScheduleParserMode {
+    /**
+     * Parse the page into a Jsoup DOM (shared with the document cache) and select the calendar cells from it.
+     */
+    DOM,
+
+    /**
+     * Read the raw page once with {@link StreamingSchedulePageParser}, without building a DOM.
+     */
+    STREAMING
+}
@@ -0,0 +1,114 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lowtuna.gymclasscal.util.FrequencySketch;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the schedules of the most requested clubs warm. Calendar requests are counted in a decaying frequency sketch,
+ * and every interval the hottest clubs get the weeks that would go stale before the next run refreshed, spending at most
+ * the configured number of upstream fetches per run.
+ */
+@Slf4j
+public class SchedulePrewarmer implements Managed {
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("schedulePrewarmer-%d").setDaemon(true).build());
+    private final FrequencySketch requestFrequency = new FrequencySketch(4096);
+    private final Set<Integer> requestedClubIds = Sets.newConcurrentHashSet();
+
+    private final ClassScheduleManager scheduleManager;
+    private final Duration interval;
+    private final int budget;
+
+    private final Meter warmRequests;
+    private final Meter coldRequests;
+    private final Meter refreshes;
+
+    public SchedulePrewarmer(ClassScheduleManager scheduleManager, Duration interval, int budget, MetricRegistry metricRegistry) {
+        this.scheduleManager = scheduleManager;
+        this.interval = interval;
+        this.budget = budget;
+
+        this.warmRequests = metricRegistry.meter(MetricRegistry.name(getClass(), "requests", "warm"));
+        this.coldRequests = metricRegistry.meter(MetricRegistry.name(getClass(), "requests", "cold"));
+        this.refreshes = metricRegistry.meter(MetricRegistry.name(getClass(), "refreshes"));
+    }
+
+    @Override
+    public void start() throws Exception {
+        scheduledExecutorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prewarm();
+                } catch (RuntimeException e) {
+                    log.warn("Prewarming club schedules failed", e);
+                }
+            }
+        }, interval.getQuantity(), interval.getQuantity(), interval.getUnit());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        scheduledExecutorService.shutdownNow();
+    }
+
+    /**
+     * Records a calendar request for the club, noting whether its schedule could be served without an upstream fetch.
+     */
+    public void recordRequest(int clubId) {
+        requestFrequency.increment(clubId);
+        requestedClubIds.add(clubId);
+        if (scheduleManager.isWarm(clubId, 0)) {
+            warmRequests.mark();
+        } else {
+            coldRequests.mark();
+        }
+    }
+
+    void prewarm() {
+        final Map<Integer, Integer> frequencies = Maps.newHashMap();
+        for (Integer clubId: requestedClubIds) {
+            int frequency = requestFrequency.estimate(clubId);
+            if (frequency == 0) {
+                requestedClubIds.remove(clubId);
+            } else {
+                frequencies.put(clubId, frequency);
+            }
+        }
+
+        List<Integer> hottest = Lists.newArrayList(frequencies.keySet());
+        Collections.sort(hottest, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return frequencies.get(o2).compareTo(frequencies.get(o1));
+            }
+        });
+
+        long lookAheadMillis = interval.toMilliseconds();
+        int remaining = budget;
+        for (Integer clubId: hottest) {
+            if (remaining <= 0) {
+                break;
+            }
+            remaining -= scheduleManager.prewarm(clubId, lookAheadMillis, remaining);
+        }
+        refreshes.mark(budget - remaining);
+        log.debug("Prewarmed {} weeks across {} requested clubs", budget - remaining, hottest.size());
+    }
+}
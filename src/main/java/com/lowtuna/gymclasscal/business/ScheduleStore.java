@@ -0,0 +1,384 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.ClubWeek;
+import com.lowtuna.gymclasscal.core.WeekSchedule;
+import com.lowtuna.gymclasscal.util.RefreshPolicy;
+import com.lowtuna.gymclasscal.util.StringDictionary;
+import io.dropwizard.util.Size;
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.LocalDate;
+
+/**
+ * Holds parsed class schedules per (clubId, weekStart) as compact {@link WeekSchedule}s that share one dictionary of
+ * class names and one of instructors. The store is bounded by the approximate number of bytes held rather than by
+ * entry count; the last known good copies kept after weeks expire have a byte bound of their own.
+ */
+@Slf4j
+public class ScheduleStore {
+    private final StringDictionary classNames = new StringDictionary();
+    private final StringDictionary instructors = new StringDictionary();
+    private final AtomicLong totalWeight = new AtomicLong();
+    private final ConcurrentMap<Integer, AtomicInteger> weeksPerClub = Maps.newConcurrentMap();
+
+    private final TwentyFourHourParser parser;
+    private final RefreshPolicy refreshPolicy;
+    private final Optional<ScheduleHistory> history;
+    private final LoadingCache<ClubWeek, WeekSchedule> weeks;
+    private final Cache<ClubWeek, WeekSchedule> lastKnownGood;
+    private final Meter staleServes;
+    private final Meter refreshFailures;
+    private final Meter lastKnownGoodServes;
+    private final Meter lastKnownGoodMisses;
+    private final Meter frozenServes;
+    private final Meter skippedRefreshes;
+    private final Meter historyServes;
+    private final Meter historyTimeouts;
+
+    public ScheduleStore(TwentyFourHourParser parser, Size maxSize, Size lastKnownGoodMaxSize, RefreshPolicy refreshPolicy, MetricRegistry metricRegistry) {
+        this(parser, maxSize, lastKnownGoodMaxSize, refreshPolicy, Optional.<ScheduleHistory>absent(), metricRegistry);
+    }
+
+    /**
+     * Every parsed week is also recorded in the history, which stands in for the last known good copy of weeks that
+     * aren't held in memory, such as after a restart.
+     */
+    public ScheduleStore(TwentyFourHourParser parser, Size maxSize, Size lastKnownGoodMaxSize, final RefreshPolicy refreshPolicy, Optional<ScheduleHistory> history, MetricRegistry metricRegistry) {
+        this.parser = parser;
+        this.refreshPolicy = refreshPolicy;
+        this.history = history;
+        this.staleServes = metricRegistry.meter(MetricRegistry.name(getClass(), "staleServes"));
+        this.refreshFailures = metricRegistry.meter(MetricRegistry.name(getClass(), "refreshFailures"));
+        this.lastKnownGoodServes = metricRegistry.meter(MetricRegistry.name(getClass(), "lastKnownGood", "serves"));
+        this.lastKnownGoodMisses = metricRegistry.meter(MetricRegistry.name(getClass(), "lastKnownGood", "misses"));
+        this.frozenServes = metricRegistry.meter(MetricRegistry.name(getClass(), "frozenWeeks", "serves"));
+        this.skippedRefreshes = metricRegistry.meter(MetricRegistry.name(getClass(), "frozenWeeks", "skippedRefreshes"));
+        this.historyServes = metricRegistry.meter(MetricRegistry.name(getClass(), "history", "serves"));
+        this.historyTimeouts = metricRegistry.meter(MetricRegistry.name(getClass(), "history", "timeouts"));
+        this.lastKnownGood = CacheBuilder.newBuilder()
+                .maximumWeight(lastKnownGoodMaxSize.toBytes())
+                .weigher(new Weigher<ClubWeek, WeekSchedule>() {
+                    @Override
+                    public int weigh(ClubWeek key, WeekSchedule value) {
+                        return value.getWeight();
+                    }
+                })
+                .build();
+        this.weeks = refreshPolicy.configure(CacheBuilder.newBuilder())
+                .maximumWeight(maxSize.toBytes())
+                .weigher(new Weigher<ClubWeek, WeekSchedule>() {
+                    @Override
+                    public int weigh(ClubWeek key, WeekSchedule value) {
+                        return value.getWeight();
+                    }
+                })
+                .removalListener(new RemovalListener<ClubWeek, WeekSchedule>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<ClubWeek, WeekSchedule> notification) {
+                        totalWeight.addAndGet(-notification.getValue().getWeight());
+                        AtomicInteger clubWeeks = weeksPerClub.get(notification.getKey().getClubId());
+                        if (clubWeeks != null && clubWeeks.decrementAndGet() <= 0) {
+                            weeksPerClub.remove(notification.getKey().getClubId(), clubWeeks);
+                        }
+                    }
+                })
+                .recordStats()
+                .build(new CacheLoader<ClubWeek, WeekSchedule>() {
+                    @Override
+                    public WeekSchedule load(ClubWeek key) throws Exception {
+                        if (hasPassed(key)) {
+                            throw new IOException("Not fetching " + key + ", the week has passed");
+                        }
+                        return loadWeek(key);
+                    }
+
+                    @Override
+                    public ListenableFuture<WeekSchedule> reload(final ClubWeek key, WeekSchedule oldValue) throws Exception {
+                        if (hasPassed(key)) {
+                            skippedRefreshes.mark();
+                            return Futures.immediateFuture(oldValue);
+                        }
+                        return refreshPolicy.reload(key.toString(), new Callable<WeekSchedule>() {
+                            @Override
+                            public WeekSchedule call() throws Exception {
+                                return loadWeek(key);
+                            }
+                        }, refreshFailures);
+                    }
+                });
+
+        metricRegistry.register(MetricRegistry.name(getClass(), "size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return weeks.size();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "lastKnownGood", "size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return lastKnownGood.size();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "bytes"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return totalWeight.get() + classNames.getWeight() + instructors.getWeight();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "bytesPerClub"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                int clubs = weeksPerClub.size();
+                return clubs == 0 ? 0 : totalWeight.get() / clubs;
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "clubs"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return weeksPerClub.size();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "dictionary", "classNames"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return classNames.size();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "dictionary", "instructors"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return instructors.size();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "hits"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return weeks.stats().hitCount();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "misses"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return weeks.stats().missCount();
+            }
+        });
+    }
+
+    public WeekSchedule getWeek(int clubId, LocalDate weekStart) throws ExecutionException {
+        WeekSchedule weekSchedule = weeks.get(new ClubWeek(clubId, weekStart));
+        if (refreshPolicy.isStale(weekSchedule.getLoadedAt())) {
+            staleServes.mark();
+        }
+        return weekSchedule;
+    }
+
+    /**
+     * Returns the week only if it is held, without loading it. Stale weeks are returned and refreshed in the background.
+     */
+    public Optional<WeekSchedule> getWeekIfPresent(int clubId, LocalDate weekStart) {
+        WeekSchedule weekSchedule = weeks.getIfPresent(new ClubWeek(clubId, weekStart));
+        if (weekSchedule == null) {
+            return Optional.absent();
+        }
+        if (refreshPolicy.isStale(weekSchedule.getLoadedAt())) {
+            staleServes.mark();
+        }
+        return Optional.of(weekSchedule);
+    }
+
+    /**
+     * Whether the week is held and won't go stale within the look-ahead, i.e. a request for it wouldn't wait on or
+     * trigger an upstream fetch.
+     */
+    public boolean isFresh(int clubId, LocalDate weekStart, long lookAheadMillis) {
+        WeekSchedule weekSchedule = weeks.asMap().get(new ClubWeek(clubId, weekStart));
+        return weekSchedule != null && !refreshPolicy.isStale(weekSchedule.getLoadedAt() - lookAheadMillis);
+    }
+
+    /**
+     * Loads the week if it isn't held yet, otherwise reloads it in the background while the current copy is served.
+     */
+    public void refresh(int clubId, LocalDate weekStart) {
+        weeks.refresh(new ClubWeek(clubId, weekStart));
+    }
+
+    /**
+     * Starts reading the week's copy from the history unless a last known good copy is held, so that it's at hand by the
+     * time a fetch of the week fails or misses its deadline.
+     */
+    public void prefetchLastKnownGood(int clubId, LocalDate weekStart) {
+        ClubWeek key = new ClubWeek(clubId, weekStart);
+        if (history.isPresent() && lastKnownGood.getIfPresent(key) == null) {
+            readHistory(key);
+        }
+    }
+
+    /**
+     * Returns the last schedule successfully parsed for the week, which is kept after the cached copy has expired so it
+     * can stand in when a fresh fetch fails or takes too long. This never waits on the history: a copy that hasn't
+     * been read from it yet is only served once the read started here or by {@link #prefetchLastKnownGood} completes.
+     */
+    public Optional<WeekSchedule> getLastKnownGood(int clubId, LocalDate weekStart) {
+        ClubWeek key = new ClubWeek(clubId, weekStart);
+        WeekSchedule weekSchedule = lastKnownGood.getIfPresent(key);
+        if (weekSchedule == null) {
+            weekSchedule = fromHistory(key, 0);
+        }
+        if (weekSchedule == null) {
+            lastKnownGoodMisses.mark();
+            return Optional.absent();
+        }
+        lastKnownGoodServes.mark();
+        return Optional.of(weekSchedule);
+    }
+
+    /**
+     * Returns the final copy of a week that has passed. Past weeks no longer change upstream, so they are only ever
+     * served from the copy parsed while they were current and are never fetched again. A copy that isn't held is read
+     * from the history, so the future may complete later; callers bound how long they wait for it.
+     */
+    public ListenableFuture<Optional<WeekSchedule>> getFrozenWeek(int clubId, LocalDate weekStart) {
+        ClubWeek key = new ClubWeek(clubId, weekStart);
+        WeekSchedule weekSchedule = lastKnownGood.getIfPresent(key);
+        if (weekSchedule != null) {
+            frozenServes.mark();
+            return Futures.immediateFuture(Optional.of(weekSchedule));
+        }
+        if (!history.isPresent()) {
+            return Futures.immediateFuture(Optional.<WeekSchedule>absent());
+        }
+        return Futures.transform(readHistory(key), new Function<WeekSchedule, Optional<WeekSchedule>>() {
+            @Override
+            public Optional<WeekSchedule> apply(WeekSchedule weekSchedule) {
+                if (weekSchedule == null) {
+                    return Optional.absent();
+                }
+                historyServes.mark();
+                frozenServes.mark();
+                return Optional.of(weekSchedule);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    public List<ClassInfo> getClassInfos(int clubId, LocalDate weekStart) throws ExecutionException {
+        return decode(getWeek(clubId, weekStart));
+    }
+
+    public List<ClassInfo> decode(WeekSchedule weekSchedule) {
+        return weekSchedule.decode(classNames, instructors);
+    }
+
+    private static boolean hasPassed(ClubWeek key) {
+        return !key.getWeekStart().plusWeeks(1).isAfter(new LocalDate());
+    }
+
+    /**
+     * Returns the week read from the history if the read completes within the timeout, or {@code null} if it doesn't or
+     * the week isn't there. A timeout of 0 only takes a read that has already completed; a read that takes longer still
+     * fills in the last known good copy for the next caller.
+     */
+    private WeekSchedule fromHistory(ClubWeek key, long timeoutMillis) {
+        if (!history.isPresent()) {
+            return null;
+        }
+        WeekSchedule weekSchedule;
+        try {
+            weekSchedule = readHistory(key).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            if (timeoutMillis > 0) {
+                historyTimeouts.mark();
+                log.debug("Timed out reading the history of {}", key);
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("Couldn't read the history of {}", key, e);
+            return null;
+        }
+        if (weekSchedule != null) {
+            historyServes.mark();
+        }
+        return weekSchedule;
+    }
+
+    /**
+     * Reads the week from the history into the last known good copies unless one was put there in the meantime.
+     */
+    private ListenableFuture<WeekSchedule> readHistory(final ClubWeek key) {
+        return Futures.transform(history.get().readWeek(key), new Function<Optional<ScheduleHistory.StoredWeek>, WeekSchedule>() {
+            @Override
+            public WeekSchedule apply(Optional<ScheduleHistory.StoredWeek> storedWeek) {
+                if (!storedWeek.isPresent()) {
+                    return null;
+                }
+                WeekSchedule weekSchedule = WeekSchedule.encode(storedWeek.get().getClasses(), classNames, instructors, storedWeek.get().getLoadedAt());
+                WeekSchedule held = lastKnownGood.asMap().putIfAbsent(key, weekSchedule);
+                return held == null ? weekSchedule : held;
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private WeekSchedule loadWeek(ClubWeek key) throws IOException {
+        // the page may have been served stale by the document caches, so the week is as old as the page rather than the parse
+        FetchedWeek fetchedWeek = parser.fetchWeek(key.getClubId(), key.getWeekStart());
+        Set<ClassInfo> classes = fetchedWeek.getClasses();
+        WeekSchedule weekSchedule = WeekSchedule.encode(classes, classNames, instructors, fetchedWeek.getFetchedAt());
+        if (fetchedWeek.isFailed()) {
+            // a failed fetch comes back as an empty week, which shouldn't replace a week that did have classes
+            WeekSchedule previous = lastKnownGood.getIfPresent(key);
+            if (previous == null && history.isPresent()) {
+                previous = fromHistory(key, history.get().getReadTimeout().toMilliseconds());
+            }
+            if (previous != null && previous.size() > 0) {
+                throw new IOException("Couldn't fetch " + key + ", keeping the last known good schedule");
+            }
+        } else {
+            // a week that is really empty upstream, such as a holiday closure, does replace the one before it
+            lastKnownGood.put(key, weekSchedule);
+            if (history.isPresent()) {
+                history.get().record(key, classes, weekSchedule.getLoadedAt());
+            }
+        }
+        totalWeight.addAndGet(weekSchedule.getWeight());
+        AtomicInteger clubWeeks = weeksPerClub.get(key.getClubId());
+        if (clubWeeks == null) {
+            AtomicInteger newClubWeeks = new AtomicInteger();
+            clubWeeks = weeksPerClub.putIfAbsent(key.getClubId(), newClubWeeks);
+            if (clubWeeks == null) {
+                clubWeeks = newClubWeeks;
+            }
+        }
+        clubWeeks.incrementAndGet();
+        log.debug("Stored {} classes ({} bytes) for club {} week starting {}", weekSchedule.size(), weekSchedule.getWeight(), key.getClubId(), key.getWeekStart());
+        return weekSchedule;
+    }
+}
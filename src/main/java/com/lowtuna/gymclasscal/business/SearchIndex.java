@@ -0,0 +1,416 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lowtuna.gymclasscal.config.SearchIndexConfig;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.ClassMatch;
+import com.lowtuna.gymclasscal.core.Club;
+import com.lowtuna.gymclasscal.core.ScheduleIndex;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.deletebyquery.DeleteByQueryResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.MatchQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+
+/**
+ * Full text index of clubs and their classes in an embedded, local-only ElasticSearch node. Clubs are indexed as the
+ * {@link ClubManager} loads their details and classes as the {@link ClassScheduleManager} loads new versions of a
+ * schedule, so searching only ever reads what has already been fetched; whatever they loaded before the node started
+ * is indexed when it does. A new schedule version only writes the classes that were added or changed and deletes the
+ * ones that are gone. Schedules are indexed on a thread of their own, so loading one never waits on the index; when a
+ * club's schedule changes again before its last version was indexed, only the newest one is. Only upcoming classes are
+ * indexed: classes that have passed are deleted periodically, and all classes of a club once its schedule is no longer
+ * loaded.
+ */
+@Slf4j
+public class SearchIndex implements Managed, ClubManager.ClubListener, ClassScheduleManager.ScheduleListener {
+    private static final String INDEX = "gymclasscal";
+    private static final String CLUB = "club";
+    private static final String CLASS = "class";
+
+    private final SearchIndexConfig config;
+    private final ClubManager clubManager;
+    private final ClassScheduleManager scheduleManager;
+    private final Map<Integer, Map<String, ClassInfo>> indexedClasses = Maps.newHashMap();
+    private final ConcurrentMap<Integer, ScheduleIndex> pendingSchedules = Maps.newConcurrentMap();
+    private final ScheduledExecutorService indexExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("searchIndex-%d").setDaemon(true).build());
+    private final Meter indexFailures;
+
+    private volatile Node node;
+    private volatile Client client;
+
+    public SearchIndex(SearchIndexConfig config, ClubManager clubManager, ClassScheduleManager scheduleManager, MetricRegistry metricRegistry) {
+        this.config = config;
+        this.clubManager = clubManager;
+        this.scheduleManager = scheduleManager;
+        this.indexFailures = metricRegistry.meter(MetricRegistry.name(getClass(), "indexFailures"));
+    }
+
+    @Override
+    public void start() throws Exception {
+        ImmutableSettings.Builder settings = ImmutableSettings.settingsBuilder().put("http.enabled", false);
+        if (config.getDataDirectory() == null) {
+            settings.put("index.store.type", "memory").put("gateway.type", "none");
+        } else {
+            settings.put("path.data", config.getDataDirectory());
+        }
+        node = NodeBuilder.nodeBuilder().clusterName(config.getClusterName()).local(true).data(true).settings(settings).node();
+        Client client = node.client();
+        if (!client.admin().indices().prepareExists(INDEX).execute().actionGet().isExists()) {
+            client.admin().indices().prepareCreate(INDEX)
+                    .addMapping(CLUB, clubMapping())
+                    .addMapping(CLASS, classMapping())
+                    .execute().actionGet();
+        }
+        client.admin().cluster().prepareHealth(INDEX).setWaitForYellowStatus().execute().actionGet();
+        this.client = client;
+
+        // the crawl starts before the node does, so index whatever was loaded in the meantime
+        List<Club> clubs = clubManager.getLoadedClubs();
+        for (Club club: clubs) {
+            onClub(club);
+        }
+        Map<Integer, ScheduleIndex> schedules = scheduleManager.getLoadedIndexes();
+        for (Map.Entry<Integer, ScheduleIndex> schedule: schedules.entrySet()) {
+            backfill(schedule.getKey(), schedule.getValue());
+        }
+        indexExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prune();
+                } catch (RuntimeException e) {
+                    log.warn("Deleting past classes from the search index failed", e);
+                }
+            }
+        }, config.getPruneInterval().getQuantity(), config.getPruneInterval().getQuantity(), config.getPruneInterval().getUnit());
+        log.info("Started search index in cluster={} with {} clubs and {} schedules", config.getClusterName(), clubs.size(), schedules.size());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        indexExecutor.shutdown();
+        indexExecutor.awaitTermination(config.getSearchTimeout().getQuantity(), config.getSearchTimeout().getUnit());
+        if (node != null) {
+            node.close();
+        }
+    }
+
+    @Override
+    public void onClub(final Club club) {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.prepareIndex(INDEX, CLUB, Integer.toString(club.getClubId()))
+                    .setSource(XContentFactory.jsonBuilder().startObject()
+                            .field("clubId", club.getClubId())
+                            .field("name", club.getName())
+                            .field("address", club.getAddress())
+                            .field("zip", club.getZip())
+                            .field("phoneNumber", club.getPhoneNumber())
+                            .endObject())
+                    .execute(new ActionListener<IndexResponse>() {
+                        @Override
+                        public void onResponse(IndexResponse response) {
+                        }
+
+                        @Override
+                        public void onFailure(Throwable e) {
+                            indexFailures.mark();
+                            log.warn("Couldn't index clubId={}", club.getClubId(), e);
+                        }
+                    });
+        } catch (IOException e) {
+            indexFailures.mark();
+            log.warn("Couldn't build the search document for clubId={}", club.getClubId(), e);
+        }
+    }
+
+    @Override
+    public void onSchedule(final int clubId, ScheduleIndex index) {
+        if (client == null || index.size() == 0) {
+            return;
+        }
+        if (pendingSchedules.put(clubId, index) == null) {
+            queue(clubId);
+        }
+    }
+
+    /**
+     * Deletes the club's classes, as the schedule manager no longer holds its schedule and won't update them.
+     */
+    @Override
+    public void onScheduleEvicted(final int clubId) {
+        if (client == null) {
+            return;
+        }
+        pendingSchedules.remove(clubId);
+        try {
+            indexExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drop(clubId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Not dropping clubId={} as the search index is stopping", clubId);
+        }
+    }
+
+    private void queue(final int clubId) {
+        try {
+            indexExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ScheduleIndex index = pendingSchedules.remove(clubId);
+                    if (index != null) {
+                        update(clubId, index);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingSchedules.remove(clubId);
+            log.debug("Not indexing clubId={} as the search index is stopping", clubId);
+        }
+    }
+
+    private synchronized void update(final int clubId, ScheduleIndex index) {
+        Map<String, ClassInfo> previous = indexedClasses.get(clubId);
+        Map<String, ClassInfo> current = Maps.newHashMapWithExpectedSize(index.size());
+        BulkRequestBuilder bulk = client.prepareBulk();
+        LocalDateTime today = LocalDate.now().toLocalDateTime(LocalTime.MIDNIGHT);
+        try {
+            for (ClassInfo classInfo: index.getClasses()) {
+                if (classInfo.getTime().isBefore(today)) {
+                    continue;
+                }
+                String uid = index.uid(clubId, classInfo);
+                current.put(uid, classInfo);
+                if (previous == null || !classInfo.equals(previous.get(uid))) {
+                    bulk.add(client.prepareIndex(INDEX, CLASS, uid).setSource(XContentFactory.jsonBuilder().startObject()
+                            .field("clubId", clubId)
+                            .field("name", classInfo.getName())
+                            .field("instructor", classInfo.getInstructor())
+                            .field("start", classInfo.getTime().toString())
+                            .endObject()));
+                }
+            }
+        } catch (IOException e) {
+            indexFailures.mark();
+            log.warn("Couldn't build the search documents for clubId={}", clubId, e);
+            return;
+        }
+        if (previous != null) {
+            for (String uid: previous.keySet()) {
+                if (!current.containsKey(uid)) {
+                    bulk.add(client.prepareDelete(INDEX, CLASS, uid));
+                }
+            }
+        }
+        indexedClasses.put(clubId, current);
+        if (bulk.numberOfActions() == 0) {
+            return;
+        }
+        log.debug("Updating {} classes of clubId={} in the search index", bulk.numberOfActions(), clubId);
+        bulk.execute(new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                if (response.hasFailures()) {
+                    forget(clubId);
+                    log.warn("Couldn't index all classes of clubId={}: {}", clubId, response.buildFailureMessage());
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                forget(clubId);
+                log.warn("Couldn't index the classes of clubId={}", clubId, e);
+            }
+        });
+    }
+
+    /**
+     * Clubs matching the text in their name or address, in the zip code, or both. At least one has to be given.
+     */
+    public List<Club> searchClubs(String text, String zip) {
+        BoolQueryBuilder query = QueryBuilders.boolQuery();
+        if (!Strings.isNullOrEmpty(text)) {
+            query.must(QueryBuilders.multiMatchQuery(text, "name", "address").operator(MatchQueryBuilder.Operator.AND));
+        }
+        if (!Strings.isNullOrEmpty(zip)) {
+            query.must(QueryBuilders.termQuery("zip", zip));
+        }
+        if (!query.hasClauses()) {
+            throw new IllegalArgumentException("A search text or zip code is required");
+        }
+
+        List<Club> clubs = Lists.newArrayList();
+        for (SearchHit hit: search(CLUB, query, null)) {
+            Map<String, Object> source = hit.getSource();
+            clubs.add(Club.builder()
+                    .clubId(((Number) source.get("clubId")).intValue())
+                    .name((String) source.get("name"))
+                    .address((String) source.get("address"))
+                    .phoneNumber((String) source.get("phoneNumber"))
+                    .build());
+        }
+        return clubs;
+    }
+
+    /**
+     * Upcoming classes matching the class name, the instructor, or both, optionally only at one club, soonest first.
+     */
+    public List<ClassMatch> searchClasses(String name, String instructor, Integer clubId) {
+        BoolQueryBuilder query = QueryBuilders.boolQuery();
+        if (!Strings.isNullOrEmpty(name)) {
+            query.must(QueryBuilders.matchQuery("name", name).operator(MatchQueryBuilder.Operator.AND));
+        }
+        if (!Strings.isNullOrEmpty(instructor)) {
+            query.must(QueryBuilders.matchQuery("instructor", instructor).operator(MatchQueryBuilder.Operator.AND));
+        }
+        if (!query.hasClauses()) {
+            throw new IllegalArgumentException("A class name or instructor is required");
+        }
+        if (clubId != null) {
+            query.must(QueryBuilders.termQuery("clubId", clubId));
+        }
+
+        // class times are local to their club, so upcoming is anything from the start of today on
+        QueryBuilder upcoming = QueryBuilders.filteredQuery(query, FilterBuilders.rangeFilter("start").gte(LocalDate.now().toString()));
+
+        List<ClassMatch> classes = Lists.newArrayList();
+        for (SearchHit hit: search(CLASS, upcoming, "start")) {
+            Map<String, Object> source = hit.getSource();
+            ClassInfo classInfo = ClassInfo.builder()
+                    .time(LocalDateTime.parse((String) source.get("start")))
+                    .name((String) source.get("name"))
+                    .instructor((String) source.get("instructor"))
+                    .build();
+            classes.add(new ClassMatch(((Number) source.get("clubId")).intValue(), hit.getId(), classInfo));
+        }
+        return classes;
+    }
+
+    private Iterable<SearchHit> search(String type, QueryBuilder query, String sortField) {
+        if (client == null) {
+            throw new IllegalStateException("The search index isn't running");
+        }
+        SearchRequestBuilder search = client.prepareSearch(INDEX).setTypes(type).setQuery(query).setSize(config.getMaxResults());
+        if (sortField != null) {
+            search.addSort(sortField, SortOrder.ASC);
+        }
+        return search.execute().actionGet(config.getSearchTimeout().toMilliseconds()).getHits();
+    }
+
+    /**
+     * Indexes a schedule loaded before the node started, unless a newer version of it has been indexed or queued since.
+     */
+    private synchronized void backfill(int clubId, ScheduleIndex index) {
+        if (index.size() > 0 && !indexedClasses.containsKey(clubId) && pendingSchedules.putIfAbsent(clubId, index) == null) {
+            queue(clubId);
+        }
+    }
+
+    /**
+     * Deletes every class that started before today, and forgets them so the next schedule load doesn't delete them
+     * again.
+     */
+    private void prune() {
+        final LocalDate today = LocalDate.now();
+        LocalDateTime startOfToday = today.toLocalDateTime(LocalTime.MIDNIGHT);
+        synchronized (this) {
+            for (Map<String, ClassInfo> classes: indexedClasses.values()) {
+                for (Iterator<ClassInfo> iterator = classes.values().iterator(); iterator.hasNext(); ) {
+                    if (iterator.next().getTime().isBefore(startOfToday)) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+        client.prepareDeleteByQuery(INDEX).setTypes(CLASS).setQuery(QueryBuilders.rangeQuery("start").lt(today.toString())).execute(new ActionListener<DeleteByQueryResponse>() {
+            @Override
+            public void onResponse(DeleteByQueryResponse response) {
+                log.debug("Deleted the classes before {} from the search index", today);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                indexFailures.mark();
+                log.warn("Couldn't delete the classes before {} from the search index", today, e);
+            }
+        });
+    }
+
+    private synchronized void drop(final int clubId) {
+        indexedClasses.remove(clubId);
+        client.prepareDeleteByQuery(INDEX).setTypes(CLASS).setQuery(QueryBuilders.termQuery("clubId", clubId)).execute(new ActionListener<DeleteByQueryResponse>() {
+            @Override
+            public void onResponse(DeleteByQueryResponse response) {
+                log.debug("Deleted the classes of clubId={} from the search index", clubId);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                indexFailures.mark();
+                log.warn("Couldn't delete the classes of clubId={} from the search index", clubId, e);
+            }
+        });
+    }
+
+    /**
+     * Makes the next schedule load of the club index all of its classes again.
+     */
+    private synchronized void forget(int clubId) {
+        indexFailures.mark();
+        indexedClasses.remove(clubId);
+    }
+
+    private static XContentBuilder clubMapping() throws IOException {
+        return XContentFactory.jsonBuilder().startObject().startObject(CLUB).startObject("properties")
+                .startObject("clubId").field("type", "integer").endObject()
+                .startObject("zip").field("type", "string").field("index", "not_analyzed").endObject()
+                .startObject("phoneNumber").field("type", "string").field("index", "not_analyzed").endObject()
+                .endObject().endObject().endObject();
+    }
+
+    private static XContentBuilder classMapping() throws IOException {
+        return XContentFactory.jsonBuilder().startObject().startObject(CLASS).startObject("properties")
+                .startObject("clubId").field("type", "integer").endObject()
+                .startObject("start").field("type", "date").endObject()
+                .endObject().endObject().endObject();
+    }
+}
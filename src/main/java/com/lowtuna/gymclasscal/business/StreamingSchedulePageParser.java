@@ -0,0 +1,747 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities;
+
+/**
+ * Single pass parser for gxschedule calendar pages. Instead of building a DOM and running selectors over it, the page
+ * is tokenized as it is read and only the calendar table, row, cell and class span state is kept. Produces the same
+ * classes as {@link TwentyFourHourParser#parseClassSchedules(org.jsoup.nodes.Document)}, and stops reading once the
+ * calendar table has been closed.
+ */
+@Slf4j
+public class StreamingSchedulePageParser {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int META_SCAN_LENGTH = 4096;
+    private static final Pattern META_CHARSET_PATTERN = Pattern.compile("(?i)<meta\\b[^>]*?\\bcharset\\s*=\\s*[\"']?([^\\s\"'/>;]+)");
+    private static final String[] LATIN1_ENTITIES = {
+            "nbsp", "iexcl", "cent", "pound", "curren", "yen", "brvbar", "sect", "uml", "copy", "ordf", "laquo", "not", "shy", "reg", "macr",
+            "deg", "plusmn", "sup2", "sup3", "acute", "micro", "para", "middot", "cedil", "sup1", "ordm", "raquo", "frac14", "frac12", "frac34", "iquest",
+            "Agrave", "Aacute", "Acirc", "Atilde", "Auml", "Aring", "AElig", "Ccedil", "Egrave", "Eacute", "Ecirc", "Euml", "Igrave", "Iacute", "Icirc", "Iuml",
+            "ETH", "Ntilde", "Ograve", "Oacute", "Ocirc", "Otilde", "Ouml", "times", "Oslash", "Ugrave", "Uacute", "Ucirc", "Uuml", "Yacute", "THORN", "szlig",
+            "agrave", "aacute", "acirc", "atilde", "auml", "aring", "aelig", "ccedil", "egrave", "eacute", "ecirc", "euml", "igrave", "iacute", "icirc", "iuml",
+            "eth", "ntilde", "ograve", "oacute", "ocirc", "otilde", "ouml", "divide", "oslash", "ugrave", "uacute", "ucirc", "uuml", "yacute", "thorn", "yuml"};
+    private static final Set<String> TEXT_BREAK_TAGS = ImmutableSet.of("br", "p", "div", "table", "tr", "td", "th", "ul", "ol", "li", "h1", "h2", "h3", "h4", "h5", "h6", "pre", "blockquote", "center");
+
+    /**
+     * Parses the page in the given charset, or in the one its {@code <meta>} tag names if there isn't one, like
+     * {@link org.jsoup.Jsoup#parse(java.io.InputStream, String, String)}.
+     */
+    public Set<ClassInfo> parse(byte[] page, String charset) throws IOException {
+        return parse(new InputStreamReader(new ByteArrayInputStream(page), pageCharset(charset == null ? metaCharset(page) : charset)));
+    }
+
+    public Set<ClassInfo> parse(Reader reader) throws IOException {
+        return new PageScan(reader).scan();
+    }
+
+    private static Charset pageCharset(String charset) {
+        if (charset == null) {
+            return Charsets.UTF_8;
+        }
+        try {
+            return Charset.forName(charset);
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            log.debug("Falling back to UTF-8 for unsupported page charset {}", charset);
+            return Charsets.UTF_8;
+        }
+    }
+
+    /**
+     * The charset declared by a {@code <meta charset>} or {@code <meta http-equiv="Content-Type">} tag near the start of
+     * the page, if there is one.
+     */
+    private static String metaCharset(byte[] page) {
+        Matcher matcher = META_CHARSET_PATTERN.matcher(new String(page, 0, Math.min(page.length, META_SCAN_LENGTH), Charsets.ISO_8859_1));
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Appends {@code run} the way {@link Element#text()} does: whitespace collapses into single spaces, also across runs.
+     */
+    private static void appendText(StringBuilder text, String run) {
+        for (int i = 0; i < run.length(); i++) {
+            char c = run.charAt(i);
+            if (!isWhitespace(c)) {
+                text.append(c);
+            } else if (text.length() > 0 && text.charAt(text.length() - 1) != ' ') {
+                text.append(' ');
+            }
+        }
+    }
+
+    private static void appendTextBreak(StringBuilder text) {
+        if (text.length() > 0 && text.charAt(text.length() - 1) != ' ') {
+            text.append(' ');
+        }
+    }
+
+    private static String normaliseWhitespace(String run) {
+        StringBuilder normalised = null;
+        boolean lastWasWhite = false;
+        for (int i = 0; i < run.length(); i++) {
+            char c = run.charAt(i);
+            boolean white = isWhitespace(c);
+            if (normalised == null && white && (c != ' ' || lastWasWhite)) {
+                normalised = new StringBuilder(run.length()).append(run, 0, i);
+            }
+            if (normalised != null && !(white && lastWasWhite)) {
+                normalised.append(white ? ' ' : c);
+            }
+            lastWasWhite = white;
+        }
+        return normalised == null ? run : normalised.toString();
+    }
+
+    /**
+     * Escapes text the way Jsoup's {@code Element.html()} does in its base escape mode with UTF-8 output, which is what
+     * the DOM parser reads instructors from: the markup characters and the Latin-1 range become named entities and lone
+     * surrogate chars numeric ones.
+     */
+    static String escape(String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String entity = null;
+            if (c == '&') {
+                entity = "&amp;";
+            } else if (c == '<') {
+                entity = "&lt;";
+            } else if (c == '>') {
+                entity = "&gt;";
+            } else if (c == '"') {
+                entity = "&quot;";
+            } else if (c >= 0xa0 && c <= 0xff) {
+                entity = "&" + LATIN1_ENTITIES[c - 0xa0] + ";";
+            } else if (Character.isSurrogate(c)) {
+                entity = "&#" + (int) c + ";";
+            }
+            if (entity != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (entity != null) {
+                    escaped.append(entity);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+
+    private static boolean hasClass(String classAttribute, String className) {
+        if (classAttribute == null) {
+            return false;
+        }
+        int start = 0;
+        while (start < classAttribute.length()) {
+            while (start < classAttribute.length() && isWhitespace(classAttribute.charAt(start))) {
+                start++;
+            }
+            int end = start;
+            while (end < classAttribute.length() && !isWhitespace(classAttribute.charAt(end))) {
+                end++;
+            }
+            if (end - start == className.length() && classAttribute.regionMatches(start, className, 0, className.length())) {
+                return true;
+            }
+            start = end;
+        }
+        return false;
+    }
+
+    /**
+     * Parse state for a single page.
+     */
+    private static class PageScan {
+        private final Reader reader;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder tagName = new StringBuilder();
+        private final StringBuilder attributeName = new StringBuilder();
+        private final StringBuilder attributeValue = new StringBuilder();
+        private String idAttribute;
+        private String classAttribute;
+        private String srcAttribute;
+        private boolean selfClosing;
+
+        private boolean inWeekTitle;
+        private final StringBuilder weekTitle = new StringBuilder();
+        private String weekTitleText;
+
+        private boolean calendarSeen;
+        private int calendarDepth;
+        private boolean calendarDone;
+
+        private int rowIndex = -1;
+        private int columnIndex;
+        private boolean rowSkipped;
+        private int rowHour;
+        private int rowMinute;
+        private boolean inCell;
+        private boolean classCell;
+        private boolean collectingCellText;
+        private final StringBuilder cellText = new StringBuilder();
+
+        private final Map<Integer, String> columnHeadings = Maps.newHashMap();
+        private final List<ClassSpan> openSpans = Lists.newArrayList();
+        private final List<PendingClass> pendingClasses = Lists.newArrayList();
+
+        private PageScan(Reader reader) {
+            this.reader = reader;
+        }
+
+        private Set<ClassInfo> scan() throws IOException {
+            int c;
+            while (!(calendarDone && weekTitleText != null) && (c = read()) != -1) {
+                if (c != '<') {
+                    if (isCollecting()) {
+                        text.append((char) c);
+                    }
+                    continue;
+                }
+
+                int next = peek();
+                if (next == '!' || next == '?') {
+                    flushText();
+                    markBoundary();
+                    skipMarkup();
+                } else if (next == '/') {
+                    read();
+                    if (isLetter(peek())) {
+                        flushText();
+                        readTagName();
+                        skipPast('>');
+                        handleEndTag();
+                    } else {
+                        skipPast('>');
+                    }
+                } else if (isLetter(next)) {
+                    flushText();
+                    readTagName();
+                    readAttributes();
+                    handleStartTag();
+                } else if (isCollecting()) {
+                    text.append('<');
+                }
+            }
+            flushText();
+            closeCell();
+            return resolveClasses();
+        }
+
+        private Set<ClassInfo> resolveClasses() {
+            Set<ClassInfo> classes = Sets.newHashSet();
+            if (weekTitleText == null) {
+                return classes;
+            }
+
+            int year = TwentyFourHourParser.parseWeekTitle(weekTitleText).getYear();
+            Map<Integer, LocalDate> columnDates = Maps.newHashMap();
+            for (Map.Entry<Integer, String> heading: columnHeadings.entrySet()) {
+                LocalDate date = TwentyFourHourParser.parseColumnDate(heading.getValue(), year);
+                if (date != null) {
+                    columnDates.put(heading.getKey(), date);
+                }
+            }
+
+            for (PendingClass pendingClass: pendingClasses) {
+                LocalDate date = columnDates.get(pendingClass.column);
+                if (date == null) {
+                    continue;
+                }
+                LocalDateTime classDateTime = new LocalDateTime(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth(), pendingClass.hour, pendingClass.minute);
+                classes.add(ClassInfo.builder().name(pendingClass.name).time(classDateTime).instructor(pendingClass.instructor).build());
+            }
+            return classes;
+        }
+
+        private boolean isCollecting() {
+            return inWeekTitle || collectingCellText || !openSpans.isEmpty();
+        }
+
+        private void flushText() {
+            if (text.length() == 0) {
+                return;
+            }
+            String run = text.toString();
+            text.setLength(0);
+            if (run.indexOf('&') != -1) {
+                run = Entities.unescape(run);
+            }
+
+            if (inWeekTitle) {
+                appendText(weekTitle, run);
+            }
+            if (collectingCellText) {
+                appendText(cellText, run);
+            }
+            for (ClassSpan span: openSpans) {
+                span.text(run);
+            }
+        }
+
+        private void markBoundary() {
+            for (ClassSpan span: openSpans) {
+                span.boundary();
+            }
+        }
+
+        private void handleStartTag() throws IOException {
+            if (tagIs("table")) {
+                if (calendarDepth > 0) {
+                    calendarDepth++;
+                } else if (!calendarSeen && "cal".equals(idAttribute)) {
+                    calendarSeen = true;
+                    calendarDepth = 1;
+                }
+            } else if (calendarDepth == 2 && tagIs("tr")) {
+                closeCell();
+                rowIndex++;
+                columnIndex = -1;
+                rowSkipped = false;
+            } else if (calendarDepth == 2 && tagIs("td")) {
+                closeCell();
+                openCell();
+            }
+
+            boolean textBreak = isTextBreak();
+            String imageSrc = tagIs("img") ? srcAttribute : null;
+            for (ClassSpan span: openSpans) {
+                span.startTag(tagIs("a"), imageSrc, textBreak);
+            }
+            if (textBreak && collectingCellText) {
+                appendTextBreak(cellText);
+            }
+
+            if (tagIs("span")) {
+                if (weekTitleText == null && !inWeekTitle && "WeekTitle".equals(idAttribute)) {
+                    inWeekTitle = true;
+                } else if (classCell && !selfClosing) {
+                    openSpans.add(new ClassSpan());
+                }
+            } else if ((tagIs("script") || tagIs("style")) && !selfClosing) {
+                skipRawText();
+            }
+        }
+
+        private void handleEndTag() {
+            if (tagIs("table")) {
+                if (calendarDepth == 2) {
+                    closeCell();
+                }
+                if (calendarDepth > 0 && --calendarDepth == 0) {
+                    calendarDone = true;
+                }
+            } else if (calendarDepth == 2 && (tagIs("tr") || tagIs("td"))) {
+                closeCell();
+            }
+
+            if (tagIs("span")) {
+                if (inWeekTitle) {
+                    inWeekTitle = false;
+                    weekTitleText = weekTitle.toString().trim();
+                    return;
+                }
+                if (!openSpans.isEmpty()) {
+                    closeSpan(openSpans.remove(openSpans.size() - 1));
+                }
+            }
+
+            for (ClassSpan span: openSpans) {
+                span.endTag(tagIs("a"));
+            }
+        }
+
+        private void openCell() {
+            columnIndex++;
+            inCell = true;
+            if (rowIndex == 0) {
+                collectingCellText = true;
+            } else if (rowIndex > 0 && !rowSkipped) {
+                if (columnIndex > 0) {
+                    classCell = true;
+                } else if (hasClass(classAttribute, "hours")) {
+                    collectingCellText = true;
+                } else {
+                    log.error("Time for the row was null!");
+                    rowSkipped = true;
+                }
+            }
+        }
+
+        private void closeCell() {
+            if (!inCell) {
+                return;
+            }
+            while (!openSpans.isEmpty()) {
+                closeSpan(openSpans.remove(openSpans.size() - 1));
+            }
+            if (collectingCellText) {
+                String cell = cellText.toString().trim();
+                cellText.setLength(0);
+                collectingCellText = false;
+                if (rowIndex == 0) {
+                    columnHeadings.put(columnIndex, cell);
+                } else {
+                    DateTime time = TwentyFourHourParser.parseRowTime(cell);
+                    rowHour = time.getHourOfDay();
+                    rowMinute = time.getMinuteOfHour();
+                }
+            }
+            inCell = false;
+            classCell = false;
+        }
+
+        private void closeSpan(ClassSpan span) {
+            span.close();
+            for (ClassSpan outer: openSpans) {
+                outer.boundary();
+            }
+            if (!span.hasLink) {
+                return;
+            }
+            String className = TwentyFourHourParser.resolveClassName(span.linkText.toString(), span.imageSrc == null ? "" : span.imageSrc);
+            pendingClasses.add(new PendingClass(columnIndex, rowHour, rowMinute, className, escape(span.instructor())));
+        }
+
+        private boolean tagIs(String name) {
+            return name.contentEquals(tagName);
+        }
+
+        private boolean isTextBreak() {
+            if (openSpans.isEmpty() && !collectingCellText) {
+                return false;
+            }
+            for (String name: TEXT_BREAK_TAGS) {
+                if (tagIs(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void readTagName() throws IOException {
+            tagName.setLength(0);
+            int c;
+            while ((c = peek()) != -1 && !isWhitespace(c) && c != '/' && c != '>') {
+                tagName.append(Character.toLowerCase((char) read()));
+            }
+        }
+
+        private void readAttributes() throws IOException {
+            idAttribute = null;
+            classAttribute = null;
+            srcAttribute = null;
+            selfClosing = false;
+
+            int c;
+            while ((c = read()) != -1 && c != '>') {
+                if (c == '/') {
+                    if (peek() == '>') {
+                        read();
+                        selfClosing = true;
+                        return;
+                    }
+                    continue;
+                }
+                if (isWhitespace(c)) {
+                    continue;
+                }
+
+                attributeName.setLength(0);
+                attributeName.append(Character.toLowerCase((char) c));
+                while ((c = peek()) != -1 && !isWhitespace(c) && c != '=' && c != '>' && c != '/') {
+                    attributeName.append(Character.toLowerCase((char) read()));
+                }
+                while (isWhitespace(peek())) {
+                    read();
+                }
+
+                boolean wanted = "id".contentEquals(attributeName) || "class".contentEquals(attributeName) || "src".contentEquals(attributeName);
+                attributeValue.setLength(0);
+                if (peek() == '=') {
+                    read();
+                    while (isWhitespace(peek())) {
+                        read();
+                    }
+                    readAttributeValue(wanted);
+                }
+                if (wanted) {
+                    storeAttribute();
+                }
+            }
+        }
+
+        private void readAttributeValue(boolean wanted) throws IOException {
+            int quote = peek();
+            int c;
+            if (quote == '"' || quote == '\'') {
+                read();
+                while ((c = read()) != -1 && c != quote) {
+                    if (wanted) {
+                        attributeValue.append((char) c);
+                    }
+                }
+            } else {
+                while ((c = peek()) != -1 && !isWhitespace(c) && c != '>') {
+                    read();
+                    if (wanted) {
+                        attributeValue.append((char) c);
+                    }
+                }
+            }
+        }
+
+        private void storeAttribute() {
+            String value = attributeValue.toString();
+            if (value.indexOf('&') != -1) {
+                value = Entities.unescape(value);
+            }
+            if ("id".contentEquals(attributeName) && idAttribute == null) {
+                idAttribute = value;
+            } else if ("class".contentEquals(attributeName) && classAttribute == null) {
+                classAttribute = value;
+            } else if ("src".contentEquals(attributeName) && srcAttribute == null) {
+                srcAttribute = value;
+            }
+        }
+
+        /**
+         * Skips a comment, doctype or processing instruction; the leading {@code <} has already been read.
+         */
+        private void skipMarkup() throws IOException {
+            read();
+            if (peek() != '-') {
+                skipPast('>');
+                return;
+            }
+            read();
+            if (peek() != '-') {
+                skipPast('>');
+                return;
+            }
+            read();
+            int dashes = 0;
+            int c;
+            while ((c = read()) != -1) {
+                if (c == '>' && dashes >= 2) {
+                    return;
+                }
+                dashes = c == '-' ? dashes + 1 : 0;
+            }
+        }
+
+        /**
+         * Skips the body of a script or style element up to and including its end tag.
+         */
+        private void skipRawText() throws IOException {
+            String name = tagName.toString();
+            int c;
+            while ((c = read()) != -1) {
+                if (c != '<' || peek() != '/') {
+                    continue;
+                }
+                read();
+                int matched = 0;
+                while (matched < name.length() && Character.toLowerCase((char) peek()) == name.charAt(matched)) {
+                    read();
+                    matched++;
+                }
+                if (matched == name.length() && !isLetter(peek())) {
+                    skipPast('>');
+                    return;
+                }
+            }
+        }
+
+        private void skipPast(char end) throws IOException {
+            int c;
+            while ((c = read()) != -1 && c != end) {
+                // skip
+            }
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+
+        private int peek() throws IOException {
+            int c = read();
+            if (c != -1) {
+                position--;
+            }
+            return c;
+        }
+    }
+
+    /**
+     * A class span inside a calendar cell. The DOM parser splits the span's html on its tags and takes the instructor
+     * from the last piece of text, or from the first one when the html ends with a tag, and the class name from the
+     * text, or image, of its links.
+     */
+    private static class ClassSpan {
+        private boolean sawTag;
+        private String run;
+        private String firstToken;
+        private String lastToken;
+        private boolean endsWithText;
+
+        private int linkDepth;
+        private boolean hasLink;
+        private final StringBuilder linkText = new StringBuilder();
+        private final StringBuilder currentLink = new StringBuilder();
+        private String imageSrc;
+
+        private void text(String decoded) {
+            String normalised = normaliseWhitespace(decoded);
+            if (!sawTag && run == null) {
+                normalised = trimLeading(normalised);
+            }
+            run = run == null ? normalised : run + normalised;
+            if (linkDepth > 0) {
+                appendText(currentLink, decoded);
+            }
+        }
+
+        private void startTag(boolean link, String image, boolean textBreak) {
+            boundary();
+            if (link) {
+                if (linkDepth == 0) {
+                    if (linkText.length() > 0) {
+                        linkText.append(' ');
+                    }
+                    currentLink.setLength(0);
+                }
+                linkDepth++;
+                hasLink = true;
+            } else if (linkDepth > 0) {
+                if (image != null && imageSrc == null) {
+                    imageSrc = image;
+                }
+                if (textBreak) {
+                    appendTextBreak(currentLink);
+                }
+            }
+        }
+
+        private void endTag(boolean link) {
+            boundary();
+            if (link && linkDepth > 0 && --linkDepth == 0) {
+                linkText.append(currentLink.toString().trim());
+            }
+        }
+
+        private void boundary() {
+            if (run != null && !run.isEmpty()) {
+                token(run);
+            }
+            run = null;
+            sawTag = true;
+        }
+
+        private void token(String token) {
+            if (firstToken == null) {
+                firstToken = token;
+            }
+            lastToken = token;
+        }
+
+        private void close() {
+            if (run != null) {
+                String trimmed = trimTrailing(run);
+                if (!trimmed.isEmpty()) {
+                    token(trimmed);
+                    endsWithText = true;
+                }
+            }
+            run = null;
+            if (linkDepth > 0) {
+                linkDepth = 0;
+                linkText.append(currentLink.toString().trim());
+            }
+        }
+
+        private String instructor() {
+            if (endsWithText) {
+                return lastToken;
+            }
+            return firstToken == null ? "" : firstToken;
+        }
+    }
+
+    private static class PendingClass {
+        private final int column;
+        private final int hour;
+        private final int minute;
+        private final String name;
+        private final String instructor;
+
+        private PendingClass(int column, int hour, int minute, String name, String instructor) {
+            this.column = column;
+            this.hour = hour;
+            this.minute = minute;
+            this.name = name;
+            this.instructor = instructor;
+        }
+    }
+
+    private static String trimLeading(String value) {
+        int start = 0;
+        while (start < value.length() && value.charAt(start) <= ' ') {
+            start++;
+        }
+        return value.substring(start);
+    }
+
+    private static String trimTrailing(String value) {
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+}
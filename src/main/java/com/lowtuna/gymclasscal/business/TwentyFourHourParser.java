@@ -1,28 +1,21 @@
 package com.lowtuna.gymclasscal.business;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.annotation.concurrent.GuardedBy;
-
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
-import com.codahale.metrics.health.HealthCheck;
 import com.damnhandy.uri.template.UriTemplate;
 import com.damnhandy.uri.template.VariableExpansionException;
 import com.google.common.base.CaseFormat;
@@ -33,13 +26,16 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.lowtuna.gymclasscal.core.ClassInfo;
 import com.lowtuna.gymclasscal.core.Club;
+import com.lowtuna.gymclasscal.util.CachedDocument;
+import com.lowtuna.gymclasscal.util.ClubIdSet;
 import com.lowtuna.gymclasscal.util.JsoupDocumentLoader;
+import com.lowtuna.gymclasscal.util.StoredPage;
 import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.util.Duration;
 import lombok.extern.slf4j.Slf4j;
@@ -50,13 +46,12 @@ import org.joda.time.LocalDateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.jsoup.Connection;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
 @Slf4j
-public class TwentyFourHourParser extends HealthCheck {
+public class TwentyFourHourParser {
     private static final DateTimeFormatter DATE_PARAM_FORMATTER = DateTimeFormat.forPattern("MM/dd/yyyy");
     private static final DateTimeFormatter CALENDAR_DATE_FORMATTER = DateTimeFormat.forPattern("MMM-d");
     private static final Pattern CALENDAR_DATE_PATTERN = Pattern.compile("^\\w+ ([A-Za-z]{3}\\-[\\d]{1,2})$");
@@ -78,30 +73,40 @@ public class TwentyFourHourParser extends HealthCheck {
     }
 
     private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
-    private final ReentrantReadWriteLock clubIdsLock = new ReentrantReadWriteLock();
 
-    private final String baseClubListUrl;
-    private final Pattern clubDetailPagePattern;
+    private final ClubIdCrawler clubIdCrawler;
     private final UriTemplate clubCalendarUriTemplate;
     private final JsoupDocumentLoader documentLoader;
+    private final ScheduleParserMode parserMode;
+    private final StreamingSchedulePageParser streamingParser = new StreamingSchedulePageParser();
 
     private final Timer clubIdsUpdateTimer;
+    private final Timer scheduleParseTimer;
 
-    @GuardedBy("clubIdsLock")
-    private Set<Integer> clubIds = Sets.newCopyOnWriteArraySet();
+    private final List<ClubIdCrawler.ClubIdListener> clubIdListeners = Lists.newCopyOnWriteArrayList();
+    private final AtomicReference<ClubIdSet> clubIds = new AtomicReference<ClubIdSet>(ClubIdSet.EMPTY);
 
     public TwentyFourHourParser(String baseClubListUrl, String clubDetailPagePattern, UriTemplate clubCalendarUriTemplate, MetricRegistry metricRegistry, Duration clubIdsUpdateDuration, JsoupDocumentLoader documentLoader) {
-        this.baseClubListUrl = baseClubListUrl;
+        this(baseClubListUrl, clubDetailPagePattern, clubCalendarUriTemplate, metricRegistry, clubIdsUpdateDuration, documentLoader, ScheduleParserMode.DOM);
+    }
+
+    public TwentyFourHourParser(String baseClubListUrl, String clubDetailPagePattern, UriTemplate clubCalendarUriTemplate, MetricRegistry metricRegistry, Duration clubIdsUpdateDuration, JsoupDocumentLoader documentLoader, ScheduleParserMode parserMode) {
+        this(baseClubListUrl, clubDetailPagePattern, clubCalendarUriTemplate, metricRegistry, clubIdsUpdateDuration, documentLoader, parserMode, MoreExecutors.sameThreadExecutor(), MoreExecutors.sameThreadExecutor());
+    }
+
+    public TwentyFourHourParser(String baseClubListUrl, String clubDetailPagePattern, UriTemplate clubCalendarUriTemplate, MetricRegistry metricRegistry, Duration clubIdsUpdateDuration, JsoupDocumentLoader documentLoader, ScheduleParserMode parserMode, ExecutorService statePageExecutor, ExecutorService cityPageExecutor) {
         this.clubCalendarUriTemplate = clubCalendarUriTemplate;
         this.documentLoader = documentLoader;
-        this.clubDetailPagePattern = Pattern.compile(clubDetailPagePattern);
+        this.parserMode = parserMode;
+        this.clubIdCrawler = new ClubIdCrawler(baseClubListUrl, Pattern.compile(clubDetailPagePattern), documentLoader, statePageExecutor, cityPageExecutor, metricRegistry);
 
         this.clubIdsUpdateTimer = metricRegistry.timer(MetricRegistry.name(getClass(), "updateClubIds"));
+        this.scheduleParseTimer = metricRegistry.timer(MetricRegistry.name(getClass(), "parseClassSchedules", parserMode.name().toLowerCase()));
 
         metricRegistry.register(MetricRegistry.name(getClass(), "clubCount"), new Gauge<Integer>() {
             @Override
             public Integer getValue() {
-                return getClubIds().size();
+                return clubIds.get().size();
             }
         });
 
@@ -110,18 +115,15 @@ public class TwentyFourHourParser extends HealthCheck {
                 @Override
                 public void run() {
                     log.debug("Updating all club Ids");
+                    ClubIdSet previous = clubIds.get();
                     Set<Integer> newClubIds = fetchCLubIds();
                     if (newClubIds.isEmpty()) {
                         log.warn("Newly fetched club ids was empty!");
                         return;
                     }
-                    clubIdsLock.writeLock().lock();
-                    try {
-                        clubIds.clear();
-                        clubIds.addAll(newClubIds);
-                    } finally {
-                        clubIdsLock.writeLock().unlock();
-                    }
+                    ClubIdSet current = ClubIdSet.of(newClubIds);
+                    clubIds.set(current);
+                    log.info("Updated club ids, {} added and {} removed", current.added(previous).size(), current.removed(previous).size());
                 }
             }, 0, clubIdsUpdateDuration.getQuantity(), clubIdsUpdateDuration.getUnit());
         }
@@ -158,86 +160,135 @@ public class TwentyFourHourParser extends HealthCheck {
     }
 
     public Set<ClassInfo> fetchClassSchedules(int clubId, LocalDate weekStart) {
+        return fetchWeek(clubId, weekStart).getClasses();
+    }
+
+    /**
+     * Fetches the classes of the week along with when the page they were parsed from was fetched upstream, which is
+     * earlier than now when the page came from a cache. A page that couldn't be loaded or parsed gives a failed week.
+     */
+    public FetchedWeek fetchWeek(int clubId, LocalDate weekStart) {
         Set<ClassInfo> classes = Sets.newHashSet();
+        long fetchedAt = System.currentTimeMillis();
+        boolean failed = true;
         TwentyFourHourParser.log.info("Getting class schedule for week starting {} for club with id={}", weekStart, clubId);
         try {
             String fullUri = clubCalendarUriTemplate
                     .set("club", clubId)
                     .set("date", DATE_PARAM_FORMATTER.print(weekStart))
                     .expand();
-            Optional<Document> clubCalDoc = documentLoader.loadDocument(fullUri);
 
-            if (clubCalDoc.isPresent()) {
-                Elements weekOfEls = clubCalDoc.get().select("#WeekTitle");
-                if (!weekOfEls.isEmpty()) {
-                    DateTime weekDateTime = CALENDAR_WEEK_FORMATTER.parseDateTime(weekOfEls.iterator().next().html());
-
-                    Map<Integer, LocalDate> columnDate = Maps.newHashMap();
-                    Elements columns = clubCalDoc.get().select("#cal > tbody > tr > td > table > tbody > tr:eq(0) > td");
-                    populateColumnDates(weekDateTime, columnDate, columns);
-
-                    for (Element row: clubCalDoc.get().select("#cal > tbody > tr > td > table > tbody > tr:gt(0)")) {
-                        columns = row.select("td");
-                        DateTime time = null;
-                        for(int columnNdx = 0; columnNdx < columns.size(); columnNdx++) {
-                            Element element = columns.get(columnNdx);
-                            if (columnNdx == 0 && element.hasClass("hours")) {
-                                time = CALENDAR_TIME_FORMATTER.parseDateTime(element.text());
-                                continue;
-                            }
-
-                            if (time == null) {
-                                TwentyFourHourParser.log.error("Time for the row was null!");
-                                break;
-                            }
-
-                            LocalDate date = columnDate.get(columnNdx);
-
-                            if (date == null) {
-                                continue;
-                        }
-
-                        LocalDateTime classDateTime = new LocalDateTime(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth(), time.getHourOfDay(), time.getMinuteOfHour());
-
-                        List<ClassInfo> classInfoEntries = extractClassScheduleEntries(element, classDateTime);
-                        classes.addAll(classInfoEntries);
+            if (parserMode == ScheduleParserMode.STREAMING) {
+                Optional<StoredPage> clubCalPage = documentLoader.loadPage(fullUri);
+                if (clubCalPage.isPresent()) {
+                    fetchedAt = clubCalPage.get().getFetchedAt();
+                    Timer.Context timerContext = scheduleParseTimer.time();
+                    try {
+                        classes.addAll(streamingParser.parse(clubCalPage.get().getBody(), clubCalPage.get().getCharset()));
+                        failed = false;
+                    } finally {
+                        timerContext.stop();
+                    }
+                }
+            } else {
+                Optional<CachedDocument> clubCalDoc = documentLoader.loadCachedDocument(fullUri);
+                if (clubCalDoc.isPresent()) {
+                    fetchedAt = clubCalDoc.get().getFetchedAt();
+                    Timer.Context timerContext = scheduleParseTimer.time();
+                    try {
+                        classes.addAll(parseClassSchedules(clubCalDoc.get().getDocument()));
+                        failed = false;
+                    } finally {
+                        timerContext.stop();
                     }
                 }
-            }
             }
         } catch (VariableExpansionException e) {
             log.error("Couldn't create club calendar schedule for clubId={} and date={}", clubId, weekStart, e);
+        } catch (IOException e) {
+            log.error("Couldn't parse club calendar schedule for clubId={} and date={}", clubId, weekStart, e);
         }
         log.info("Fetched {} class schedules for week starting {} for club with id={}", classes.size(), weekStart, clubId);
-        return classes;
+        return new FetchedWeek(classes, fetchedAt, failed);
     }
 
-    public Set<Integer> getClubIds() {
-        clubIdsLock.readLock().lock();
-        try {
-            return ImmutableSet.copyOf(clubIds);
-        } finally {
-            clubIdsLock.readLock().unlock();
+    static Set<ClassInfo> parseClassSchedules(Document clubCalDoc) {
+        Set<ClassInfo> classes = Sets.newHashSet();
+        Elements weekOfEls = clubCalDoc.select("#WeekTitle");
+        if (!weekOfEls.isEmpty()) {
+            DateTime weekDateTime = parseWeekTitle(weekOfEls.iterator().next().html());
+
+            Map<Integer, LocalDate> columnDate = Maps.newHashMap();
+            Elements columns = clubCalDoc.select("#cal > tbody > tr > td > table > tbody > tr:eq(0) > td");
+            populateColumnDates(weekDateTime, columnDate, columns);
+
+            for (Element row: clubCalDoc.select("#cal > tbody > tr > td > table > tbody > tr:gt(0)")) {
+                columns = row.select("td");
+                DateTime time = null;
+                for(int columnNdx = 0; columnNdx < columns.size(); columnNdx++) {
+                    Element element = columns.get(columnNdx);
+                    if (columnNdx == 0 && element.hasClass("hours")) {
+                        time = parseRowTime(element.text());
+                        continue;
+                    }
+
+                    if (time == null) {
+                        TwentyFourHourParser.log.error("Time for the row was null!");
+                        break;
+                    }
+
+                    LocalDate date = columnDate.get(columnNdx);
+
+                    if (date == null) {
+                        continue;
+                    }
+
+                    LocalDateTime classDateTime = new LocalDateTime(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth(), time.getHourOfDay(), time.getMinuteOfHour());
+
+                    List<ClassInfo> classInfoEntries = extractClassScheduleEntries(element, classDateTime);
+                    classes.addAll(classInfoEntries);
+                }
+            }
         }
+        return classes;
+    }
+
+    /**
+     * Returns the current club id snapshot. Snapshots are immutable, so callers can hold on to them without copying.
+     */
+    public ClubIdSet getClubIds() {
+        return clubIds.get();
+    }
+
+    /**
+     * Registers a listener that is told about club ids as each crawl discovers them.
+     */
+    public void addClubIdListener(ClubIdCrawler.ClubIdListener listener) {
+        clubIdListeners.add(listener);
     }
 
     private Set<Integer> fetchCLubIds() {
         Stopwatch stopwatch = Stopwatch.createStarted();
         try {
-            URI baseUri = new URI(baseClubListUrl);
-            Set<String> stateLinks = getAllStateLinks(baseUri);
-            Set<String> cityLinks = getAllCityLinks(stateLinks, baseUri);
-            return parseCityLinks(cityLinks);
-        } catch (URISyntaxException e) {
-            log.warn("Couldn't create URI for {}. Returning empty set of club ids", baseClubListUrl, e);
-            return Collections.emptySet();
+            return clubIdCrawler.crawl(new ClubIdCrawler.ClubIdListener() {
+                @Override
+                public void onClubIds(Set<Integer> discovered) {
+                    ClubIdSet current;
+                    do {
+                        current = clubIds.get();
+                    } while (!clubIds.compareAndSet(current, current.plus(discovered)));
+                    for (ClubIdCrawler.ClubIdListener listener: clubIdListeners) {
+                        listener.onClubIds(discovered);
+                    }
+                }
+            });
         } finally {
             clubIdsUpdateTimer.update(stopwatch.elapsed(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
             log.debug("Completed fetching club ids in {}MS", stopwatch.elapsed(TimeUnit.MILLISECONDS));
         }
     }
 
-    private List<ClassInfo> extractClassScheduleEntries(Element element, LocalDateTime classDateTime) {
+    private static List<ClassInfo> extractClassScheduleEntries(Element element, LocalDateTime classDateTime) {
         List<ClassInfo> entries = Lists.newArrayList();
         for (Element classEl: element.select("span")) {
             Elements classLink = classEl.select("a");
@@ -245,20 +296,13 @@ public class TwentyFourHourParser extends HealthCheck {
                 continue;
             }
 
-            String className;
-            if (StringUtils.isEmpty(classLink.text())) {
-                String link = classLink.select("img").attr("src");
-                className = IMAGE_TO_CLASS_NAME.get(link);
-                if (className == null) {
-                    className = link.substring(link.lastIndexOf("/") + 1, link.lastIndexOf("."));
-                    className = CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.UPPER_CAMEL, className);
-                }
-            } else {
-                className = classLink.text();
-            }
+            String className = resolveClassName(classLink.text(), classLink.select("img").attr("src"));
 
             String stripped = classEl.html().replaceAll("<[^>]*>", "\r");
             String details[] = StringUtils.splitByWholeSeparator(stripped, "\r");
+            if (details.length == 0) {
+                continue;
+            }
             String instructor = StringUtils.isEmpty(details[details.length - 1]) ? details[0] : details[details.length - 1];
 
             entries.add(ClassInfo.builder().name(className).time(classDateTime).instructor(instructor).build());
@@ -267,100 +311,47 @@ public class TwentyFourHourParser extends HealthCheck {
         return entries;
     }
 
-    private void populateColumnDates(DateTime weekDateTime, Map<Integer, LocalDate> columnDate, Elements columns) {
+    private static void populateColumnDates(DateTime weekDateTime, Map<Integer, LocalDate> columnDate, Elements columns) {
         for (int columnNdx = 0; columnNdx < columns.size(); columnNdx++) {
-            String dateString = columns.get(columnNdx).text();
-            Matcher matcher = CALENDAR_DATE_PATTERN.matcher(dateString);
-            if (matcher.matches()) {
-                LocalDate date = CALENDAR_DATE_FORMATTER.parseLocalDate(matcher.group(1));
-                date = date.year().setCopy(weekDateTime.getYear());
+            LocalDate date = parseColumnDate(columns.get(columnNdx).text(), weekDateTime.getYear());
+            if (date != null) {
                 columnDate.put(columnNdx, date);
             }
         }
     }
 
-    private Set<String> getAllStateLinks(URI baseUri) {
-        Set<String> stateLinks = Sets.newHashSet();
-        try {
-            Document stateListDoc = Jsoup.connect(baseClubListUrl).get();
-            Elements allStateLinks = stateListDoc.select("a");
-            stateLinks.addAll(extractLinks(allStateLinks, baseUri.getPath()));
-        } catch (IOException e) {
-            log.error("Couldn't get all state links for {}", baseClubListUrl, e);
-        }
-        return stateLinks;
+    static DateTime parseWeekTitle(String weekTitle) {
+        return CALENDAR_WEEK_FORMATTER.parseDateTime(weekTitle);
     }
 
-    private Set<String> getAllCityLinks(Set<String> stateLinks, URI baseUri) {
-        Set<String> cityLinks = Sets.newHashSet();
-        for (String stateLink: stateLinks) {
-            try {
-                TwentyFourHourParser.log.debug("Following state link {}", stateLink);
-                Document cityListDoc = Jsoup.connect(stateLink).get();
-                Elements allCityLinks = cityListDoc.select("a");
-                cityLinks.addAll(extractLinks(allCityLinks, baseUri.getPath()));
-            } catch (IOException e) {
-                log.error("Couldn't get city links for {}", stateLink, e);
-            }
-        }
-        return cityLinks;
+    static DateTime parseRowTime(String rowTime) {
+        return CALENDAR_TIME_FORMATTER.parseDateTime(rowTime);
     }
 
-    private Set<Integer> parseCityLinks(Set<String> cityLinks) {
-        Set<Integer> clubIds = Sets.newHashSet();
-        for (String cityLink: cityLinks) {
-            try {
-                TwentyFourHourParser.log.debug("Following city link {}", cityLink);
-                Document cityClubsDoc = Jsoup.connect(cityLink).get();
-                Elements clubListLinks  = cityClubsDoc.select("#clubListTable tr.oddRow td a, #clubListTable tr.evenRow td a");
-
-                for (Element clubDetailsEl: clubListLinks) {
-                    String link = clubDetailsEl.attr("href");
-                    if (StringUtils.isEmpty(link)) {
-                        continue;
-                    }
-                    Matcher matcher = clubDetailPagePattern.matcher(link);
-                    if (matcher.matches()) {
-                        TwentyFourHourParser.log.debug("Found club details link {}", link);
-                        Integer clubId = Integer.parseInt(matcher.group(1));
-                        clubIds.add(clubId);
-                        TwentyFourHourParser.log.debug("Found club ID of {}", clubId);
-                    }
-                }
-            } catch (IOException e) {
-                log.error("Couldn't get city link for {}", cityLink, e);
-            }
+    /**
+     * Parses a calendar column heading such as {@code MON Jan-27}, returning {@code null} for anything else.
+     */
+    static LocalDate parseColumnDate(String heading, int year) {
+        Matcher matcher = CALENDAR_DATE_PATTERN.matcher(heading);
+        if (!matcher.matches()) {
+            return null;
         }
-        return clubIds;
+        LocalDate date = CALENDAR_DATE_FORMATTER.parseLocalDate(matcher.group(1));
+        return date.year().setCopy(year);
     }
 
-    private static List<String> extractLinks(Elements linkEls, String prefixPath) {
-        List<String> links = Lists.newArrayList();
-        for (Element stateLinkElement: linkEls) {
-            String link = stateLinkElement.attr("href");
-            if (link.startsWith(prefixPath) && !link.equals(prefixPath)) {
-                links.add(stateLinkElement.attr("abs:href"));
-            }
+    /**
+     * Class names are either the text of the class link or, for branded classes, only an image in the link.
+     */
+    static String resolveClassName(String linkText, String imageSrc) {
+        if (!StringUtils.isEmpty(linkText)) {
+            return linkText;
         }
-        return links;
-    }
-
-    @Override
-    protected Result check() throws Exception {
-        String fullUri = clubCalendarUriTemplate.expand();
-        try {
-            HttpURLConnection.setFollowRedirects(false);
-            HttpURLConnection con = (HttpURLConnection) new URL(fullUri).openConnection();
-            con.setRequestMethod("HEAD");
-            if (con.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                return HealthCheck.Result.healthy();
-            } else {
-                return Result.unhealthy("Didn't get a 200 response from " + fullUri);
-            }
-        } catch (Exception e) {
-            log.warn("Couldn't connect to {}", fullUri, e);
-            return Result.unhealthy("Couldn't connect to " + fullUri);
+        String className = IMAGE_TO_CLASS_NAME.get(imageSrc);
+        if (className == null) {
+            className = imageSrc.substring(imageSrc.lastIndexOf("/") + 1, imageSrc.lastIndexOf("."));
+            className = CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.UPPER_CAMEL, className);
         }
+        return className;
     }
-
 }
@@ -0,0 +1,82 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.codahale.metrics.health.HealthCheck;
+import com.damnhandy.uri.template.UriTemplate;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lowtuna.gymclasscal.util.CircuitBreaker;
+import com.lowtuna.gymclasscal.util.PageResponse;
+import com.lowtuna.gymclasscal.util.PageTransport;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Probes the schedule site in the background and answers health checks from the latest probe, so frequent health
+ * checks don't turn into upstream requests. The probe bypasses the circuit breaker, but an open breaker is reported.
+ */
+@Slf4j
+public class UpstreamHealthProbe extends HealthCheck implements Managed {
+    private final ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("upstreamHealthProbe-%d").setDaemon(true).build());
+
+    private final PageTransport transport;
+    private final UriTemplate clubCalendarUriTemplate;
+    private final Duration interval;
+    private final CircuitBreaker circuitBreaker;
+
+    private volatile Result lastResult = Result.unhealthy("Upstream hasn't been probed yet");
+    private volatile long lastProbedAt = 0;
+
+    public UpstreamHealthProbe(PageTransport transport, UriTemplate clubCalendarUriTemplate, Duration interval, CircuitBreaker circuitBreaker) {
+        this.transport = transport;
+        this.clubCalendarUriTemplate = clubCalendarUriTemplate;
+        this.interval = interval;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public void start() throws Exception {
+        scheduledExecutorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                lastResult = probe();
+                lastProbedAt = System.currentTimeMillis();
+            }
+        }, 0, interval.getQuantity(), interval.getUnit());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        scheduledExecutorService.shutdownNow();
+    }
+
+    @Override
+    protected Result check() throws Exception {
+        if (circuitBreaker.getState() != CircuitBreaker.State.CLOSED) {
+            return Result.unhealthy("Upstream circuit breaker is " + circuitBreaker.getState());
+        }
+        if (lastProbedAt > 0 && System.currentTimeMillis() - lastProbedAt > 3 * interval.toMilliseconds()) {
+            return Result.unhealthy("Upstream hasn't been probed since " + lastProbedAt);
+        }
+        return lastResult;
+    }
+
+    private Result probe() {
+        String fullUri = null;
+        try {
+            fullUri = clubCalendarUriTemplate.expand();
+            try (PageResponse response = transport.fetch(fullUri, Collections.<String, String>emptyMap())) {
+                if (response.getStatusCode() == 200) {
+                    return Result.healthy();
+                }
+                return Result.unhealthy("Didn't get a 200 response from " + fullUri);
+            }
+        } catch (Exception e) {
+            log.warn("Couldn't connect to {}", fullUri, e);
+            return Result.unhealthy("Couldn't connect to " + fullUri);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.lowtuna.gymclasscal.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.NotNull;
+
+@Getter
+@Setter
+public class CircuitBreakerConfig {
+    @JsonProperty
+    private int windowSize = 20;
+
+    @JsonProperty
+    private int minimumCalls = 10;
+
+    @JsonProperty
+    private double failureRateThreshold = 0.5;
+
+    @JsonProperty
+    @NotNull
+    private Duration slowCallThreshold = Duration.seconds(3);
+
+    @JsonProperty
+    @NotNull
+    private Duration openDuration = Duration.seconds(30);
+}
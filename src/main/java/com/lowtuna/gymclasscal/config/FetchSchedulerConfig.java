@@ -0,0 +1,34 @@
+package com.lowtuna.gymclasscal.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.lowtuna.gymclasscal.util.FetchScheduler;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.NotNull;
+
+@Getter
+@Setter
+public class FetchSchedulerConfig {
+    @JsonProperty
+    @NotNull
+    private FetchScheduler.ExecutionMode executionMode = FetchScheduler.ExecutionMode.PLATFORM_THREADS;
+
+    /**
+     * Number of platform threads running fetches.
+     */
+    @JsonProperty
+    private int threads = 32;
+
+    /**
+     * How many fetches run at once in virtual thread mode, each on a virtual thread of its own.
+     */
+    @JsonProperty
+    private int maxVirtualThreads = 256;
+
+    @JsonProperty
+    private int maxQueuedTasks = 500;
+
+    @JsonProperty
+    private double backgroundQueueShare = 0.5;
+}
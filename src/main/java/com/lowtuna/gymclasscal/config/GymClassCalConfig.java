@@ -6,13 +6,16 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.jaxrs.json.annotation.JSONP;
 import com.lowtuna.dropwizard.extras.config.ElasticSearchConfig;
 import com.lowtuna.dropwizard.extras.heroku.AntiIdlerConfig;
+import com.lowtuna.gymclasscal.business.ScheduleParserMode;
 import io.dropwizard.Configuration;
 import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.validator.constraints.NotEmpty;
 
+import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
 @Getter
@@ -22,9 +25,18 @@ public class GymClassCalConfig extends Configuration {
     @JsonProperty
     private Duration clubIdsUpdateDuration = null;
 
+    @JsonProperty
+    private int clubCrawlStateConcurrency = 4;
+
+    @JsonProperty
+    private int clubCrawlCityConcurrency = 8;
+
     @JsonProperty
     private int numberOfWeekToLoad = 4;
 
+    @JsonProperty
+    private int numberOfPastWeeksToKeep = 1;
+
     @JsonProperty
     @NotEmpty
     private String clubListBaseUrl = "http://www.24hourfitness.com/ClubList";
@@ -37,10 +49,123 @@ public class GymClassCalConfig extends Configuration {
     @NotEmpty
     private String clubCalendarTemplate = "http://24hourfit.schedulesource.com/public/gxschedule.aspx{?club,date}";
 
+    @JsonProperty
+    private String pageCacheDirectory = System.getProperty("java.io.tmpdir") + "/gymclasscal-pages";
+
+    @JsonProperty
+    @NotNull
+    private Duration pageCacheTtl = Duration.hours(1);
+
+    /**
+     * Size of the page cache segment file; it is mapped into memory as a whole, so anything over 2GB is capped at 2GB.
+     */
+    @JsonProperty
+    @NotNull
+    private Size pageCacheMaxSize = Size.megabytes(256);
+
+    @JsonProperty
+    @NotNull
+    @Valid
+    private HttpTransportConfig httpTransport = new HttpTransportConfig();
+
+    @JsonProperty
+    @NotNull
+    @Valid
+    private CircuitBreakerConfig upstreamCircuitBreaker = new CircuitBreakerConfig();
+
+    @JsonProperty
+    @NotNull
+    private Duration healthProbeInterval = Duration.seconds(30);
+
+    @JsonProperty
+    @NotNull
+    private Duration cacheSoftTtl = Duration.hours(1);
+
+    @JsonProperty
+    @NotNull
+    private Duration cacheHardTtl = Duration.hours(12);
+
+    @JsonProperty
+    @NotNull
+    @Valid
+    private FetchSchedulerConfig fetchScheduler = new FetchSchedulerConfig();
+
+    @JsonProperty
+    private int documentCacheMaxEntries = 100;
+
+    @JsonProperty
+    @NotNull
+    private Duration clubInfoTtl = Duration.days(7);
+
+    @JsonProperty
+    @NotNull
+    private Size scheduleStoreMaxSize = Size.megabytes(32);
+
+    /**
+     * Bound on the last known good copies of weeks, which the schedule store keeps on top of
+     * {@code scheduleStoreMaxSize} to stand in for weeks that expired and then failed to load. Copies of weeks that are
+     * still held are shared with the store, so together they hold at most the sum of the two.
+     */
+    @JsonProperty
+    @NotNull
+    private Size scheduleStoreLastKnownGoodMaxSize = Size.megabytes(16);
+
+    @JsonProperty
+    @NotNull
+    private Duration prewarmInterval = Duration.minutes(5);
+
+    @JsonProperty
+    private int prewarmBudget = 20;
+
+    @JsonProperty
+    @NotNull
+    private Size calendarCacheMaxSize = Size.megabytes(64);
+
+    @JsonProperty
+    @NotNull
+    private Duration calendarCacheIdleTtl = Duration.hours(12);
+
+    @JsonProperty
+    private int changeLogMaxClubs = 1000;
+
+    @JsonProperty
+    private int changeLogMaxChangesPerClub = 2000;
+
+    @JsonProperty
+    private int maxClubsPerCalendar = 10;
+
+    /**
+     * Tab separated zip code centroid table in the Census ZCTA gazetteer layout; the {@code zip-centroids.txt} class path
+     * resource, which the build bundles from the Census Bureau's national ZCTA gazetteer, is used when unset.
+     */
+    @JsonProperty
+    private String zipCentroidsFile;
+
+    /**
+     * How often the club locations are rebuilt when clubs were loaded into or expired from the directory.
+     */
+    @JsonProperty
+    @NotNull
+    private Duration clubLocatorRebuildInterval = Duration.minutes(1);
+
+    @JsonProperty
+    @NotNull
+    @Valid
+    private ScheduleHistoryConfig scheduleHistory = new ScheduleHistoryConfig();
+
+    @JsonProperty
+    @NotNull
+    private ScheduleParserMode scheduleParserMode = ScheduleParserMode.DOM;
+
     @JsonProperty
     @NotNull
     private ElasticSearchConfig elasticSearch = new ElasticSearchConfig();
 
+    @JsonProperty
+    @NotNull
+    @Valid
+    private SearchIndexConfig searchIndex = new SearchIndexConfig();
+
     @JsonProperty
     @NotNull
     private AntiIdlerConfig antiIdler = new AntiIdlerConfig();
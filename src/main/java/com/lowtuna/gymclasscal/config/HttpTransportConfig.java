@@ -0,0 +1,46 @@
+package com.lowtuna.gymclasscal.config;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.Maps;
+import io.dropwizard.util.Duration;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.NotNull;
+
+@Getter
+@Setter
+public class HttpTransportConfig {
+    @JsonProperty
+    private int maxConnections = 64;
+
+    @JsonProperty
+    private int maxConnectionsPerHost = 8;
+
+    @JsonProperty
+    @NotNull
+    private Map<String, Integer> hostConnectionLimits = Maps.newHashMap();
+
+    @JsonProperty
+    @NotNull
+    private Duration connectTimeout = Duration.seconds(2);
+
+    @JsonProperty
+    @NotNull
+    private Duration readTimeout = Duration.seconds(5);
+
+    @JsonProperty
+    @NotNull
+    private Duration connectionRequestTimeout = Duration.seconds(5);
+
+    @JsonProperty
+    @NotNull
+    private Duration keepAlive = Duration.seconds(30);
+
+    @JsonProperty
+    @NotEmpty
+    private String userAgent = "GymClassCal";
+}
@@ -0,0 +1,48 @@
+package com.lowtuna.gymclasscal.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.NotNull;
+
+@Getter
+@Setter
+public class ScheduleHistoryConfig {
+    /**
+     * Mongo connection string; schedules are only kept in memory when unset.
+     */
+    @JsonProperty
+    private String uri;
+
+    @JsonProperty
+    @NotNull
+    private String database = "gymclasscal";
+
+    @JsonProperty
+    @NotNull
+    private String collection = "schedules";
+
+    @JsonProperty
+    private int batchSize = 500;
+
+    @JsonProperty
+    @NotNull
+    private Duration flushInterval = Duration.seconds(10);
+
+    /**
+     * How long a failed fetch of a week waits for its stored copy when none is held in memory. Past weeks read for a
+     * calendar are bounded by the calendar's deadline instead.
+     */
+    @JsonProperty
+    @NotNull
+    private Duration readTimeout = Duration.milliseconds(100);
+
+    /**
+     * How long a week found missing from the history is answered as missing without asking Mongo again.
+     */
+    @JsonProperty
+    @NotNull
+    private Duration missingWeekTtl = Duration.minutes(10);
+}
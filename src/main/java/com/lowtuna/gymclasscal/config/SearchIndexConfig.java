@@ -0,0 +1,42 @@
+package com.lowtuna.gymclasscal.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.validation.constraints.NotNull;
+
+@Getter
+@Setter
+public class SearchIndexConfig {
+    /**
+     * Off by default: the embedded node takes a good share of a small heap, more so while its indexes are in memory.
+     */
+    @JsonProperty
+    private boolean enabled = false;
+
+    @JsonProperty
+    @NotNull
+    private String clusterName = "gymclasscal";
+
+    /**
+     * Where the embedded node keeps its indexes; they're held in memory and rebuilt after a restart when unset.
+     */
+    @JsonProperty
+    private String dataDirectory;
+
+    @JsonProperty
+    private int maxResults = 25;
+
+    @JsonProperty
+    @NotNull
+    private Duration searchTimeout = Duration.seconds(2);
+
+    /**
+     * How often classes that have passed are deleted from the index.
+     */
+    @JsonProperty
+    @NotNull
+    private Duration pruneInterval = Duration.hours(1);
+}
@@ -0,0 +1,19 @@
+package com.lowtuna.gymclasscal.core;
+
+import lombok.Data;
+
+/**
+ * An added, changed or removed class. Removed classes carry the class as it was last seen.
+ */
+@Data
+public class ClassChange {
+    public enum Type {
+        ADDED,
+        CHANGED,
+        REMOVED
+    }
+
+    private final String uid;
+    private final Type type;
+    private final ClassInfo classInfo;
+}
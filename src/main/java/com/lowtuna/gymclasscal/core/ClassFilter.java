@@ -0,0 +1,95 @@
+package com.lowtuna.gymclasscal.core;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import com.google.common.collect.ImmutableSortedSet;
+import lombok.Data;
+import org.joda.time.LocalTime;
+
+/**
+ * Which classes of a schedule to keep: those with one of the class names and one of the instructors (compared without
+ * regard to case), on one of the days of the week and starting within the time of day window. Empty name, instructor
+ * or day sets don't restrict anything. The window starts at {@code fromMinute} inclusive and ends at {@code toMinute}
+ * exclusive, wrapping around midnight when it ends before it starts.
+ */
+@Data
+public class ClassFilter {
+    public static final int MINUTES_PER_DAY = 24 * 60;
+    public static final ClassFilter ALL = new ClassFilter(ImmutableSortedSet.<String>of(), ImmutableSortedSet.<String>of(), ImmutableSortedSet.<Integer>of(), 0, MINUTES_PER_DAY);
+
+    private static final String[] DAY_NAMES = {"MON", "TUE", "WED", "THU", "FRI", "SAT", "SUN"};
+
+    private final ImmutableSortedSet<String> classes;
+    private final ImmutableSortedSet<String> instructors;
+    private final ImmutableSortedSet<Integer> daysOfWeek;
+    private final int fromMinute;
+    private final int toMinute;
+
+    /**
+     * Builds a filter from request parameters: days as ISO numbers (1 is Monday) or English day names, times as
+     * {@code HH:mm}. Throws an {@link IllegalArgumentException} for days or times that can't be parsed.
+     */
+    public static ClassFilter of(List<String> classes, List<String> instructors, List<String> days, String from, String to) {
+        ImmutableSortedSet.Builder<Integer> daysOfWeek = ImmutableSortedSet.naturalOrder();
+        for (String day: days) {
+            daysOfWeek.add(parseDayOfWeek(day));
+        }
+        return new ClassFilter(normalize(classes), normalize(instructors), daysOfWeek.build(),
+                from == null ? 0 : parseMinuteOfDay(from),
+                to == null ? MINUTES_PER_DAY : parseMinuteOfDay(to));
+    }
+
+    public static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Bit {@code n} is set for every ISO day of week {@code n} the filter keeps.
+     */
+    public int getDayMask() {
+        if (daysOfWeek.isEmpty()) {
+            return 0xFF;
+        }
+        int mask = 0;
+        for (Integer day: daysOfWeek) {
+            mask |= 1 << day;
+        }
+        return mask;
+    }
+
+    public boolean matchesTimeOfDay(int minuteOfDay) {
+        if (fromMinute <= toMinute) {
+            return minuteOfDay >= fromMinute && minuteOfDay < toMinute;
+        }
+        return minuteOfDay >= fromMinute || minuteOfDay < toMinute;
+    }
+
+    private static ImmutableSortedSet<String> normalize(Collection<String> values) {
+        ImmutableSortedSet.Builder<String> normalized = ImmutableSortedSet.naturalOrder();
+        for (String value: values) {
+            normalized.add(normalize(value));
+        }
+        return normalized.build();
+    }
+
+    private static int parseDayOfWeek(String day) {
+        String normalized = day.trim().toUpperCase(Locale.ENGLISH);
+        if (normalized.length() == 1 && normalized.charAt(0) >= '1' && normalized.charAt(0) <= '7') {
+            return normalized.charAt(0) - '0';
+        }
+        if (normalized.length() >= 3) {
+            for (int i = 0; i < DAY_NAMES.length; i++) {
+                if (normalized.startsWith(DAY_NAMES[i])) {
+                    return i + 1;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unknown day of week " + day);
+    }
+
+    private static int parseMinuteOfDay(String time) {
+        return LocalTime.parse(time.trim()).getMillisOfDay() / (60 * 1000);
+    }
+}
@@ -1,5 +1,8 @@
 package com.lowtuna.gymclasscal.core;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import lombok.Data;
 import lombok.experimental.Builder;
 import org.joda.time.LocalDateTime;
@@ -10,4 +13,27 @@ public class ClassInfo {
     private final LocalDateTime time;
     private final String name;
     private final String instructor;
+
+    /**
+     * Event UID of the class that stays the same across reloads and restarts. The instructor isn't part of it, so a
+     * substitution shows up as a change to the event rather than a different event.
+     */
+    public String uid(int clubId) {
+        return uid(clubId, 0);
+    }
+
+    /**
+     * Event UID of the class given how many classes of the same name start at the same time ahead of it; see
+     * {@link ScheduleIndex#uid(int, ClassInfo)}. The first one gets the plain {@link #uid(int) UID}.
+     */
+    public String uid(int clubId, int occurrence) {
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putInt(clubId)
+                .putInt(WeekSchedule.toEpochMinute(time))
+                .putString(name, Charsets.UTF_8);
+        if (occurrence > 0) {
+            hasher.putInt(occurrence);
+        }
+        return hasher.hash() + "@gymclasscal";
+    }
 }
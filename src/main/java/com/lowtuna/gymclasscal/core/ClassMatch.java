@@ -0,0 +1,13 @@
+package com.lowtuna.gymclasscal.core;
+
+import lombok.Data;
+
+/**
+ * A class found by a search, with the club it's at and its event UID.
+ */
+@Data
+public class ClassMatch {
+    private final int clubId;
+    private final String uid;
+    private final ClassInfo classInfo;
+}
@@ -1,13 +1,29 @@
 package com.lowtuna.gymclasscal.core;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 import lombok.Data;
 import lombok.experimental.Builder;
 
 @Builder
 @Data
 public class Club {
+    private static final Pattern ZIP = Pattern.compile("\\b(\\d{5})(?:-\\d{4})?\\s*$");
+
     private final String name;
     private final int clubId;
     private final String address;
     private final String phoneNumber;
+
+    /**
+     * The five digit zip code the address ends with, or {@code null} if it doesn't end with one.
+     */
+    public String getZip() {
+        if (address == null) {
+            return null;
+        }
+        Matcher matcher = ZIP.matcher(address);
+        return matcher.find() ? matcher.group(1) : null;
+    }
 }
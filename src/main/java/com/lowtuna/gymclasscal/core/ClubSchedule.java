@@ -0,0 +1,23 @@
+package com.lowtuna.gymclasscal.core;
+
+import java.util.Set;
+
+import lombok.Data;
+
+/**
+ * The classes of all loaded weeks of a club, with the fetch time of the oldest week they came from, how many weeks had
+ * to be served from their last known good copy and how many couldn't be served at all. The version changes whenever the
+ * classes of any week do.
+ */
+@Data
+public class ClubSchedule {
+    private final ScheduleIndex index;
+    private final long loadedAt;
+    private final int fallbackWeeks;
+    private final int missingWeeks;
+    private final long version;
+
+    public Set<ClassInfo> getClasses() {
+        return index.getClasses();
+    }
+}
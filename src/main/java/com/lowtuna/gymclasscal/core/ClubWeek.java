@@ -0,0 +1,10 @@
+package com.lowtuna.gymclasscal.core;
+
+import lombok.Data;
+import org.joda.time.LocalDate;
+
+@Data
+public class ClubWeek {
+    private final int clubId;
+    private final LocalDate weekStart;
+}
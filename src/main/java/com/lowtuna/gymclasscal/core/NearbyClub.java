@@ -0,0 +1,9 @@
+package com.lowtuna.gymclasscal.core;
+
+import lombok.Data;
+
+@Data
+public class NearbyClub {
+    private final Club club;
+    private final double distanceMiles;
+}
@@ -0,0 +1,16 @@
+package com.lowtuna.gymclasscal.core;
+
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * The changes to a club's schedule since a sync token, and the token to ask for the next ones with. When the given token
+ * can't be served from the change log the whole schedule is returned as added classes and {@code fullSync} is set.
+ */
+@Data
+public class ScheduleChanges {
+    private final String syncToken;
+    private final boolean fullSync;
+    private final List<ClassChange> changes;
+}
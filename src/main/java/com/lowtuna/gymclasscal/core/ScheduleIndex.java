@@ -0,0 +1,220 @@
+package com.lowtuna.gymclasscal.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Ints;
+import lombok.Getter;
+import org.joda.time.LocalDateTime;
+
+/**
+ * A club's classes sorted by start time, with posting lists of the positions of every class name and instructor
+ * (lower cased) and the day of week and minute of day of every class. Classes starting at the same time are ordered by
+ * name and instructor, which tells apart classes of the same name at the same time when giving out UIDs. Filtering intersects posting lists and checks the
+ * day and time of the remaining classes, which keeps them in start time order without sorting.
+ */
+public class ScheduleIndex {
+    public static final ScheduleIndex EMPTY = build(Collections.<ClassInfo>emptySet(), 0);
+
+    private final ClassInfo[] byTime;
+    private final byte[] daysOfWeek;
+    private final short[] minutesOfDay;
+    private final int[] occurrences;
+    private final Map<String, int[]> byName;
+    private final Map<String, int[]> byInstructor;
+
+    @Getter
+    private final Set<ClassInfo> classes;
+
+    /**
+     * Version of the schedule the index was built from.
+     */
+    @Getter
+    private final long version;
+
+    private ScheduleIndex(ClassInfo[] byTime, Map<String, int[]> byName, Map<String, int[]> byInstructor, long version) {
+        this.byTime = byTime;
+        this.byName = byName;
+        this.byInstructor = byInstructor;
+        this.classes = ImmutableSet.copyOf(byTime);
+        this.version = version;
+
+        this.daysOfWeek = new byte[byTime.length];
+        this.minutesOfDay = new short[byTime.length];
+        this.occurrences = new int[byTime.length];
+        for (int i = 0; i < byTime.length; i++) {
+            daysOfWeek[i] = (byte) byTime[i].getTime().getDayOfWeek();
+            minutesOfDay[i] = (short) (byTime[i].getTime().getMillisOfDay() / (60 * 1000));
+            if (i > 0 && byTime[i].getTime().equals(byTime[i - 1].getTime()) && Objects.equal(byTime[i].getName(), byTime[i - 1].getName())) {
+                occurrences[i] = occurrences[i - 1] + 1;
+            }
+        }
+    }
+
+    public static ScheduleIndex build(Collection<ClassInfo> classes, long version) {
+        List<ClassInfo> sorted = Lists.newArrayList(ImmutableSet.copyOf(classes));
+        Collections.sort(sorted, new Comparator<ClassInfo>() {
+            @Override
+            public int compare(ClassInfo o1, ClassInfo o2) {
+                return ComparisonChain.start()
+                        .compare(o1.getTime(), o2.getTime())
+                        .compare(o1.getName(), o2.getName(), Ordering.natural().nullsFirst())
+                        .compare(o1.getInstructor(), o2.getInstructor(), Ordering.natural().nullsFirst())
+                        .result();
+            }
+        });
+
+        Map<String, List<Integer>> byName = Maps.newHashMap();
+        Map<String, List<Integer>> byInstructor = Maps.newHashMap();
+        for (int i = 0; i < sorted.size(); i++) {
+            post(byName, sorted.get(i).getName(), i);
+            post(byInstructor, sorted.get(i).getInstructor(), i);
+        }
+        return new ScheduleIndex(sorted.toArray(new ClassInfo[sorted.size()]), postingLists(byName), postingLists(byInstructor), version);
+    }
+
+    public int size() {
+        return byTime.length;
+    }
+
+    /**
+     * Event UID of one of the classes. Classes of the same name starting at the same time, in different rooms or with
+     * different instructors, would share their {@link ClassInfo#uid(int) UID}, so all but the first by instructor get
+     * one of their own.
+     */
+    public String uid(int clubId, ClassInfo classInfo) {
+        for (int i = firstStartingAtOrAfter(classInfo.getTime()); i < byTime.length && byTime[i].getTime().equals(classInfo.getTime()); i++) {
+            if (byTime[i].equals(classInfo)) {
+                return classInfo.uid(clubId, occurrences[i]);
+            }
+        }
+        return classInfo.uid(clubId);
+    }
+
+    /**
+     * The classes the filter keeps, ordered by start time.
+     */
+    public List<ClassInfo> filter(ClassFilter filter) {
+        return filter(filter, null, null);
+    }
+
+    /**
+     * The classes the filter keeps starting at or after {@code from} and before {@code until}, ordered by start time.
+     * Either bound may be {@code null} to leave that end of the schedule open.
+     */
+    public List<ClassInfo> filter(ClassFilter filter, LocalDateTime from, LocalDateTime until) {
+        int first = from == null ? 0 : firstStartingAtOrAfter(from);
+        int last = until == null ? byTime.length : firstStartingAtOrAfter(until);
+
+        int[] candidates = null;
+        if (!filter.getClasses().isEmpty()) {
+            candidates = union(byName, filter.getClasses());
+        }
+        if (!filter.getInstructors().isEmpty()) {
+            int[] instructorCandidates = union(byInstructor, filter.getInstructors());
+            candidates = candidates == null ? instructorCandidates : intersect(candidates, instructorCandidates);
+        }
+
+        int start = candidates == null ? first : lowerBound(candidates, first);
+        int end = candidates == null ? Math.max(first, last) : lowerBound(candidates, last);
+        int dayMask = filter.getDayMask();
+        List<ClassInfo> filtered = Lists.newArrayListWithCapacity(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            int position = candidates == null ? i : candidates[i];
+            if ((dayMask & (1 << daysOfWeek[position])) != 0 && filter.matchesTimeOfDay(minutesOfDay[position])) {
+                filtered.add(byTime[position]);
+            }
+        }
+        return filtered;
+    }
+
+    private int firstStartingAtOrAfter(LocalDateTime time) {
+        int low = 0;
+        int high = byTime.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (byTime[middle].getTime().isBefore(time)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(int[] positions, int position) {
+        int found = Arrays.binarySearch(positions, position);
+        return found >= 0 ? found : -found - 1;
+    }
+
+    private static void post(Map<String, List<Integer>> postings, String value, int position) {
+        String key = ClassFilter.normalize(value);
+        List<Integer> positions = postings.get(key);
+        if (positions == null) {
+            positions = Lists.newArrayList();
+            postings.put(key, positions);
+        }
+        positions.add(position);
+    }
+
+    private static Map<String, int[]> postingLists(Map<String, List<Integer>> postings) {
+        ImmutableMap.Builder<String, int[]> postingLists = ImmutableMap.builder();
+        for (Map.Entry<String, List<Integer>> entry: postings.entrySet()) {
+            postingLists.put(entry.getKey(), Ints.toArray(entry.getValue()));
+        }
+        return postingLists.build();
+    }
+
+    private static int[] union(Map<String, int[]> postings, Set<String> keys) {
+        if (keys.size() == 1) {
+            int[] positions = postings.get(keys.iterator().next());
+            return positions == null ? new int[0] : positions;
+        }
+        int[][] lists = new int[keys.size()][];
+        int total = 0;
+        int list = 0;
+        for (String key: keys) {
+            int[] positions = postings.get(key);
+            lists[list] = positions == null ? new int[0] : positions;
+            total += lists[list++].length;
+        }
+        int[] merged = new int[total];
+        int offset = 0;
+        for (int[] positions: lists) {
+            System.arraycopy(positions, 0, merged, offset, positions.length);
+            offset += positions.length;
+        }
+        // every class has one name and one instructor, so the lists never share a position
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] intersection = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                intersection[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(intersection, size);
+    }
+}
@@ -0,0 +1,106 @@
+package com.lowtuna.gymclasscal.core;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.lowtuna.gymclasscal.util.StringDictionary;
+import lombok.Getter;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDateTime;
+
+/**
+ * One club's classes for one week in columnar form: start times as minutes since the epoch (of the club's local
+ * time) and class/instructor ids into shared {@link StringDictionary dictionaries}, sorted by start time.
+ */
+public class WeekSchedule {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    private final int[] startMinutes;
+    private final int[] classIds;
+    private final int[] instructorIds;
+
+    @Getter
+    private final long loadedAt;
+
+    /**
+     * Hash of the classes, which changes whenever a reload brings different classes.
+     */
+    @Getter
+    private final int contentHash;
+
+    private WeekSchedule(int[] startMinutes, int[] classIds, int[] instructorIds, long loadedAt) {
+        this.startMinutes = startMinutes;
+        this.classIds = classIds;
+        this.instructorIds = instructorIds;
+        this.loadedAt = loadedAt;
+        this.contentHash = 31 * (31 * Arrays.hashCode(startMinutes) + Arrays.hashCode(classIds)) + Arrays.hashCode(instructorIds);
+    }
+
+    public static WeekSchedule encode(Collection<ClassInfo> classes, StringDictionary classNames, StringDictionary instructors, long loadedAt) {
+        List<ClassInfo> sorted = Lists.newArrayList(classes);
+        Collections.sort(sorted, new Comparator<ClassInfo>() {
+            @Override
+            public int compare(ClassInfo o1, ClassInfo o2) {
+                return o1.getTime().compareTo(o2.getTime());
+            }
+        });
+
+        int[] startMinutes = new int[sorted.size()];
+        int[] classIds = new int[sorted.size()];
+        int[] instructorIds = new int[sorted.size()];
+        for (int i = 0; i < sorted.size(); i++) {
+            ClassInfo classInfo = sorted.get(i);
+            startMinutes[i] = toEpochMinute(classInfo.getTime());
+            classIds[i] = classNames.idOf(classInfo.getName());
+            instructorIds[i] = instructors.idOf(classInfo.getInstructor());
+        }
+        return new WeekSchedule(startMinutes, classIds, instructorIds, loadedAt);
+    }
+
+    public List<ClassInfo> decode(StringDictionary classNames, StringDictionary instructors) {
+        List<ClassInfo> classes = Lists.newArrayListWithCapacity(size());
+        for (int i = 0; i < size(); i++) {
+            classes.add(ClassInfo.builder()
+                    .time(getStartTime(i))
+                    .name(classNames.valueOf(classIds[i]))
+                    .instructor(instructors.valueOf(instructorIds[i]))
+                    .build());
+        }
+        return classes;
+    }
+
+    public int size() {
+        return startMinutes.length;
+    }
+
+    public int getStartMinute(int index) {
+        return startMinutes[index];
+    }
+
+    public LocalDateTime getStartTime(int index) {
+        return new LocalDateTime(startMinutes[index] * MILLIS_PER_MINUTE, DateTimeZone.UTC);
+    }
+
+    public int getClassId(int index) {
+        return classIds[index];
+    }
+
+    public int getInstructorId(int index) {
+        return instructorIds[index];
+    }
+
+    /**
+     * Approximate retained size in bytes: the object header, three array headers and 12 bytes per class.
+     */
+    public int getWeight() {
+        return 32 + 3 * 16 + 12 * size();
+    }
+
+    public static int toEpochMinute(LocalDateTime time) {
+        return (int) (time.toDateTime(DateTimeZone.UTC).getMillis() / MILLIS_PER_MINUTE);
+    }
+}
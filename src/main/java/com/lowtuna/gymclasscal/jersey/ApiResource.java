@@ -1,69 +1,89 @@
 package com.lowtuna.gymclasscal.jersey;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Locale;
-import java.util.UUID;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
-import javax.annotation.Nullable;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.annotation.Timed;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.lowtuna.gymclasscal.business.ClassScheduleManager;
-import com.lowtuna.gymclasscal.business.TwentyFourHourParser;
+import com.lowtuna.gymclasscal.business.ClubManager;
+import com.lowtuna.gymclasscal.business.ScheduleChangeLog;
+import com.lowtuna.gymclasscal.business.SchedulePrewarmer;
+import com.lowtuna.gymclasscal.core.ClassFilter;
 import com.lowtuna.gymclasscal.core.ClassInfo;
 import com.lowtuna.gymclasscal.core.Club;
+import com.lowtuna.gymclasscal.core.ClubSchedule;
+import com.lowtuna.gymclasscal.core.ScheduleChanges;
+import com.lowtuna.gymclasscal.core.ScheduleIndex;
 import io.dropwizard.jersey.caching.CacheControl;
 import lombok.extern.slf4j.Slf4j;
-import net.fortuna.ical4j.data.CalendarOutputter;
-import net.fortuna.ical4j.extensions.property.WrCalName;
-import net.fortuna.ical4j.model.Calendar;
-import net.fortuna.ical4j.model.DateTime;
-import net.fortuna.ical4j.model.Dur;
-import net.fortuna.ical4j.model.ParameterList;
-import net.fortuna.ical4j.model.TimeZoneRegistry;
 import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
-import net.fortuna.ical4j.model.ValidationException;
-import net.fortuna.ical4j.model.component.VEvent;
-import net.fortuna.ical4j.model.component.VTimeZone;
-import net.fortuna.ical4j.model.property.CalScale;
-import net.fortuna.ical4j.model.property.Description;
-import net.fortuna.ical4j.model.property.Location;
-import net.fortuna.ical4j.model.property.ProdId;
-import net.fortuna.ical4j.model.property.Uid;
-import net.fortuna.ical4j.model.property.Version;
-import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
 
 @Path("api")
 @Slf4j
 public class ApiResource {
+    /**
+     * Seconds since the oldest week in the response was fetched from upstream.
+     */
+    public static final String DATA_AGE_HEADER = "X-Data-Age";
+    /**
+     * How complete each club's classes in a merged calendar are, as {@code clubId=status} pairs: {@code ok},
+     * {@code stale} (some weeks are last known good copies), {@code incomplete} (some weeks are missing), {@code failed}
+     * (nothing could be loaded) or {@code unknown} (no such club).
+     */
+    public static final String CLUB_STATUS_HEADER = "X-Club-Status";
+
     private final ClassScheduleManager scheduleManager;
-    private final TwentyFourHourParser parser;
+    private final ClubManager clubManager;
+    private final SchedulePrewarmer prewarmer;
+    private final CalendarCache calendarCache;
+    private final ScheduleChangeLog changeLog;
+    private final int maxClubsPerCalendar;
+    private final CalendarWriter calendarWriter = new CalendarWriter(TimeZoneRegistryFactory.getInstance().createRegistry());
+    private final ScheduleJsonWriter scheduleJsonWriter = new ScheduleJsonWriter();
     private final Timer icalTimer;
+    private final Meter notModified;
 
-    public ApiResource(ClassScheduleManager scheduleManager, TwentyFourHourParser parser, MetricRegistry metricRegistry) {
+    public ApiResource(ClassScheduleManager scheduleManager, ClubManager clubManager, SchedulePrewarmer prewarmer, CalendarCache calendarCache, ScheduleChangeLog changeLog, int maxClubsPerCalendar, MetricRegistry metricRegistry) {
         this.scheduleManager = scheduleManager;
-        this.parser = parser;
+        this.clubManager = clubManager;
+        this.prewarmer = prewarmer;
+        this.calendarCache = calendarCache;
+        this.changeLog = changeLog;
+        this.maxClubsPerCalendar = maxClubsPerCalendar;
 
         this.icalTimer = metricRegistry.timer(MetricRegistry.name(getClass(), "getCalendar", "iCalGeneration"));
+        this.notModified = metricRegistry.meter(MetricRegistry.name(getClass(), "getCalendar", "notModified"));
     }
 
     @GET
@@ -74,70 +94,219 @@ public class ApiResource {
     public Response getCalendar(@PathParam("clubId") int clubId,
                                 @QueryParam("class") final List<String> classes,
                                 @QueryParam("instructor") final List<String> instructors,
-                                @DefaultValue("America/Denver") @QueryParam("timeZone") String timeZone) {
-        Collection<ClassInfo> allClasses = scheduleManager.getClassInfos(clubId);
+                                @QueryParam("day") List<String> days,
+                                @QueryParam("from") String from,
+                                @QueryParam("to") String to,
+                                @DefaultValue("America/Denver") @QueryParam("timeZone") String timeZone,
+                                @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+                                @Context Request request) {
+        ClassFilter filter = parseFilter(classes, instructors, days, from, to);
 
-        ApiResource.log.debug("Found {} total classes before filtering", allClasses.size());
+        Club club = clubManager.getClub(clubId);
+        if (club == null) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
+        }
+        prewarmer.recordRequest(clubId);
+        ClubSchedule schedule = scheduleManager.getSchedule(clubId);
+        changeLog.record(clubId, schedule);
+        long version = 31 * schedule.getVersion() + club.hashCode();
 
-        allClasses = Collections2.filter(allClasses, new Predicate<ClassInfo>() {
-            @Override
-            public boolean apply(@Nullable ClassInfo input) {
-                if (!classes.isEmpty()) {
-                    return classes.contains(input.getName());
-                }
-                if (!instructors.isEmpty()) {
-                    return instructors.contains(input.getInstructor());
-                }
-                return true;
-            }
-        });
+        CalendarCache.Key key = new CalendarCache.Key(ImmutableList.of(clubId), filter, timeZone);
+        CalendarCache.RenderedCalendar rendered = calendarCache.getIfCurrent(key, version);
+        if (rendered == null) {
+            rendered = calendarCache.put(key, version, render(club.getName(), ImmutableList.of(club), ImmutableList.of(schedule), schedule.getLoadedAt(), filter, timeZone));
+        }
 
-        List<ClassInfo> filteredClasses = Lists.newArrayList(allClasses);
+        long dataAge = (System.currentTimeMillis() - schedule.getLoadedAt()) / 1000;
+        return calendarResponse(rendered, dataAge, acceptEncoding, request).build();
+    }
 
-        ApiResource.log.debug("Found {} total classes after filtering", filteredClasses.size());
+    /**
+     * One calendar of the classes of several clubs, loaded in parallel under a single deadline. Unknown clubs are left
+     * out, and the {@value #CLUB_STATUS_HEADER} header tells how complete each club's part of the calendar is.
+     */
+    @GET
+    @Timed
+    @Path("clubs/classes.ics")
+    @Produces("text/calendar")
+    @CacheControl(maxAge = 12, maxAgeUnit = TimeUnit.HOURS)
+    public Response getMergedCalendar(@QueryParam("club") List<Integer> clubIds,
+                                      @QueryParam("class") final List<String> classes,
+                                      @QueryParam("instructor") final List<String> instructors,
+                                      @QueryParam("day") List<String> days,
+                                      @QueryParam("from") String from,
+                                      @QueryParam("to") String to,
+                                      @DefaultValue("America/Denver") @QueryParam("timeZone") String timeZone,
+                                      @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+                                      @Context Request request) {
+        Set<Integer> requestedClubIds = Sets.newLinkedHashSet(clubIds);
+        if (requestedClubIds.isEmpty() || requestedClubIds.size() > maxClubsPerCalendar) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Between 1 and " + maxClubsPerCalendar + " clubs can be requested")
+                    .type("text/plain")
+                    .build());
+        }
+        ClassFilter filter = parseFilter(classes, instructors, days, from, to);
 
-        Collections.sort(filteredClasses, new Comparator<ClassInfo>() {
-            @Override
-            public int compare(ClassInfo o1, ClassInfo o2) {
-                return o1.getTime().compareTo(o2.getTime());
+        for (Integer clubId: requestedClubIds) {
+            prewarmer.recordRequest(clubId);
+        }
+        Map<Integer, ClubSchedule> loaded = scheduleManager.getSchedules(requestedClubIds);
+
+        ImmutableList.Builder<Integer> keyClubIds = ImmutableList.builder();
+        List<Club> clubs = Lists.newArrayList();
+        List<ClubSchedule> schedules = Lists.newArrayList();
+        List<String> statuses = Lists.newArrayList();
+        long version = 1;
+        long oldestLoadedAt = Long.MAX_VALUE;
+        for (Map.Entry<Integer, ClubSchedule> entry: loaded.entrySet()) {
+            Club club = clubManager.getClub(entry.getKey());
+            if (club == null) {
+                statuses.add(entry.getKey() + "=unknown");
+                continue;
             }
-        });
-
-        Club club = parser.fetchClubInfo(clubId);
-        TimeZoneRegistry registry = TimeZoneRegistryFactory.getInstance().createRegistry();
-
-        final Timer.Context iCalTimerContext = icalTimer.time();
-
-        final Calendar calendar = new Calendar();
-        calendar.getProperties().add(new ProdId("-//Tristan Burch//GymClassCal 1.0//EN"));
-        calendar.getProperties().add(Version.VERSION_2_0);
-        calendar.getProperties().add(CalScale.GREGORIAN);
-        VTimeZone tz = registry.getTimeZone(timeZone).getVTimeZone();
-        calendar.getComponents().add(tz);
-        calendar.getProperties().add(new WrCalName(new ParameterList(), WrCalName.FACTORY, "24 Hour Fitness - " + club.getName()));
-
-        for (ClassInfo classInfo: filteredClasses) {
-            DateTime start = new DateTime(classInfo.getTime().toDateTime(DateTimeZone.forID(timeZone)).toCalendar(Locale.US).getTime());
-            VEvent event = new VEvent(start, new Dur("1H"), classInfo.getName());
-            event.getProperties().add(new Uid(UUID.randomUUID().toString()));
-            event.getProperties().add(new Location(club.getAddress()));
-            event.getProperties().add(new Description("Instructor: " + classInfo.getInstructor()));
-            calendar.getComponents().add(event);
+            ClubSchedule schedule = entry.getValue();
+            changeLog.record(entry.getKey(), schedule);
+            keyClubIds.add(entry.getKey());
+            clubs.add(club);
+            schedules.add(schedule);
+            statuses.add(entry.getKey() + "=" + status(schedule));
+            version = 31 * (31 * version + schedule.getVersion()) + club.hashCode();
+            oldestLoadedAt = Math.min(oldestLoadedAt, schedule.getLoadedAt());
+        }
+        if (clubs.isEmpty()) {
+            throw new WebApplicationException(Response.Status.NOT_FOUND);
         }
 
-        return Response.ok(new StreamingOutput() {
-            @Override
-            public void write(OutputStream output) throws IOException, WebApplicationException {
-                CalendarOutputter calendarOutputter = new CalendarOutputter();
-                try {
-                    calendarOutputter.output(calendar, output);
-                } catch (ValidationException e) {
-                    ApiResource.log.warn("iCal was invalid!", e);
-                } finally {
-                    iCalTimerContext.stop();
+        CalendarCache.Key key = new CalendarCache.Key(keyClubIds.build(), filter, timeZone);
+        CalendarCache.RenderedCalendar rendered = calendarCache.getIfCurrent(key, version);
+        if (rendered == null) {
+            rendered = calendarCache.put(key, version, render(Joiner.on(", ").join(Lists.transform(clubs, new Function<Club, String>() {
+                @Override
+                public String apply(Club club) {
+                    return club.getName();
                 }
+            })), clubs, schedules, oldestLoadedAt, filter, timeZone));
+        }
+
+        long dataAge = (System.currentTimeMillis() - oldestLoadedAt) / 1000;
+        return calendarResponse(rendered, dataAge, acceptEncoding, request)
+                .header(CLUB_STATUS_HEADER, Joiner.on(", ").join(statuses))
+                .build();
+    }
+
+    /**
+     * The club's classes as compact, column-oriented JSON (see {@link ScheduleJsonWriter}), taking the same filters as
+     * the calendar plus an optional range of dates, {@code start} and {@code end} inclusive. The entity tag is the
+     * schedule version, so pollers get a 304 until the classes change.
+     */
+    @GET
+    @Timed
+    @Path("club/{clubId}/schedule.json")
+    @Produces("application/json")
+    @CacheControl(maxAge = 12, maxAgeUnit = TimeUnit.HOURS)
+    public Response getSchedule(@PathParam("clubId") final int clubId,
+                                @QueryParam("class") List<String> classes,
+                                @QueryParam("instructor") List<String> instructors,
+                                @QueryParam("day") List<String> days,
+                                @QueryParam("from") String from,
+                                @QueryParam("to") String to,
+                                @QueryParam("start") String start,
+                                @QueryParam("end") String end,
+                                @Context Request request) {
+        ClassFilter filter = parseFilter(classes, instructors, days, from, to);
+        LocalDateTime startTime;
+        LocalDateTime endTime;
+        try {
+            startTime = start == null ? null : LocalDate.parse(start).toLocalDateTime(LocalTime.MIDNIGHT);
+            endTime = end == null ? null : LocalDate.parse(end).plusDays(1).toLocalDateTime(LocalTime.MIDNIGHT);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+        }
+
+        prewarmer.recordRequest(clubId);
+        final ClubSchedule schedule = scheduleManager.getSchedule(clubId);
+        long dataAge = (System.currentTimeMillis() - schedule.getLoadedAt()) / 1000;
+        EntityTag etag = new EntityTag(Long.toHexString(schedule.getVersion()));
+        Response.ResponseBuilder notModifiedResponse = request.evaluatePreconditions(etag);
+        if (notModifiedResponse != null) {
+            notModified.mark();
+            return notModifiedResponse.tag(etag).header(DATA_AGE_HEADER, dataAge).build();
+        }
+
+        final List<ClassInfo> filteredClasses = schedule.getIndex().filter(filter, startTime, endTime);
+        StreamingOutput body = new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                scheduleJsonWriter.write(clubId, schedule.getVersion(), filteredClasses, output);
             }
-        }).type("text/calendar").build();
+        };
+        return Response.ok(body).tag(etag).header(DATA_AGE_HEADER, dataAge).build();
+    }
+
+    private static ClassFilter parseFilter(List<String> classes, List<String> instructors, List<String> days, String from, String to) {
+        try {
+            return ClassFilter.of(classes, instructors, days, from, to);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+        }
+    }
+
+    private static String status(ClubSchedule schedule) {
+        if (schedule.getMissingWeeks() > 0) {
+            return schedule.getIndex().size() == 0 ? "failed" : "incomplete";
+        }
+        return schedule.getFallbackWeeks() > 0 ? "stale" : "ok";
+    }
+
+    /**
+     * A 304 if the client's entity tag matches the rendering, otherwise the rendering gzipped if the client accepts it.
+     */
+    private Response.ResponseBuilder calendarResponse(CalendarCache.RenderedCalendar rendered, long dataAge, String acceptEncoding, Request request) {
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        EntityTag etag = new EntityTag(rendered.getEtag(gzip));
+        Response.ResponseBuilder notModifiedResponse = request.evaluatePreconditions(etag);
+        if (notModifiedResponse != null) {
+            notModified.mark();
+            return notModifiedResponse.tag(etag).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).header(DATA_AGE_HEADER, dataAge);
+        }
+
+        Response.ResponseBuilder response = Response.ok(gzip ? rendered.getGzippedBody() : rendered.getBody())
+                .type("text/calendar")
+                .tag(etag)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .header(DATA_AGE_HEADER, dataAge);
+        if (gzip) {
+            response.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return response;
+    }
+
+    private byte[] render(String calendarName, List<Club> clubs, List<ClubSchedule> schedules, long loadedAt, ClassFilter filter, String timeZone) {
+        List<ScheduleIndex> indexes = Lists.newArrayListWithCapacity(schedules.size());
+        List<List<ClassInfo>> filteredClasses = Lists.newArrayListWithCapacity(schedules.size());
+        int kept = 0;
+        for (ClubSchedule schedule: schedules) {
+            indexes.add(schedule.getIndex());
+            List<ClassInfo> filtered = schedule.getIndex().filter(filter);
+            ApiResource.log.debug("Kept {} of {} classes after filtering", filtered.size(), schedule.getIndex().size());
+            filteredClasses.add(filtered);
+            kept += filtered.size();
+        }
+
+        Timer.Context iCalTimerContext = icalTimer.time();
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(256 * (kept + 16));
+            calendarWriter.write(calendarName, clubs, indexes, filteredClasses, loadedAt, timeZone, output);
+            return output.toByteArray();
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+        } catch (IOException e) {
+            ApiResource.log.warn("Couldn't render iCal for calendar={}", calendarName, e);
+            throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
+        } finally {
+            iCalTimerContext.stop();
+        }
     }
 
     @GET
@@ -145,6 +314,21 @@ public class ApiResource {
     @Path("club/{clubId}")
     @CacheControl(maxAge = 12, maxAgeUnit = TimeUnit.HOURS)
     public Response getCalendar(@PathParam("clubId") int clubId) {
-        return Response.ok().entity(parser.fetchClubInfo(clubId)).build();
+        return Response.ok().entity(clubManager.getClub(clubId)).build();
+    }
+
+    /**
+     * The changes to the club's classes since the sync token, or all of them when no usable token is given. Classes are
+     * identified by the same UIDs as in the calendar.
+     */
+    @GET
+    @Timed
+    @Path("club/{clubId}/changes")
+    @Produces("application/json")
+    public Response getChanges(@PathParam("clubId") int clubId, @QueryParam("syncToken") String syncToken) {
+        prewarmer.recordRequest(clubId);
+        ClubSchedule schedule = scheduleManager.getSchedule(clubId);
+        ScheduleChanges changes = changeLog.getChanges(clubId, schedule, syncToken);
+        return Response.ok().entity(changes).header(DATA_AGE_HEADER, (System.currentTimeMillis() - schedule.getLoadedAt()) / 1000).build();
     }
 }
@@ -0,0 +1,117 @@
+package com.lowtuna.gymclasscal.jersey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.lowtuna.gymclasscal.core.ClassFilter;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import lombok.Data;
+import lombok.Getter;
+
+/**
+ * Rendered {@code .ics} bodies, plain and gzipped, keyed by the clubs, {@link ClassFilter} and time zone. Every entry
+ * remembers the version of the schedule it was rendered from and is only handed out while that version is current, so
+ * a schedule change invalidates every rendering of the club on its next request.
+ */
+public class CalendarCache {
+    private final Cache<Key, RenderedCalendar> calendars;
+
+    private final Meter hits;
+    private final Meter misses;
+
+    public CalendarCache(Size maxSize, Duration idleTtl, MetricRegistry metricRegistry) {
+        this.calendars = CacheBuilder.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher(new Weigher<Key, RenderedCalendar>() {
+                    @Override
+                    public int weigh(Key key, RenderedCalendar value) {
+                        return value.getWeight();
+                    }
+                })
+                .expireAfterAccess(idleTtl.getQuantity(), idleTtl.getUnit())
+                .build();
+
+        this.hits = metricRegistry.meter(MetricRegistry.name(getClass(), "hits"));
+        this.misses = metricRegistry.meter(MetricRegistry.name(getClass(), "misses"));
+        metricRegistry.register(MetricRegistry.name(getClass(), "entries"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return calendars.size();
+            }
+        });
+    }
+
+    /**
+     * Returns the cached rendering if it was made from the given schedule version, otherwise {@code null}.
+     */
+    public RenderedCalendar getIfCurrent(Key key, long version) {
+        RenderedCalendar calendar = calendars.getIfPresent(key);
+        if (calendar == null || calendar.getVersion() != version) {
+            misses.mark();
+            return null;
+        }
+        hits.mark();
+        return calendar;
+    }
+
+    public RenderedCalendar put(Key key, long version, byte[] body) {
+        RenderedCalendar calendar = new RenderedCalendar(body, gzip(body), Hashing.murmur3_128().hashBytes(body).toString(), version);
+        calendars.put(key, calendar);
+        return calendar;
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't gzip an in-memory calendar", e);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Data
+    public static class Key {
+        private final ImmutableList<Integer> clubIds;
+        private final ClassFilter filter;
+        private final String timeZone;
+    }
+
+    public static class RenderedCalendar {
+        @Getter
+        private final byte[] body;
+        @Getter
+        private final byte[] gzippedBody;
+        private final String hash;
+        @Getter
+        private final long version;
+
+        private RenderedCalendar(byte[] body, byte[] gzippedBody, String hash, long version) {
+            this.body = body;
+            this.gzippedBody = gzippedBody;
+            this.hash = hash;
+            this.version = version;
+        }
+
+        /**
+         * Strong entity tag of the plain or gzipped body; the two encodings get different tags.
+         */
+        public String getEtag(boolean gzipped) {
+            return gzipped ? hash + "-gzip" : hash;
+        }
+
+        int getWeight() {
+            return 64 + body.length + gzippedBody.length;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.lowtuna.gymclasscal.jersey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Maps;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.Club;
+import com.lowtuna.gymclasscal.core.ScheduleIndex;
+import net.fortuna.ical4j.model.TimeZone;
+import net.fortuna.ical4j.model.TimeZoneRegistry;
+import org.joda.time.Chronology;
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * Writes the classes of one or more clubs as RFC 5545 text straight to a stream, giving the same output as building an ical4j
+ * {@link net.fortuna.ical4j.model.Calendar} and writing it with {@link net.fortuna.ical4j.data.CalendarOutputter}
+ * without allocating an object graph per event. Text values are escaped like ical4j does, but lines are folded at 73
+ * UTF-8 octets as RFC 5545 asks rather than at 73 chars like ical4j, so lines with non-ASCII text fold earlier than
+ * ical4j's. The VTIMEZONE block of a zone is rendered by ical4j once and reused. Events get their stable
+ * {@link ScheduleIndex#uid(int, ClassInfo) UIDs} and a DTSTAMP of when their schedule was loaded, so rendering the same schedule twice
+ * gives the same bytes.
+ */
+public class CalendarWriter {
+    static final int FOLD_LENGTH = 73;
+
+    private static final Chronology UTC = ISOChronology.getInstanceUTC();
+
+    private final TimeZoneRegistry registry;
+    private final ConcurrentMap<String, byte[]> vTimeZones = Maps.newConcurrentMap();
+
+    public CalendarWriter(TimeZoneRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Writes the calendar, throwing an {@link IllegalArgumentException} if the time zone isn't known.
+     */
+    public void write(Club club, ScheduleIndex index, List<ClassInfo> classes, long loadedAt, String timeZone, OutputStream output) throws IOException {
+        write(club.getName(), Collections.singletonList(club), Collections.singletonList(index), Collections.singletonList(classes), loadedAt, timeZone, output);
+    }
+
+    /**
+     * Writes one calendar of the classes of several clubs, given as one list per club sorted by start time along with
+     * the index of the club's schedule they were taken from, merging the lists into start time order as they're written. Classes starting at the same time keep the order of the clubs.
+     * The load time of the schedules is written as the DTSTAMP of every event.
+     */
+    public void write(String calendarName, List<Club> clubs, List<ScheduleIndex> indexes, List<List<ClassInfo>> classes, long loadedAt, String timeZone, OutputStream output) throws IOException {
+        DateTimeZone zone = DateTimeZone.forID(timeZone);
+        byte[] vTimeZone = getVTimeZone(timeZone);
+
+        LineWriter out = new LineWriter(output);
+        out.name("BEGIN").value("VCALENDAR").end();
+        out.name("PRODID").value("-//Tristan Burch//GymClassCal 1.0//EN").end();
+        out.name("VERSION").value("2.0").end();
+        out.name("CALSCALE").value("GREGORIAN").end();
+        out.name("X-WR-CALNAME").text("24 Hour Fitness - ").text(calendarName).end();
+        out.raw(vTimeZone);
+
+        PriorityQueue<Cursor> merge = new PriorityQueue<>(Math.max(1, clubs.size()));
+        for (int i = 0; i < clubs.size(); i++) {
+            if (!classes.get(i).isEmpty()) {
+                merge.add(new Cursor(i, clubs.get(i), indexes.get(i), classes.get(i)));
+            }
+        }
+        while (!merge.isEmpty()) {
+            Cursor cursor = merge.poll();
+            writeEvent(out, cursor.club, cursor.index, cursor.current(), zone, loadedAt);
+            if (cursor.advance()) {
+                merge.add(cursor);
+            }
+        }
+        out.name("END").value("VCALENDAR").end();
+        out.flush();
+    }
+
+    private static void writeEvent(LineWriter out, Club club, ScheduleIndex index, ClassInfo classInfo, DateTimeZone zone, long loadedAt) throws IOException {
+        out.name("BEGIN").value("VEVENT").end();
+        out.name("DTSTAMP").dateTime(loadedAt, true).end();
+        // ical4j writes a DateTime without a time zone as floating time in the default zone
+        long start = classInfo.getTime().toDateTime(zone).getMillis();
+        out.name("DTSTART").dateTime(start + DateTimeZone.getDefault().getOffset(start), false).end();
+        out.name("DURATION").value("PT1H").end();
+        out.name("SUMMARY").text(classInfo.getName()).end();
+        out.name("UID").value(index.uid(club.getClubId(), classInfo)).end();
+        out.name("LOCATION").text(club.getAddress()).end();
+        out.name("DESCRIPTION").text("Instructor: ").text(classInfo.getInstructor()).end();
+        out.name("END").value("VEVENT").end();
+    }
+
+    private byte[] getVTimeZone(String timeZone) throws IOException {
+        byte[] vTimeZone = vTimeZones.get(timeZone);
+        if (vTimeZone == null) {
+            TimeZone tz = registry.getTimeZone(timeZone);
+            if (tz == null) {
+                throw new IllegalArgumentException("Unknown time zone " + timeZone);
+            }
+            ByteArrayOutputStream folded = new ByteArrayOutputStream();
+            LineWriter out = new LineWriter(folded);
+            for (String line: Splitter.on("\r\n").omitEmptyStrings().split(tz.getVTimeZone().toString())) {
+                out.value(line).end();
+            }
+            out.flush();
+            vTimeZone = folded.toByteArray();
+            vTimeZones.putIfAbsent(timeZone, vTimeZone);
+        }
+        return vTimeZone;
+    }
+
+    /**
+     * Buffers content lines, encoding them as UTF-8 and folding them without splitting a character.
+     */
+    static class LineWriter {
+        private final OutputStream output;
+        private final byte[] buffer = new byte[8192];
+        private int position = 0;
+        private int lineLength = 0;
+
+        LineWriter(OutputStream output) {
+            this.output = output;
+        }
+
+        LineWriter name(String name) throws IOException {
+            value(name);
+            return put(':');
+        }
+
+        LineWriter value(String value) throws IOException {
+            for (int i = 0; i < value.length(); i++) {
+                put(value.charAt(i));
+            }
+            return this;
+        }
+
+        /**
+         * Appends a TEXT value, escaping backslashes, semicolons, commas and line breaks.
+         */
+        LineWriter text(String value) throws IOException {
+            if (value == null) {
+                return this;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '\\':
+                    case ';':
+                    case ',':
+                        put('\\');
+                        put(c);
+                        break;
+                    case '\r':
+                        if (i + 1 < value.length() && value.charAt(i + 1) == '\n') {
+                            break;
+                        }
+                        // a lone carriage return is a line break too
+                    case '\n':
+                        put('\\');
+                        put('n');
+                        break;
+                    default:
+                        if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                            put(Character.toCodePoint(c, value.charAt(++i)));
+                        } else if (Character.isSurrogate(c)) {
+                            put('?');
+                        } else {
+                            put(c);
+                        }
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Appends a date-time in the basic ISO format, the millis being those of the wall time to write.
+         */
+        LineWriter dateTime(long millis, boolean utc) throws IOException {
+            digits(UTC.year().get(millis), 1000);
+            digits(UTC.monthOfYear().get(millis), 10);
+            digits(UTC.dayOfMonth().get(millis), 10);
+            put('T');
+            digits(UTC.hourOfDay().get(millis), 10);
+            digits(UTC.minuteOfHour().get(millis), 10);
+            digits(UTC.secondOfMinute().get(millis), 10);
+            return utc ? put('Z') : this;
+        }
+
+        void end() throws IOException {
+            ensureCapacity(2);
+            buffer[position++] = '\r';
+            buffer[position++] = '\n';
+            lineLength = 0;
+        }
+
+        void raw(byte[] bytes) throws IOException {
+            flush();
+            output.write(bytes);
+        }
+
+        void flush() throws IOException {
+            output.write(buffer, 0, position);
+            position = 0;
+        }
+
+        private void digits(int value, int leadingDivisor) throws IOException {
+            for (int divisor = leadingDivisor; divisor > 0; divisor /= 10) {
+                put('0' + (value / divisor) % 10);
+            }
+        }
+
+        private LineWriter put(int codePoint) throws IOException {
+            int octets = codePoint < 0x80 ? 1 : codePoint < 0x800 ? 2 : codePoint < 0x10000 ? 3 : 4;
+            ensureCapacity(octets + 3);
+            if (lineLength + octets > FOLD_LENGTH) {
+                buffer[position++] = '\r';
+                buffer[position++] = '\n';
+                buffer[position++] = ' ';
+                lineLength = 1;
+            }
+            if (octets == 1) {
+                buffer[position++] = (byte) codePoint;
+            } else if (octets == 2) {
+                buffer[position++] = (byte) (0xC0 | (codePoint >> 6));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (octets == 3) {
+                buffer[position++] = (byte) (0xE0 | (codePoint >> 12));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            }
+            lineLength += octets;
+            return this;
+        }
+
+        private void ensureCapacity(int octets) throws IOException {
+            if (position + octets > buffer.length) {
+                flush();
+            }
+        }
+    }
+
+    private static class Cursor implements Comparable<Cursor> {
+        private final int order;
+        private final Club club;
+        private final ScheduleIndex index;
+        private final List<ClassInfo> classes;
+        private int position = 0;
+
+        private Cursor(int order, Club club, ScheduleIndex index, List<ClassInfo> classes) {
+            this.order = order;
+            this.club = club;
+            this.index = index;
+            this.classes = classes;
+        }
+
+        private ClassInfo current() {
+            return classes.get(position);
+        }
+
+        private boolean advance() {
+            return ++position < classes.size();
+        }
+
+        @Override
+        public int compareTo(Cursor o) {
+            int byTime = current().getTime().compareTo(o.current().getTime());
+            return byTime != 0 ? byTime : order - o.order;
+        }
+    }
+}
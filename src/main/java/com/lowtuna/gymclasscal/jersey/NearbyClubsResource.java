@@ -0,0 +1,60 @@
+package com.lowtuna.gymclasscal.jersey;
+
+import java.util.List;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import com.codahale.metrics.annotation.Timed;
+import com.google.common.base.Optional;
+import com.lowtuna.gymclasscal.business.ClubLocator;
+import com.lowtuna.gymclasscal.core.GeoPoint;
+import com.lowtuna.gymclasscal.core.NearbyClub;
+
+/**
+ * The clubs nearest to a latitude and longitude or to the center of a zip code, with their distance in miles.
+ */
+@Path("api/clubs/near")
+@Produces("application/json")
+public class NearbyClubsResource {
+    private static final double MAX_RADIUS_MILES = 250;
+    private static final int MAX_LIMIT = 50;
+
+    private final ClubLocator clubLocator;
+
+    public NearbyClubsResource(ClubLocator clubLocator) {
+        this.clubLocator = clubLocator;
+    }
+
+    @GET
+    @Timed
+    public Response getNearbyClubs(@QueryParam("lat") Double latitude,
+                                   @QueryParam("lon") Double longitude,
+                                   @QueryParam("zip") String zip,
+                                   @DefaultValue("25") @QueryParam("radius") double radiusMiles,
+                                   @DefaultValue("10") @QueryParam("limit") int limit) {
+        if (radiusMiles <= 0 || radiusMiles > MAX_RADIUS_MILES || limit < 1 || limit > MAX_LIMIT) {
+            throw badRequest("The radius has to be at most " + MAX_RADIUS_MILES + " miles and the limit at most " + MAX_LIMIT);
+        }
+        if (zip != null) {
+            Optional<List<NearbyClub>> clubs = clubLocator.near(zip, radiusMiles, limit);
+            if (!clubs.isPresent()) {
+                throw new WebApplicationException(Response.Status.NOT_FOUND);
+            }
+            return Response.ok().entity(clubs.get()).build();
+        }
+        if (latitude == null || longitude == null || Math.abs(latitude) > 90 || Math.abs(longitude) > 180) {
+            throw badRequest("Either a zip or a valid lat and lon are required");
+        }
+        return Response.ok().entity(clubLocator.near(new GeoPoint(latitude, longitude), radiusMiles, limit)).build();
+    }
+
+    private static WebApplicationException badRequest(String message) {
+        return new WebApplicationException(Response.status(Response.Status.BAD_REQUEST).entity(message).type("text/plain").build());
+    }
+}
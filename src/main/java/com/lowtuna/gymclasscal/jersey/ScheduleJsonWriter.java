@@ -0,0 +1,84 @@
+package com.lowtuna.gymclasscal.jersey;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.Maps;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import org.joda.time.LocalDateTime;
+import org.joda.time.Minutes;
+
+/**
+ * Writes classes as column-oriented JSON, holding every class name and instructor once:
+ * <pre>
+ * {"clubId":572,"version":"1f3a...","base":"2014-01-27T00:00:00.000",
+ *  "names":["Cycle","Yoga"],"instructors":["Ann","Bob"],
+ *  "starts":[360,1110,1770],"name":[0,1,0],"instructor":[0,1,1]}
+ * </pre>
+ * The i-th class starts {@code starts[i]} minutes after {@code base}, the club's local midnight before the first
+ * class, and is called {@code names[name[i]]} with instructor {@code instructors[instructor[i]]}. The version is the
+ * schedule's, as a string so JavaScript clients don't lose precision.
+ */
+public class ScheduleJsonWriter {
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public void write(int clubId, long version, List<ClassInfo> classes, OutputStream output) throws IOException {
+        LocalDateTime base = classes.isEmpty() ? null : classes.get(0).getTime().withMillisOfDay(0);
+        Map<String, Integer> names = Maps.newLinkedHashMap();
+        Map<String, Integer> instructors = Maps.newLinkedHashMap();
+        int[] nameIndexes = new int[classes.size()];
+        int[] instructorIndexes = new int[classes.size()];
+        for (int i = 0; i < classes.size(); i++) {
+            nameIndexes[i] = indexOf(names, classes.get(i).getName());
+            instructorIndexes[i] = indexOf(instructors, classes.get(i).getInstructor());
+        }
+
+        JsonGenerator json = jsonFactory.createGenerator(output, JsonEncoding.UTF8);
+        json.writeStartObject();
+        json.writeNumberField("clubId", clubId);
+        json.writeStringField("version", Long.toHexString(version));
+        json.writeStringField("base", base == null ? null : base.toString());
+        writeStrings(json, "names", names);
+        writeStrings(json, "instructors", instructors);
+
+        json.writeArrayFieldStart("starts");
+        for (ClassInfo classInfo: classes) {
+            json.writeNumber(Minutes.minutesBetween(base, classInfo.getTime()).getMinutes());
+        }
+        json.writeEndArray();
+        writeInts(json, "name", nameIndexes);
+        writeInts(json, "instructor", instructorIndexes);
+        json.writeEndObject();
+        json.flush();
+    }
+
+    private static int indexOf(Map<String, Integer> dictionary, String value) {
+        Integer index = dictionary.get(value);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.put(value, index);
+        }
+        return index;
+    }
+
+    private static void writeStrings(JsonGenerator json, String field, Map<String, Integer> dictionary) throws IOException {
+        json.writeArrayFieldStart(field);
+        for (String value: dictionary.keySet()) {
+            json.writeString(value);
+        }
+        json.writeEndArray();
+    }
+
+    private static void writeInts(JsonGenerator json, String field, int[] values) throws IOException {
+        json.writeArrayFieldStart(field);
+        for (int value: values) {
+            json.writeNumber(value);
+        }
+        json.writeEndArray();
+    }
+}
@@ -0,0 +1,54 @@
+package com.lowtuna.gymclasscal.jersey;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import com.codahale.metrics.annotation.Timed;
+import com.lowtuna.gymclasscal.business.SearchIndex;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Searches over the clubs and classes that have been loaded so far; a search never fetches anything from upstream.
+ */
+@Path("api/search")
+@Produces("application/json")
+@Slf4j
+public class SearchResource {
+    private final SearchIndex searchIndex;
+
+    public SearchResource(SearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+    }
+
+    @GET
+    @Timed
+    @Path("clubs")
+    public Response searchClubs(@QueryParam("q") String text, @QueryParam("zip") String zip) {
+        try {
+            return Response.ok().entity(searchIndex.searchClubs(text, zip)).build();
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+        } catch (RuntimeException e) {
+            log.warn("Club search for text={} zip={} failed", text, zip, e);
+            throw new WebApplicationException(e, Response.Status.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    @GET
+    @Timed
+    @Path("classes")
+    public Response searchClasses(@QueryParam("name") String name, @QueryParam("instructor") String instructor, @QueryParam("club") Integer clubId) {
+        try {
+            return Response.ok().entity(searchIndex.searchClasses(name, instructor, clubId)).build();
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+        } catch (RuntimeException e) {
+            log.warn("Class search for name={} instructor={} failed", name, instructor, e);
+            throw new WebApplicationException(e, Response.Status.SERVICE_UNAVAILABLE);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.lowtuna.gymclasscal.util;
+
+import lombok.Data;
+import lombok.experimental.Builder;
+import org.jsoup.nodes.Document;
+
+@Data
+@Builder
+public class CachedDocument {
+    private final Document document;
+    private final String etag;
+    private final String lastModified;
+    private final int contentLength;
+    private final long fetchedAt;
+
+    public boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+}
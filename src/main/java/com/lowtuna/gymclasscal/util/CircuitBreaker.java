@@ -0,0 +1,127 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.util.Arrays;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.lowtuna.gymclasscal.config.CircuitBreakerConfig;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Circuit breaker driven by the outcome of the last {@code windowSize} calls, where failed calls and calls slower than
+ * the slow call threshold both count against upstream. Once enough calls have been seen and the share of bad ones
+ * reaches the failure rate threshold the breaker opens and rejects calls for the open duration; after that a single
+ * trial call decides whether it closes again or stays open for another round.
+ */
+@Slf4j
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final String name;
+    private final CircuitBreakerConfig config;
+    private final boolean[] outcomes;
+    private final Meter rejections;
+    private final Meter trips;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean trialInFlight;
+    private int next;
+    private int calls;
+    private int badCalls;
+
+    public CircuitBreaker(String name, CircuitBreakerConfig config, MetricRegistry metricRegistry) {
+        this.name = name;
+        this.config = config;
+        this.outcomes = new boolean[config.getWindowSize()];
+
+        this.rejections = metricRegistry.meter(MetricRegistry.name(getClass(), name, "rejections"));
+        this.trips = metricRegistry.meter(MetricRegistry.name(getClass(), name, "trips"));
+        metricRegistry.register(MetricRegistry.name(getClass(), name, "state"), new Gauge<String>() {
+            @Override
+            public String getValue() {
+                return getState().name();
+            }
+        });
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Whether a call may go ahead. Every permitted call has to be followed by {@link #recordResult(boolean, long)}.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < config.getOpenDuration().toMilliseconds()) {
+                rejections.mark();
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                rejections.mark();
+                return false;
+            }
+            trialInFlight = true;
+        }
+        return true;
+    }
+
+    public synchronized void recordResult(boolean failed, long latencyMillis) {
+        boolean bad = failed || latencyMillis >= config.getSlowCallThreshold().toMilliseconds();
+        if (state == State.HALF_OPEN) {
+            if (bad) {
+                open();
+            } else {
+                log.info("Closing the {} circuit breaker", name);
+                state = State.CLOSED;
+                resetWindow();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            return;
+        }
+
+        if (calls == outcomes.length) {
+            if (outcomes[next]) {
+                badCalls--;
+            }
+        } else {
+            calls++;
+        }
+        outcomes[next] = bad;
+        if (bad) {
+            badCalls++;
+        }
+        next = (next + 1) % outcomes.length;
+
+        if (calls >= config.getMinimumCalls() && badCalls >= config.getFailureRateThreshold() * calls) {
+            open();
+        }
+    }
+
+    private void open() {
+        log.warn("Opening the {} circuit breaker for {}, {} of the last {} calls failed or were slow", name, config.getOpenDuration(), badCalls, calls);
+        trips.mark();
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        Arrays.fill(outcomes, false);
+        next = 0;
+        calls = 0;
+        badCalls = 0;
+    }
+}
@@ -0,0 +1,40 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link PageTransport} that asks a {@link CircuitBreaker} before every fetch and reports how the fetch went. Server
+ * errors count as failures; while the breaker is open fetches fail with a {@link CircuitOpenException} right away.
+ */
+public class CircuitBreakingTransport implements PageTransport {
+    private final PageTransport delegate;
+    private final CircuitBreaker circuitBreaker;
+
+    public CircuitBreakingTransport(PageTransport delegate, CircuitBreaker circuitBreaker) {
+        this.delegate = delegate;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public PageResponse fetch(String url, Map<String, String> requestHeaders) throws IOException {
+        if (!circuitBreaker.allowRequest()) {
+            throw new CircuitOpenException(url);
+        }
+
+        long start = System.nanoTime();
+        try {
+            PageResponse response = delegate.fetch(url, requestHeaders);
+            circuitBreaker.recordResult(response.getStatusCode() >= 500, elapsedMillis(start));
+            return response;
+        } catch (IOException | RuntimeException e) {
+            circuitBreaker.recordResult(true, elapsedMillis(start));
+            throw e;
+        }
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,12 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling upstream while the circuit breaker in front of it is open.
+ */
+public class CircuitOpenException extends IOException {
+    public CircuitOpenException(String url) {
+        super("Circuit breaker is open, not fetching " + url);
+    }
+}
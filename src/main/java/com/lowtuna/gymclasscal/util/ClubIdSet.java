@@ -0,0 +1,148 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable set of club ids backed by a sorted int array plus an open-addressing index into it, so membership checks
+ * are O(1) without boxing and readers can share one snapshot without copying it. Updates build a new snapshot.
+ */
+public final class ClubIdSet extends AbstractSet<Integer> {
+    public static final ClubIdSet EMPTY = new ClubIdSet(new int[0]);
+
+    private final int[] ids;
+
+    // slot -> index into ids plus one, zero marks a free slot
+    private final int[] slots;
+
+    private ClubIdSet(int[] sortedIds) {
+        this.ids = sortedIds;
+        this.slots = new int[Integer.highestOneBit(Math.max(sortedIds.length, 1)) * 4];
+        int mask = slots.length - 1;
+        for (int i = 0; i < sortedIds.length; i++) {
+            int slot = hash(sortedIds[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    public static ClubIdSet of(Collection<Integer> clubIds) {
+        int[] values = new int[clubIds.size()];
+        int size = 0;
+        for (Integer clubId: clubIds) {
+            values[size++] = clubId;
+        }
+        return fromUnsorted(values, size);
+    }
+
+    /**
+     * Returns a snapshot holding these ids and the given ones, or this snapshot if nothing new was given.
+     */
+    public ClubIdSet plus(Collection<Integer> clubIds) {
+        int[] values = Arrays.copyOf(ids, ids.length + clubIds.size());
+        int size = ids.length;
+        for (Integer clubId: clubIds) {
+            if (!contains(clubId.intValue())) {
+                values[size++] = clubId;
+            }
+        }
+        return size == ids.length ? this : fromUnsorted(values, size);
+    }
+
+    /**
+     * Ids in this snapshot that weren't in the previous one.
+     */
+    public ClubIdSet added(ClubIdSet previous) {
+        return difference(this, previous);
+    }
+
+    /**
+     * Ids in the previous snapshot that are no longer in this one.
+     */
+    public ClubIdSet removed(ClubIdSet previous) {
+        return difference(previous, this);
+    }
+
+    public boolean contains(int clubId) {
+        int mask = slots.length - 1;
+        int slot = hash(clubId) & mask;
+        int index;
+        while ((index = slots[slot]) != 0) {
+            if (ids[index - 1] == clubId) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Integer && contains(((Integer) o).intValue());
+    }
+
+    @Override
+    public int size() {
+        return ids.length;
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+        return new Iterator<Integer>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < ids.length;
+            }
+
+            @Override
+            public Integer next() {
+                if (next >= ids.length) {
+                    throw new NoSuchElementException();
+                }
+                return ids[next++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static ClubIdSet difference(ClubIdSet from, ClubIdSet other) {
+        int[] values = new int[from.ids.length];
+        int size = 0;
+        for (int clubId: from.ids) {
+            if (!other.contains(clubId)) {
+                values[size++] = clubId;
+            }
+        }
+        return size == 0 ? EMPTY : new ClubIdSet(Arrays.copyOf(values, size));
+    }
+
+    private static ClubIdSet fromUnsorted(int[] values, int size) {
+        if (size == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(values, 0, size);
+        int distinct = 1;
+        for (int i = 1; i < size; i++) {
+            if (values[i] != values[distinct - 1]) {
+                values[distinct++] = values[i];
+            }
+        }
+        return new ClubIdSet(Arrays.copyOf(values, distinct));
+    }
+
+    private static int hash(int clubId) {
+        int h = clubId * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,280 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lowtuna.gymclasscal.config.FetchSchedulerConfig;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs upstream fetches on a fixed number of workers, taking queued work strictly by priority so calendar requests go
+ * ahead of prewarming and background refreshes. The queue is bounded: lower priority work is shed once its share of the
+ * queue is used up, and interactive work once the whole queue is full. In virtual thread mode a single dispatcher takes
+ * work off the same queue and starts a virtual thread for each task instead, up to {@code maxVirtualThreads} at a time.
+ */
+@Slf4j
+public class FetchScheduler implements Managed {
+    public enum Priority {
+        INTERACTIVE,
+        PREWARM,
+        BACKGROUND
+    }
+
+    public enum ExecutionMode {
+        PLATFORM_THREADS,
+        VIRTUAL_THREADS
+    }
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger[] queued = new AtomicInteger[Priority.values().length];
+    private final AtomicInteger totalQueued = new AtomicInteger();
+    private final Timer[] waitTimers = new Timer[Priority.values().length];
+    private final Meter[] rejections = new Meter[Priority.values().length];
+    private final PriorityBlockingQueue<Runnable> queue = new PriorityBlockingQueue<>();
+
+    private final FetchSchedulerConfig config;
+
+    /**
+     * Runs the queued tasks in platform thread mode, {@code null} otherwise.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Starts a virtual thread per task in virtual thread mode, {@code null} otherwise.
+     */
+    private final ThreadFactory virtualThreads;
+    private final Semaphore virtualThreadPermits;
+    private final AtomicInteger activeVirtualThreads = new AtomicInteger();
+    private final Thread dispatcher;
+    private volatile boolean stopped;
+
+    public FetchScheduler(FetchSchedulerConfig config, MetricRegistry metricRegistry) {
+        this.config = config;
+        this.virtualThreads = config.getExecutionMode() == ExecutionMode.VIRTUAL_THREADS ? virtualThreadFactory() : null;
+        if (virtualThreads != null) {
+            this.executor = null;
+            this.virtualThreadPermits = new Semaphore(config.getMaxVirtualThreads());
+            this.dispatcher = new ThreadFactoryBuilder().setNameFormat("fetchScheduler-dispatcher-%d").setDaemon(true).build().newThread(new Runnable() {
+                @Override
+                public void run() {
+                    dispatch();
+                }
+            });
+        } else {
+            this.executor = new ThreadPoolExecutor(config.getThreads(), config.getThreads(), 60, TimeUnit.SECONDS, queue, new ThreadFactoryBuilder().setNameFormat("fetchScheduler-%d").setDaemon(true).build());
+            this.virtualThreadPermits = null;
+            this.dispatcher = null;
+        }
+
+        for (Priority priority: Priority.values()) {
+            final AtomicInteger priorityQueued = new AtomicInteger();
+            queued[priority.ordinal()] = priorityQueued;
+            String name = priority.name().toLowerCase();
+            waitTimers[priority.ordinal()] = metricRegistry.timer(MetricRegistry.name(getClass(), name, "waitTime"));
+            rejections[priority.ordinal()] = metricRegistry.meter(MetricRegistry.name(getClass(), name, "rejections"));
+            metricRegistry.register(MetricRegistry.name(getClass(), name, "queueDepth"), new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return priorityQueued.get();
+                }
+            });
+        }
+        metricRegistry.register(MetricRegistry.name(getClass(), "queueDepth"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return totalQueued.get();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "active"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return executor != null ? executor.getActiveCount() : activeVirtualThreads.get();
+            }
+        });
+    }
+
+    /**
+     * Starts the dispatcher in virtual thread mode; tasks queued before then wait for it.
+     */
+    @Override
+    public void start() throws Exception {
+        if (dispatcher != null) {
+            dispatcher.start();
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        List<Runnable> drained = Lists.newArrayList();
+        if (executor != null) {
+            drained.addAll(executor.shutdownNow());
+        } else {
+            stopped = true;
+            dispatcher.interrupt();
+            dispatcher.join();
+            queue.drainTo(drained);
+        }
+        for (Runnable runnable: drained) {
+            ((PrioritizedTask) runnable).cancel();
+        }
+    }
+
+    public <T> ListenableFuture<T> submit(Priority priority, Callable<T> callable) {
+        ListenableFutureTask<T> task = ListenableFutureTask.create(callable);
+        execute(priority, task);
+        return task;
+    }
+
+    /**
+     * Queues the task, throwing a {@link RejectedExecutionException} if it is shed.
+     */
+    public void execute(Priority priority, Runnable task) {
+        int limit = priority == Priority.INTERACTIVE
+                ? config.getMaxQueuedTasks()
+                : (int) (config.getMaxQueuedTasks() * config.getBackgroundQueueShare());
+        int depth = totalQueued.incrementAndGet();
+        if (depth > limit) {
+            totalQueued.decrementAndGet();
+            rejections[priority.ordinal()].mark();
+            throw new RejectedExecutionException("Shedding " + priority + " fetch, " + (depth - 1) + " fetches are queued");
+        }
+        queued[priority.ordinal()].incrementAndGet();
+        PrioritizedTask prioritizedTask = new PrioritizedTask(priority, sequence.getAndIncrement(), task);
+        try {
+            if (executor != null) {
+                executor.execute(prioritizedTask);
+            } else if (stopped) {
+                throw new RejectedExecutionException("Not running " + priority + " fetch, the scheduler is stopped");
+            } else {
+                queue.add(prioritizedTask);
+            }
+        } catch (RejectedExecutionException e) {
+            dequeued(priority);
+            rejections[priority.ordinal()].mark();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns an {@link Executor} that queues everything it is given at the priority.
+     */
+    public Executor executor(final Priority priority) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                FetchScheduler.this.execute(priority, command);
+            }
+        };
+    }
+
+    private void dequeued(Priority priority) {
+        queued[priority.ordinal()].decrementAndGet();
+        totalQueued.decrementAndGet();
+    }
+
+    /**
+     * Starts the highest priority task on a virtual thread whenever fewer than {@code maxVirtualThreads} are running.
+     * A permit is taken before the task, so work queued while every virtual thread is busy still runs by priority.
+     */
+    private void dispatch() {
+        try {
+            while (!stopped) {
+                virtualThreadPermits.acquire();
+                final Runnable task = queue.take();
+                activeVirtualThreads.incrementAndGet();
+                try {
+                    virtualThreads.newThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                task.run();
+                            } finally {
+                                activeVirtualThreads.decrementAndGet();
+                                virtualThreadPermits.release();
+                            }
+                        }
+                    }).start();
+                } catch (RuntimeException e) {
+                    activeVirtualThreads.decrementAndGet();
+                    virtualThreadPermits.release();
+                    ((PrioritizedTask) task).cancel();
+                    log.warn("Couldn't start a virtual thread for a fetch", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug("Stopped dispatching fetches");
+        }
+    }
+
+    /**
+     * Looks up {@code Thread.ofVirtual()} reflectively since it only exists on Java 21 and later, returning {@code null}
+     * when the runtime doesn't have it.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "fetchScheduler-virtual-", 0L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads aren't supported by this runtime, falling back to platform threads");
+            return null;
+        }
+    }
+
+    private class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Priority priority;
+        private final long sequence;
+        private final Runnable task;
+        private final long queuedAt = System.nanoTime();
+
+        private PrioritizedTask(Priority priority, long sequence, Runnable task) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            dequeued(priority);
+            waitTimers[priority.ordinal()].update(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+            task.run();
+        }
+
+        private void cancel() {
+            dequeued(priority);
+            if (task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask o) {
+            if (priority != o.priority) {
+                return priority.compareTo(o.priority);
+            }
+            return sequence < o.sequence ? -1 : (sequence == o.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.lowtuna.gymclasscal.util;
+
+/**
+ * Count-min sketch of how often int keys are seen. Once the number of recorded events reaches the sample size every
+ * counter is halved, so estimates favour recent popularity over all-time totals.
+ */
+public class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final int[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    public FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(expectedKeys, 16) - 1) << 1;
+        this.counters = new int[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    public synchronized void increment(int key) {
+        for (int row = 0; row < DEPTH; row++) {
+            counters[row][index(key, row)]++;
+        }
+        if (++additions >= sampleSize) {
+            decay();
+        }
+    }
+
+    public synchronized int estimate(int key) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, counters[row][index(key, row)]);
+        }
+        return estimate;
+    }
+
+    private void decay() {
+        for (int[] row: counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int index(int key, int row) {
+        int h = (key + row) * SEEDS[row];
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,130 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import com.lowtuna.gymclasscal.core.GeoPoint;
+import lombok.Getter;
+
+/**
+ * Immutable spatial index that buckets values into cells of a fixed number of degrees of latitude and longitude. A
+ * radius lookup only measures the values in the cells overlapping the bounding box of the circle, so its cost depends on
+ * how many values are nearby rather than on how many are indexed.
+ */
+public class GeoGrid<T> {
+    private static final double MILES_PER_DEGREE = Math.PI * GeoPoint.EARTH_RADIUS_MILES / 180;
+
+    private final double cellDegrees;
+    private final int latitudeCells;
+    private final int longitudeCells;
+    private final Map<Integer, int[]> cells;
+    private final GeoPoint[] points;
+    private final Object[] values;
+
+    private GeoGrid(Map<T, GeoPoint> locations, double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+        this.latitudeCells = (int) Math.ceil(180 / cellDegrees);
+        this.longitudeCells = (int) Math.ceil(360 / cellDegrees);
+        this.points = new GeoPoint[locations.size()];
+        this.values = new Object[locations.size()];
+
+        Map<Integer, List<Integer>> positions = Maps.newHashMap();
+        int position = 0;
+        for (Map.Entry<T, GeoPoint> location: locations.entrySet()) {
+            points[position] = location.getValue();
+            values[position] = location.getKey();
+            int cell = cell(latitudeCell(location.getValue().getLatitude()), longitudeCell(location.getValue().getLongitude()));
+            List<Integer> cellPositions = positions.get(cell);
+            if (cellPositions == null) {
+                cellPositions = Lists.newArrayListWithCapacity(4);
+                positions.put(cell, cellPositions);
+            }
+            cellPositions.add(position++);
+        }
+
+        ImmutableMap.Builder<Integer, int[]> cells = ImmutableMap.builder();
+        for (Map.Entry<Integer, List<Integer>> cell: positions.entrySet()) {
+            cells.put(cell.getKey(), Ints.toArray(cell.getValue()));
+        }
+        this.cells = cells.build();
+    }
+
+    public static <T> GeoGrid<T> build(Map<T, GeoPoint> locations, double cellDegrees) {
+        return new GeoGrid<>(locations, cellDegrees);
+    }
+
+    public int size() {
+        return points.length;
+    }
+
+    /**
+     * Up to {@code limit} values within the radius of the center, nearest first.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Neighbor<T>> near(GeoPoint center, double radiusMiles, int limit) {
+        double latitudeDegrees = radiusMiles / MILES_PER_DEGREE;
+        int fromLatitudeCell = latitudeCell(Math.max(-90, center.getLatitude() - latitudeDegrees));
+        int toLatitudeCell = latitudeCell(Math.min(90, center.getLatitude() + latitudeDegrees));
+
+        // a degree of longitude is shortest at the latitude furthest from the equator the circle reaches
+        double furthestLatitude = Math.min(89.9, Math.abs(center.getLatitude()) + latitudeDegrees);
+        double longitudeDegrees = radiusMiles / (MILES_PER_DEGREE * Math.cos(Math.toRadians(furthestLatitude)));
+        int fromLongitudeCell = (int) Math.floor((center.getLongitude() - longitudeDegrees + 180) / cellDegrees);
+        int longitudeSpan = Math.min(longitudeCells, (int) Math.floor((center.getLongitude() + longitudeDegrees + 180) / cellDegrees) - fromLongitudeCell + 1);
+
+        List<Neighbor<T>> neighbors = Lists.newArrayList();
+        for (int latitudeCell = fromLatitudeCell; latitudeCell <= toLatitudeCell; latitudeCell++) {
+            for (int i = 0; i < longitudeSpan; i++) {
+                int longitudeCell = ((fromLongitudeCell + i) % longitudeCells + longitudeCells) % longitudeCells;
+                int[] positions = cells.get(cell(latitudeCell, longitudeCell));
+                if (positions == null) {
+                    continue;
+                }
+                for (int position: positions) {
+                    double distance = center.distanceMiles(points[position]);
+                    if (distance <= radiusMiles) {
+                        neighbors.add(new Neighbor<>((T) values[position], distance));
+                    }
+                }
+            }
+        }
+
+        Collections.sort(neighbors, new Comparator<Neighbor<T>>() {
+            @Override
+            public int compare(Neighbor<T> o1, Neighbor<T> o2) {
+                return Double.compare(o1.distanceMiles, o2.distanceMiles);
+            }
+        });
+        return neighbors.size() > limit ? neighbors.subList(0, limit) : neighbors;
+    }
+
+    private int latitudeCell(double latitude) {
+        return Math.min(latitudeCells - 1, (int) Math.floor((latitude + 90) / cellDegrees));
+    }
+
+    private int longitudeCell(double longitude) {
+        return ((int) Math.floor((longitude + 180) / cellDegrees) % longitudeCells + longitudeCells) % longitudeCells;
+    }
+
+    private int cell(int latitudeCell, int longitudeCell) {
+        return latitudeCell * longitudeCells + longitudeCell;
+    }
+
+    public static class Neighbor<T> {
+        @Getter
+        private final T value;
+        @Getter
+        private final double distanceMiles;
+
+        private Neighbor(T value, double distanceMiles) {
+            this.value = value;
+            this.distanceMiles = distanceMiles;
+        }
+    }
+}
@@ -1,48 +1,36 @@
 package com.lowtuna.gymclasscal.util;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Optional;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ListenableFuture;
 import lombok.extern.slf4j.Slf4j;
-import org.jsoup.Connection;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.input.TeeInputStream;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class JsoupDocumentLoader {
-    private final LoadingCache<String, Document> documentCache = CacheBuilder.newBuilder()
-            .expireAfterWrite(1, TimeUnit.HOURS)
-            .recordStats()
-            .build(new CacheLoader<String, Document>() {
-                @Override
-                public Document load(String key) throws Exception {
-                    URL url = new URL(key);
-                    StringBuilder hostUrl = new StringBuilder();
-                    hostUrl.append(url.getProtocol());
-                    hostUrl.append("-");
-                    hostUrl.append(url.getAuthority().replace('.', '_').replace(':', '-'));
-
-                    Timer.Context timerContext = urlTimers.get(hostUrl.toString()).time();
-                    try {
-                        Connection.Response response = Jsoup.connect(key).execute();
-                        if (response.statusCode() == 200) {
-                            return response.parse();
-                        }
-                        log.warn("Received non-200 response code ({}) from {}", response.statusCode(), key);
-                        throw new RuntimeException("Received non-200 status code from " + key);
-                    } finally {
-                        timerContext.stop();
-                    }
-                }
-            });
+    public static final int DEFAULT_MAX_DOCUMENTS = 100;
+
     private final LoadingCache<String, Timer> urlTimers = CacheBuilder.newBuilder().build(new CacheLoader<String, Timer>() {
         @Override
         public Timer load(String key) throws Exception {
@@ -50,10 +38,66 @@ public class JsoupDocumentLoader {
         }
     });
 
+    private final LoadingCache<String, CachedDocument> documentCache;
     private final MetricRegistry metricRegistry;
+    private final PageTransport transport;
+    private final RefreshPolicy refreshPolicy;
+    private final Optional<PersistentPageCache> pageCache;
+    private final Meter revalidations;
+    private final Meter notModifiedResponses;
+    private final Counter bytesSaved;
+    private final Meter staleServes;
+    private final Meter refreshFailures;
+    private final Meter circuitOpenFallbacks;
+
+    public JsoupDocumentLoader(MetricRegistry metricRegistry, PageTransport transport, RefreshPolicy refreshPolicy) {
+        this(metricRegistry, transport, refreshPolicy, Optional.<PersistentPageCache>absent(), DEFAULT_MAX_DOCUMENTS);
+    }
 
-    public JsoupDocumentLoader(MetricRegistry metricRegistry) {
+    public JsoupDocumentLoader(MetricRegistry metricRegistry, PageTransport transport, final RefreshPolicy refreshPolicy, final Optional<PersistentPageCache> pageCache, int maxDocuments) {
         this.metricRegistry = metricRegistry;
+        this.transport = transport;
+        this.refreshPolicy = refreshPolicy;
+        this.pageCache = pageCache;
+
+        this.revalidations = metricRegistry.meter(MetricRegistry.name(getClass(), "documentCache", "revalidations"));
+        this.notModifiedResponses = metricRegistry.meter(MetricRegistry.name(getClass(), "documentCache", "notModified"));
+        this.bytesSaved = metricRegistry.counter(MetricRegistry.name(getClass(), "documentCache", "bytesSaved"));
+        this.staleServes = metricRegistry.meter(MetricRegistry.name(getClass(), "documentCache", "staleServes"));
+        this.refreshFailures = metricRegistry.meter(MetricRegistry.name(getClass(), "documentCache", "refreshFailures"));
+        this.circuitOpenFallbacks = metricRegistry.meter(MetricRegistry.name(getClass(), "documentCache", "circuitOpenFallbacks"));
+
+        this.documentCache = refreshPolicy.configure(CacheBuilder.newBuilder())
+                .maximumSize(maxDocuments)
+                .recordStats()
+                .build(new CacheLoader<String, CachedDocument>() {
+                    @Override
+                    public CachedDocument load(String key) throws Exception {
+                        if (pageCache.isPresent()) {
+                            Optional<StoredPage> storedPage = pageCache.get().get(key);
+                            if (storedPage.isPresent()) {
+                                log.debug("Loaded {} from the page cache", key);
+                                return parse(storedPage.get(), storedPage.get().getFetchedAt());
+                            }
+
+                            storedPage = pageCache.get().getExpired(key);
+                            if (storedPage.isPresent()) {
+                                return revalidate(key, storedPage.get());
+                            }
+                        }
+                        return fetch(key, Optional.<CachedDocument>absent());
+                    }
+
+                    @Override
+                    public ListenableFuture<CachedDocument> reload(final String key, final CachedDocument oldValue) throws Exception {
+                        return refreshPolicy.reload(key, new Callable<CachedDocument>() {
+                            @Override
+                            public CachedDocument call() throws Exception {
+                                return fetch(key, Optional.of(oldValue));
+                            }
+                        }, refreshFailures);
+                    }
+                });
 
         metricRegistry.register(MetricRegistry.name(getClass(), "documentCache", "size"), new Gauge<Long>() {
             @Override
@@ -85,15 +129,254 @@ public class JsoupDocumentLoader {
                 return documentCache.stats().averageLoadPenalty();
             }
         });
+
+        if (pageCache.isPresent()) {
+            final PersistentPageCache diskCache = pageCache.get();
+            metricRegistry.register(MetricRegistry.name(getClass(), "documentCache", "disk", "size"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return diskCache.size();
+                }
+            });
+            metricRegistry.register(MetricRegistry.name(getClass(), "documentCache", "disk", "bytes"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return diskCache.getSegmentBytes();
+                }
+            });
+            metricRegistry.register(MetricRegistry.name(getClass(), "documentCache", "disk", "hits"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return diskCache.getHitCount();
+                }
+            });
+            metricRegistry.register(MetricRegistry.name(getClass(), "documentCache", "disk", "misses"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return diskCache.getMissCount();
+                }
+            });
+        }
     }
 
     public Optional<Document> loadDocument(String url) {
+        Optional<CachedDocument> cachedDocument = loadCachedDocument(url);
+        return cachedDocument.isPresent() ? Optional.of(cachedDocument.get().getDocument()) : Optional.<Document>absent();
+    }
+
+    /**
+     * Like {@link #loadDocument(String)}, along with when the document was fetched upstream. A stale document being
+     * refreshed in the background can have been fetched up to the hard TTL ago.
+     */
+    public Optional<CachedDocument> loadCachedDocument(String url) {
         try {
-            return Optional.of(documentCache.get(url));
+            CachedDocument cachedDocument = documentCache.get(url);
+            if (refreshPolicy.isStale(cachedDocument.getFetchedAt())) {
+                staleServes.mark();
+            }
+            return Optional.of(cachedDocument);
         } catch (ExecutionException e) {
             log.warn("Couldn't load document from {}", url, e);
             return Optional.absent();
         }
     }
 
+    /**
+     * Revalidates an expired page cache entry, or fetches the page again if it has no validators. The expired entry is
+     * served as is while the upstream circuit is open.
+     */
+    private CachedDocument revalidate(String url, StoredPage storedPage) throws Exception {
+        CachedDocument stale = CachedDocument.builder()
+                .etag(storedPage.getEtag())
+                .lastModified(storedPage.getLastModified())
+                .contentLength(storedPage.getBody().length)
+                .fetchedAt(storedPage.getFetchedAt())
+                .build();
+        CachedDocument revalidated;
+        try {
+            revalidated = fetch(url, Optional.of(stale));
+        } catch (CircuitOpenException e) {
+            log.debug("Serving expired page cache entry for {} while upstream is unavailable", url);
+            circuitOpenFallbacks.mark();
+            return parse(storedPage, storedPage.getFetchedAt());
+        }
+        if (revalidated.getDocument() == null) {
+            log.debug("Page cache entry for {} is still valid upstream", url);
+            return parse(storedPage, revalidated.getFetchedAt());
+        }
+        return revalidated;
+    }
+
+    /**
+     * Fetches {@code url} without caching it, for pages that are only read once such as the club list crawl.
+     */
+    public Document fetchDocument(String url) throws IOException {
+        Timer.Context timerContext = urlTimers.getUnchecked(hostMetricName(new URL(url))).time();
+        try (PageResponse response = transport.fetch(url, Collections.<String, String>emptyMap())) {
+            if (response.getStatusCode() != 200) {
+                throw new IOException("Received non-200 status code (" + response.getStatusCode() + ") from " + url);
+            }
+            return Jsoup.parse(response.getBody(), response.getCharset(), url);
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    /**
+     * Fetches {@code url}, sending the validators of {@code previous} if it has any. When upstream answers with a 304
+     * the returned value carries the previous {@link Document} (which is {@code null} for a page that only lives in
+     * the page cache) and a new fetch time. The response body is streamed into the parser, and copied into the page
+     * cache along the way.
+     */
+    private CachedDocument fetch(String url, Optional<CachedDocument> previous) throws Exception {
+        boolean conditional = previous.isPresent() && previous.get().hasValidators();
+        Map<String, String> requestHeaders = conditional
+                ? conditionalHeaders(previous.get().getEtag(), previous.get().getLastModified())
+                : Collections.<String, String>emptyMap();
+
+        Timer.Context timerContext = urlTimers.get(hostMetricName(new URL(url))).time();
+        try (PageResponse response = transport.fetch(url, requestHeaders)) {
+            if (conditional && response.getStatusCode() == 304) {
+                notModifiedResponses.mark();
+                bytesSaved.inc(previous.get().getContentLength());
+                if (pageCache.isPresent()) {
+                    pageCache.get().touch(url);
+                }
+                return CachedDocument.builder()
+                        .document(previous.get().getDocument())
+                        .etag(previous.get().getEtag())
+                        .lastModified(previous.get().getLastModified())
+                        .contentLength(previous.get().getContentLength())
+                        .fetchedAt(System.currentTimeMillis())
+                        .build();
+            }
+
+            if (response.getStatusCode() == 200) {
+                String etag = response.getHeader("ETag");
+                String lastModified = response.getHeader("Last-Modified");
+                ByteArrayOutputStream copy = new ByteArrayOutputStream();
+                CountingInputStream body = new CountingInputStream(pageCache.isPresent() ? new TeeInputStream(response.getBody(), copy) : response.getBody());
+                Document document = Jsoup.parse(body, response.getCharset(), url);
+                if (pageCache.isPresent()) {
+                    pageCache.get().put(url, copy.toByteArray(), response.getCharset(), etag, lastModified);
+                }
+                return CachedDocument.builder()
+                        .document(document)
+                        .etag(etag)
+                        .lastModified(lastModified)
+                        .contentLength((int) body.getByteCount())
+                        .fetchedAt(System.currentTimeMillis())
+                        .build();
+            }
+            log.warn("Received non-200 response code ({}) from {}", response.getStatusCode(), url);
+            throw new RuntimeException("Received non-200 status code from " + url);
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    /**
+     * Loads the raw bytes of {@code url} for callers that run their own parser over them. Pages are served from, and
+     * revalidated against, the page cache when there is one, but never enter the document cache.
+     */
+    public Optional<StoredPage> loadPage(String url) {
+        try {
+            Optional<StoredPage> storedPage = Optional.absent();
+            if (pageCache.isPresent()) {
+                storedPage = pageCache.get().get(url);
+                if (storedPage.isPresent()) {
+                    return storedPage;
+                }
+                storedPage = pageCache.get().getExpired(url);
+            }
+            try {
+                return Optional.of(fetchPage(url, storedPage));
+            } catch (CircuitOpenException e) {
+                if (!storedPage.isPresent()) {
+                    throw e;
+                }
+                log.debug("Serving expired page cache entry for {} while upstream is unavailable", url);
+                circuitOpenFallbacks.mark();
+                return storedPage;
+            }
+        } catch (IOException e) {
+            log.warn("Couldn't load page from {}", url, e);
+            return Optional.absent();
+        }
+    }
+
+    private StoredPage fetchPage(String url, Optional<StoredPage> previous) throws IOException {
+        boolean conditional = previous.isPresent() && previous.get().hasValidators();
+        Map<String, String> requestHeaders = conditional
+                ? conditionalHeaders(previous.get().getEtag(), previous.get().getLastModified())
+                : Collections.<String, String>emptyMap();
+
+        Timer.Context timerContext = urlTimers.getUnchecked(hostMetricName(new URL(url))).time();
+        try (PageResponse response = transport.fetch(url, requestHeaders)) {
+            long now = System.currentTimeMillis();
+            if (conditional && response.getStatusCode() == 304) {
+                notModifiedResponses.mark();
+                bytesSaved.inc(previous.get().getBody().length);
+                pageCache.get().touch(url);
+                return StoredPage.builder()
+                        .url(url)
+                        .body(previous.get().getBody())
+                        .charset(previous.get().getCharset())
+                        .etag(previous.get().getEtag())
+                        .lastModified(previous.get().getLastModified())
+                        .fetchedAt(now)
+                        .build();
+            }
+
+            if (response.getStatusCode() != 200) {
+                throw new IOException("Received non-200 status code (" + response.getStatusCode() + ") from " + url);
+            }
+            StoredPage page = StoredPage.builder()
+                    .url(url)
+                    .body(ByteStreams.toByteArray(response.getBody()))
+                    .charset(response.getCharset())
+                    .etag(response.getHeader("ETag"))
+                    .lastModified(response.getHeader("Last-Modified"))
+                    .fetchedAt(now)
+                    .build();
+            if (pageCache.isPresent()) {
+                pageCache.get().put(url, page.getBody(), page.getCharset(), page.getEtag(), page.getLastModified());
+            }
+            return page;
+        } finally {
+            timerContext.stop();
+        }
+    }
+
+    private Map<String, String> conditionalHeaders(String etag, String lastModified) {
+        revalidations.mark();
+        Map<String, String> requestHeaders = Maps.newHashMap();
+        if (etag != null) {
+            requestHeaders.put("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            requestHeaders.put("If-Modified-Since", lastModified);
+        }
+        return requestHeaders;
+    }
+
+    private static CachedDocument parse(StoredPage storedPage, long fetchedAt) throws IOException {
+        Document document = Jsoup.parse(new ByteArrayInputStream(storedPage.getBody()), storedPage.getCharset(), storedPage.getUrl());
+        return CachedDocument.builder()
+                .document(document)
+                .etag(storedPage.getEtag())
+                .lastModified(storedPage.getLastModified())
+                .contentLength(storedPage.getBody().length)
+                .fetchedAt(fetchedAt)
+                .build();
+    }
+
+    static String hostMetricName(URL url) {
+        StringBuilder hostUrl = new StringBuilder();
+        hostUrl.append(url.getProtocol());
+        hostUrl.append("-");
+        hostUrl.append(url.getAuthority().replace('.', '_').replace(':', '-'));
+        return hostUrl.toString();
+    }
+
 }
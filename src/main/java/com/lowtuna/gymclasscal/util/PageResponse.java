@@ -0,0 +1,18 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An upstream response whose body hasn't been read yet. Closing it releases the underlying connection.
+ */
+public interface PageResponse extends Closeable {
+    int getStatusCode();
+
+    String getHeader(String name);
+
+    String getCharset();
+
+    InputStream getBody() throws IOException;
+}
@@ -0,0 +1,12 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Performs the HTTP requests for every upstream page, so connection handling, compression and per-host limits live in
+ * one place.
+ */
+public interface PageTransport {
+    PageResponse fetch(String url, Map<String, String> requestHeaders) throws IOException;
+}
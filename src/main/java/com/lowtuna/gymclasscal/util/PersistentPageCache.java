@@ -0,0 +1,469 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Second cache tier for {@link JsoupDocumentLoader} that keeps the raw bytes of fetched pages in an append-only
+ * segment file on local disk, so a restart doesn't empty the cache. Pages are read back through a memory mapping of
+ * the segment, which is only remapped once enough has been appended past it; the per-URL index (offset and TTL) is
+ * rebuilt by scanning the segment on {@link #start()}. Expired pages are kept for one more TTL so their validators can
+ * still be used to revalidate them upstream. When the segment is full the pages expiring soonest are evicted until a
+ * quarter of it is free, then the live pages are copied into a new segment.
+ */
+@Slf4j
+public class PersistentPageCache implements Managed {
+    private static final byte[] SEGMENT_HEADER = "GCPAGES2".getBytes(Charsets.US_ASCII);
+    private static final int RECORD_MAGIC = 0x50414745;
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final String SEGMENT_FILE_NAME = "pages.seg";
+    private static final String COMPACTION_FILE_NAME = "pages.seg.compact";
+    private static final long MIN_REMAP_BYTES = 1024 * 1024;
+
+    private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+    private final ConcurrentMap<String, IndexEntry> index = Maps.newConcurrentMap();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private final File directory;
+    private final long ttlMillis;
+    private final long maxSegmentBytes;
+
+    @GuardedBy("segmentLock")
+    private FileChannel channel;
+
+    @GuardedBy("segmentLock")
+    private MappedByteBuffer mapped;
+
+    @GuardedBy("segmentLock")
+    private long segmentBytes;
+
+    @GuardedBy("segmentLock")
+    private long liveBytes;
+
+    public PersistentPageCache(File directory, Duration ttl, Size maxSize) {
+        this.directory = directory;
+        this.ttlMillis = ttl.toMilliseconds();
+        // records are addressed by int offsets into a single mapping, which can't exceed 2GB
+        this.maxSegmentBytes = Math.min(maxSize.toBytes(), Integer.MAX_VALUE);
+        if (maxSegmentBytes < maxSize.toBytes()) {
+            log.warn("Page cache size {} is larger than a segment can map, using {} bytes", maxSize, maxSegmentBytes);
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        segmentLock.writeLock().lock();
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Couldn't create page cache directory " + directory);
+            }
+            openSegment(new File(directory, SEGMENT_FILE_NAME));
+            log.info("Opened page cache segment in {} with {} pages ({} bytes)", directory, index.size(), channel.size());
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        segmentLock.writeLock().lock();
+        try {
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+                channel = null;
+                mapped = null;
+            }
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+    }
+
+    public Optional<StoredPage> get(String url) {
+        segmentLock.readLock().lock();
+        try {
+            IndexEntry entry = index.get(url);
+            if (entry == null || entry.getExpiresAt() <= System.currentTimeMillis()) {
+                misses.incrementAndGet();
+                return Optional.absent();
+            }
+            Optional<StoredPage> page = read(url, entry);
+            (page.isPresent() ? hits : misses).incrementAndGet();
+            return page;
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the page even if it has expired, as long as it is still kept, to revalidate it or to serve while upstream
+     * is unavailable.
+     */
+    public Optional<StoredPage> getExpired(String url) {
+        segmentLock.readLock().lock();
+        try {
+            IndexEntry entry = index.get(url);
+            return entry == null ? Optional.<StoredPage>absent() : read(url, entry);
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    public void touch(String url) {
+        long now = System.currentTimeMillis();
+        segmentLock.writeLock().lock();
+        try {
+            IndexEntry entry = index.get(url);
+            if (channel == null || entry == null) {
+                return;
+            }
+            ByteBuffer timestamps = ByteBuffer.allocate(16);
+            timestamps.putLong(now).putLong(now + ttlMillis).flip();
+            writeFully(channel, timestamps, entry.getOffset() + RECORD_HEADER_LENGTH);
+            index.put(url, new IndexEntry(entry.getOffset(), entry.getPayloadLength(), now + ttlMillis));
+        } catch (IOException e) {
+            log.warn("Couldn't extend the TTL of {} in the page cache", url, e);
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+    }
+
+    public void put(String url, byte[] body, String charset, String etag, String lastModified) {
+        long now = System.currentTimeMillis();
+        StoredPage page = StoredPage.builder()
+                .url(url)
+                .body(body)
+                .charset(charset)
+                .etag(etag)
+                .lastModified(lastModified)
+                .fetchedAt(now)
+                .expiresAt(now + ttlMillis)
+                .build();
+        ByteBuffer record = encodeRecord(page);
+
+        segmentLock.writeLock().lock();
+        try {
+            if (channel == null) {
+                return;
+            }
+            if (SEGMENT_HEADER.length + record.remaining() > maxSegmentBytes * 3 / 4) {
+                log.warn("{} is too large for the page cache, not storing it", url);
+                return;
+            }
+            if (segmentBytes + record.remaining() > maxSegmentBytes) {
+                evict(maxSegmentBytes * 3 / 4 - record.remaining());
+                compact();
+            }
+            long offset = segmentBytes;
+            int payloadLength = record.remaining() - RECORD_HEADER_LENGTH;
+            writeFully(channel, record, offset);
+            segmentBytes = offset + RECORD_HEADER_LENGTH + payloadLength;
+            if (segmentBytes - mapped.limit() > Math.max(MIN_REMAP_BYTES, mapped.limit() / 8)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, segmentBytes);
+            }
+            index(url, new IndexEntry(offset, payloadLength, page.getExpiresAt()));
+        } catch (IOException e) {
+            log.warn("Couldn't write {} to the page cache", url, e);
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long size() {
+        return index.size();
+    }
+
+    public long getSegmentBytes() {
+        segmentLock.readLock().lock();
+        try {
+            return segmentBytes;
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+    }
+
+    @GuardedBy("segmentLock")
+    private void openSegment(File segmentFile) throws IOException {
+        channel = new RandomAccessFile(segmentFile, "rw").getChannel();
+        index.clear();
+        liveBytes = SEGMENT_HEADER.length;
+
+        if (channel.size() < SEGMENT_HEADER.length || !hasSegmentHeader(channel)) {
+            if (channel.size() > 0) {
+                log.warn("Page cache segment {} has an unknown format, discarding it", segmentFile);
+            }
+            channel.truncate(0);
+            writeFully(channel, ByteBuffer.wrap(SEGMENT_HEADER), 0);
+        }
+
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        long now = System.currentTimeMillis();
+        long offset = SEGMENT_HEADER.length;
+        while (offset < mapped.limit()) {
+            if (!isCompleteRecord(mapped, offset)) {
+                log.warn("Truncating corrupt page cache segment {} at offset {}", segmentFile, offset);
+                channel.truncate(offset);
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                break;
+            }
+            Record record = readRecord(mapped, offset);
+            StoredPage page = record.getPage();
+            if (page.getExpiresAt() + ttlMillis <= now) {
+                unindex(page.getUrl());
+            } else {
+                index(page.getUrl(), new IndexEntry(offset, record.getPayloadLength(), page.getExpiresAt()));
+            }
+            offset += RECORD_HEADER_LENGTH + record.getPayloadLength();
+        }
+        segmentBytes = mapped.limit();
+    }
+
+    @GuardedBy("segmentLock")
+    private void index(String url, IndexEntry entry) {
+        unindex(url);
+        index.put(url, entry);
+        liveBytes += RECORD_HEADER_LENGTH + entry.getPayloadLength();
+    }
+
+    @GuardedBy("segmentLock")
+    private void unindex(String url) {
+        IndexEntry previous = index.remove(url);
+        if (previous != null) {
+            liveBytes -= RECORD_HEADER_LENGTH + previous.getPayloadLength();
+        }
+    }
+
+    /**
+     * Reads the page the entry points at, checking that it's the record of the URL.
+     */
+    @GuardedBy("segmentLock")
+    private Optional<StoredPage> read(String url, IndexEntry entry) {
+        long end = entry.getOffset() + RECORD_HEADER_LENGTH + entry.getPayloadLength();
+        if (channel == null || end > segmentBytes) {
+            return Optional.absent();
+        }
+        try {
+            ByteBuffer record = recordBuffer(entry);
+            StoredPage page = readRecord(record, record == mapped ? entry.getOffset() : 0).getPage();
+            if (!url.equals(page.getUrl())) {
+                log.warn("Page cache index entry of {} points at the record of {}", url, page.getUrl());
+                return Optional.absent();
+            }
+            return Optional.of(page);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Couldn't read {} from the page cache", url, e);
+            return Optional.absent();
+        }
+    }
+
+    /**
+     * The mapping if it covers the record, otherwise the record read from the channel into a buffer of its own.
+     */
+    @GuardedBy("segmentLock")
+    private ByteBuffer recordBuffer(IndexEntry entry) throws IOException {
+        int length = RECORD_HEADER_LENGTH + entry.getPayloadLength();
+        if (entry.getOffset() + length <= mapped.limit()) {
+            return mapped;
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        while (record.hasRemaining()) {
+            if (channel.read(record, entry.getOffset() + record.position()) < 0) {
+                throw new IOException("Page cache segment ends inside a record");
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Drops the pages expiring soonest until the live pages take up at most the given number of bytes.
+     */
+    @GuardedBy("segmentLock")
+    private void evict(long maxLiveBytes) {
+        if (liveBytes <= maxLiveBytes) {
+            return;
+        }
+        List<Map.Entry<String, IndexEntry>> entries = Lists.newArrayList(index.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, IndexEntry>>() {
+            @Override
+            public int compare(Map.Entry<String, IndexEntry> o1, Map.Entry<String, IndexEntry> o2) {
+                return Long.compare(o1.getValue().getExpiresAt(), o2.getValue().getExpiresAt());
+            }
+        });
+        int evicted = 0;
+        for (Map.Entry<String, IndexEntry> entry: entries) {
+            if (liveBytes <= maxLiveBytes) {
+                break;
+            }
+            unindex(entry.getKey());
+            evicted++;
+        }
+        log.info("Evicted {} pages from the full page cache segment", evicted);
+    }
+
+    @GuardedBy("segmentLock")
+    private void compact() throws IOException {
+        File segmentFile = new File(directory, SEGMENT_FILE_NAME);
+        File compactionFile = new File(directory, COMPACTION_FILE_NAME);
+        long now = System.currentTimeMillis();
+
+        FileChannel compacted = new RandomAccessFile(compactionFile, "rw").getChannel();
+        try {
+            compacted.truncate(0);
+            writeFully(compacted, ByteBuffer.wrap(SEGMENT_HEADER), 0);
+            for (Map.Entry<String, IndexEntry> entry: index.entrySet()) {
+                if (entry.getValue().getExpiresAt() + ttlMillis <= now) {
+                    continue;
+                }
+                ByteBuffer record = recordBuffer(entry.getValue()).duplicate();
+                int offset = record == mapped ? (int) entry.getValue().getOffset() : 0;
+                record.position(offset);
+                record.limit(offset + RECORD_HEADER_LENGTH + entry.getValue().getPayloadLength());
+                writeFully(compacted, record, compacted.size());
+            }
+            compacted.force(false);
+        } finally {
+            compacted.close();
+        }
+
+        long before = segmentBytes;
+        channel.close();
+        try {
+            Files.move(compactionFile.toPath(), segmentFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Couldn't replace the page cache segment with its compacted copy, keeping the old one", e);
+            Files.deleteIfExists(compactionFile.toPath());
+            openSegment(segmentFile);
+            return;
+        }
+        openSegment(segmentFile);
+        log.info("Compacted page cache segment from {} to {} bytes", before, channel.size());
+    }
+
+    private static boolean hasSegmentHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER.length);
+        channel.read(header, 0);
+        return Arrays.equals(header.array(), SEGMENT_HEADER);
+    }
+
+    private static boolean isCompleteRecord(ByteBuffer segment, long offset) {
+        if (segment.limit() - offset < RECORD_HEADER_LENGTH || segment.getInt((int) offset) != RECORD_MAGIC) {
+            return false;
+        }
+        int payloadLength = segment.getInt((int) offset + 4);
+        return payloadLength > 0 && offset + RECORD_HEADER_LENGTH + payloadLength <= segment.limit();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static ByteBuffer encodeRecord(StoredPage page) {
+        byte[] url = encodeString(page.getUrl());
+        byte[] charset = encodeString(page.getCharset());
+        byte[] etag = encodeString(page.getEtag());
+        byte[] lastModified = encodeString(page.getLastModified());
+        int payloadLength = 8 + 8 + 4 + url.length + 4 + charset.length + 4 + etag.length + 4 + lastModified.length + 4 + page.getBody().length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_LENGTH + payloadLength);
+        buffer.putInt(RECORD_MAGIC);
+        buffer.putInt(payloadLength);
+        buffer.putLong(page.getFetchedAt());
+        buffer.putLong(page.getExpiresAt());
+        buffer.putInt(url.length).put(url);
+        buffer.putInt(charset.length).put(charset);
+        buffer.putInt(etag.length).put(etag);
+        buffer.putInt(lastModified.length).put(lastModified);
+        buffer.putInt(page.getBody().length).put(page.getBody());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static Record readRecord(ByteBuffer segment, long offset) {
+        ByteBuffer buffer = segment.duplicate();
+        buffer.position((int) offset + 4);
+        int payloadLength = buffer.getInt();
+        long fetchedAt = buffer.getLong();
+        long expiresAt = buffer.getLong();
+        String url = decodeString(readBytes(buffer));
+        String charset = decodeString(readBytes(buffer));
+        String etag = decodeString(readBytes(buffer));
+        String lastModified = decodeString(readBytes(buffer));
+        byte[] body = readBytes(buffer);
+
+        StoredPage page = StoredPage.builder()
+                .url(url)
+                .body(body)
+                .charset(charset == null || !Charset.isSupported(charset) ? null : charset)
+                .etag(etag)
+                .lastModified(lastModified)
+                .fetchedAt(fetchedAt)
+                .expiresAt(expiresAt)
+                .build();
+        return new Record(page, payloadLength);
+    }
+
+    private static byte[] encodeString(String value) {
+        return value == null ? new byte[0] : value.getBytes(Charsets.UTF_8);
+    }
+
+    private static String decodeString(byte[] bytes) {
+        return bytes.length == 0 ? null : new String(bytes, Charsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Data
+    private static class IndexEntry {
+        private final long offset;
+        private final int payloadLength;
+        private final long expiresAt;
+    }
+
+    @Data
+    private static class Record {
+        private final StoredPage page;
+        private final int payloadLength;
+    }
+}
@@ -0,0 +1,222 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Maps;
+import com.lowtuna.gymclasscal.config.HttpTransportConfig;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * {@link PageTransport} backed by a pooled Apache HttpClient. Connections are kept alive between requests, requests
+ * advertise gzip/deflate and responses are transparently decompressed, and each host gets its own connection limit.
+ * Time to first byte and pool utilization are tracked per host.
+ */
+@Slf4j
+public class PooledHttpTransport implements PageTransport, Managed {
+    private final ConcurrentMap<HttpRoute, Timer> routeTimers = Maps.newConcurrentMap();
+
+    private final HttpTransportConfig config;
+    private final MetricRegistry metricRegistry;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    public PooledHttpTransport(HttpTransportConfig config, MetricRegistry metricRegistry) {
+        this.config = config;
+        this.metricRegistry = metricRegistry;
+
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(config.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(config.getMaxConnectionsPerHost());
+
+        final long keepAliveMillis = config.getKeepAlive().toMilliseconds();
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout((int) config.getConnectTimeout().toMilliseconds())
+                .setSocketTimeout((int) config.getReadTimeout().toMilliseconds())
+                .setConnectionRequestTimeout((int) config.getConnectionRequestTimeout().toMilliseconds())
+                .setStaleConnectionCheckEnabled(true)
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setUserAgent(config.getUserAgent())
+                .setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+                    @Override
+                    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                        long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                        return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMillis) : keepAliveMillis;
+                    }
+                })
+                .build();
+
+        metricRegistry.register(MetricRegistry.name(getClass(), "pool", "leased"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return connectionManager.getTotalStats().getLeased();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), "pool", "pending"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return connectionManager.getTotalStats().getPending();
+            }
+        });
+    }
+
+    @Override
+    public void start() throws Exception {
+    }
+
+    @Override
+    public void stop() throws Exception {
+        httpClient.close();
+    }
+
+    @Override
+    public PageResponse fetch(String url, Map<String, String> requestHeaders) throws IOException {
+        HttpGet request = new HttpGet(url);
+        for (Map.Entry<String, String> header: requestHeaders.entrySet()) {
+            request.setHeader(header.getKey(), header.getValue());
+        }
+
+        Timer.Context timeToFirstByte = routeTimer(new URL(url)).time();
+        CloseableHttpResponse response;
+        try {
+            response = httpClient.execute(request);
+        } finally {
+            timeToFirstByte.stop();
+        }
+        return new PooledPageResponse(response);
+    }
+
+    private Timer routeTimer(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        HttpRoute route = new HttpRoute(new HttpHost(url.getHost(), port, url.getProtocol()), null, "https".equals(url.getProtocol()));
+        Timer timer = routeTimers.get(route);
+        if (timer != null) {
+            return timer;
+        }
+
+        synchronized (routeTimers) {
+            timer = routeTimers.get(route);
+            if (timer == null) {
+                timer = registerRoute(route, JsoupDocumentLoader.hostMetricName(url));
+                routeTimers.put(route, timer);
+            }
+        }
+        return timer;
+    }
+
+    private Timer registerRoute(final HttpRoute route, String hostName) {
+        Integer hostLimit = config.getHostConnectionLimits().get(route.getTargetHost().getHostName());
+        if (hostLimit != null) {
+            connectionManager.setMaxPerRoute(route, hostLimit);
+        }
+        log.debug("Using up to {} pooled connections for {}", connectionManager.getMaxPerRoute(route), route);
+
+        metricRegistry.register(MetricRegistry.name(getClass(), hostName, "leased"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return connectionManager.getStats(route).getLeased();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), hostName, "available"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return connectionManager.getStats(route).getAvailable();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), hostName, "pending"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return connectionManager.getStats(route).getPending();
+            }
+        });
+        metricRegistry.register(MetricRegistry.name(getClass(), hostName, "utilization"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                PoolStats stats = connectionManager.getStats(route);
+                return stats.getMax() == 0 ? 0 : (double) stats.getLeased() / stats.getMax();
+            }
+        });
+        return metricRegistry.timer(MetricRegistry.name(getClass(), hostName, "timeToFirstByte"));
+    }
+
+    private static class PooledPageResponse implements PageResponse {
+        private final CloseableHttpResponse response;
+
+        private PooledPageResponse(CloseableHttpResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public int getStatusCode() {
+            return response.getStatusLine().getStatusCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            Header header = response.getFirstHeader(name);
+            return header == null ? null : header.getValue();
+        }
+
+        @Override
+        public String getCharset() {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return null;
+            }
+            try {
+                Charset charset = ContentType.getOrDefault(entity).getCharset();
+                return charset == null ? null : charset.name();
+            } catch (UnsupportedCharsetException e) {
+                log.debug("Ignoring unsupported response charset", e);
+                return null;
+            }
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                throw new IOException("Response has no body");
+            }
+            return entity.getContent();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                EntityUtils.consume(response.getEntity());
+            } finally {
+                response.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Meter;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import io.dropwizard.util.Duration;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stale-while-revalidate settings shared by the upstream caches. Once an entry is older than the soft TTL it is still
+ * served, while a reload runs on the refresh executor; entries older than the hard TTL are dropped and have to be
+ * loaded again in the foreground.
+ */
+@Slf4j
+public class RefreshPolicy {
+    @Getter
+    private final Duration softTtl;
+
+    @Getter
+    private final Duration hardTtl;
+
+    private final Executor refreshExecutor;
+
+    public RefreshPolicy(Duration softTtl, Duration hardTtl, Executor refreshExecutor) {
+        this.softTtl = softTtl;
+        this.hardTtl = hardTtl;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public <K, V> CacheBuilder<K, V> configure(CacheBuilder<K, V> builder) {
+        return builder
+                .refreshAfterWrite(softTtl.toMilliseconds(), TimeUnit.MILLISECONDS)
+                .expireAfterWrite(hardTtl.toMilliseconds(), TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isStale(long loadedAt) {
+        return System.currentTimeMillis() - loadedAt > softTtl.toMilliseconds();
+    }
+
+    public <V> ListenableFuture<V> reload(final String description, final Callable<V> loader, final Meter failures) {
+        ListenableFutureTask<V> task = ListenableFutureTask.create(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                try {
+                    return loader.call();
+                } catch (Exception e) {
+                    failures.mark();
+                    log.warn("Background refresh of {} failed, keeping the stale value", description, e);
+                    throw e;
+                }
+            }
+        });
+        refreshExecutor.execute(task);
+        return task;
+    }
+}
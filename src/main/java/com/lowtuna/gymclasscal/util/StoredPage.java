@@ -0,0 +1,20 @@
+package com.lowtuna.gymclasscal.util;
+
+import lombok.Data;
+import lombok.experimental.Builder;
+
+@Data
+@Builder
+public class StoredPage {
+    private final String url;
+    private final byte[] body;
+    private final String charset;
+    private final String etag;
+    private final String lastModified;
+    private final long fetchedAt;
+    private final long expiresAt;
+
+    public boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+}
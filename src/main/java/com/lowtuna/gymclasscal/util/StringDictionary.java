@@ -0,0 +1,59 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Append-only dictionary that interns strings to dense int ids, so the same class name or instructor is stored once
+ * no matter how many clubs and weeks refer to it.
+ */
+public class StringDictionary {
+    private final ConcurrentMap<String, Integer> ids = Maps.newConcurrentMap();
+
+    private volatile String[] values = new String[64];
+
+    private volatile int size = 0;
+
+    public int idOf(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(value);
+            if (id != null) {
+                return id;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size] = value;
+            id = size;
+            size = size + 1;
+            ids.put(value, id);
+            return id;
+        }
+    }
+
+    public String valueOf(int id) {
+        String[] current = values;
+        if (id < 0 || id >= current.length || current[id] == null) {
+            throw new IllegalArgumentException("Unknown dictionary id " + id);
+        }
+        return current[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getWeight() {
+        long weight = 16 + 4L * values.length;
+        for (String value: ids.keySet()) {
+            weight += 40 + 2L * value.length();
+        }
+        return weight;
+    }
+}
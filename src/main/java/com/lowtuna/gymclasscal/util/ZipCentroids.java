@@ -0,0 +1,99 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Ints;
+import com.lowtuna.gymclasscal.core.GeoPoint;
+
+/**
+ * Table of the center point of every zip code, read from a tab separated file with a header row that has at least the
+ * {@code GEOID}, {@code INTPTLAT} and {@code INTPTLONG} columns, like the Census Bureau's ZCTA gazetteer files. Zips are
+ * held sorted in a primitive array next to their coordinates and found by binary search.
+ */
+public class ZipCentroids {
+    public static final ZipCentroids EMPTY = new ZipCentroids(new int[0], new float[0], new float[0]);
+
+    private static final Splitter COLUMNS = Splitter.on('\t').trimResults();
+
+    private final int[] zips;
+    private final float[] latitudes;
+    private final float[] longitudes;
+
+    private ZipCentroids(int[] zips, float[] latitudes, float[] longitudes) {
+        this.zips = zips;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    public static ZipCentroids load(InputStream input) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, Charsets.UTF_8));
+        String header = reader.readLine();
+        if (header == null) {
+            return EMPTY;
+        }
+        List<String> columns = Lists.newArrayList(COLUMNS.split(header));
+        int zipColumn = column(columns, "GEOID");
+        int latitudeColumn = column(columns, "INTPTLAT");
+        int longitudeColumn = column(columns, "INTPTLONG");
+
+        SortedMap<Integer, GeoPoint> centroids = Maps.newTreeMap();
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            List<String> values = Lists.newArrayList(COLUMNS.split(line));
+            if (values.size() <= Math.max(zipColumn, Math.max(latitudeColumn, longitudeColumn))) {
+                continue;
+            }
+            Integer zip = Ints.tryParse(values.get(zipColumn));
+            Double latitude = Doubles.tryParse(values.get(latitudeColumn));
+            Double longitude = Doubles.tryParse(values.get(longitudeColumn));
+            if (zip != null && latitude != null && longitude != null) {
+                centroids.put(zip, new GeoPoint(latitude, longitude));
+            }
+        }
+
+        int[] zips = new int[centroids.size()];
+        float[] latitudes = new float[centroids.size()];
+        float[] longitudes = new float[centroids.size()];
+        int i = 0;
+        for (Map.Entry<Integer, GeoPoint> centroid: centroids.entrySet()) {
+            zips[i] = centroid.getKey();
+            latitudes[i] = (float) centroid.getValue().getLatitude();
+            longitudes[i] = (float) centroid.getValue().getLongitude();
+            i++;
+        }
+        return new ZipCentroids(zips, latitudes, longitudes);
+    }
+
+    public Optional<GeoPoint> get(String zip) {
+        Integer zipCode = zip == null ? null : Ints.tryParse(zip.trim());
+        if (zipCode == null) {
+            return Optional.absent();
+        }
+        int position = Arrays.binarySearch(zips, zipCode);
+        return position < 0 ? Optional.<GeoPoint>absent() : Optional.of(new GeoPoint(latitudes[position], longitudes[position]));
+    }
+
+    public int size() {
+        return zips.length;
+    }
+
+    private static int column(List<String> columns, String name) throws IOException {
+        int column = columns.indexOf(name);
+        if (column < 0) {
+            throw new IOException("Zip centroid table has no " + name + " column");
+        }
+        return column;
+    }
+}
@@ -2,17 +2,34 @@ package com.lowtuna.gymclasscal.business;
 
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.lowtuna.gymclasscal.config.GymClassCalConfig;
 import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.ClubSchedule;
+import com.lowtuna.gymclasscal.core.ClubWeek;
+import com.lowtuna.gymclasscal.util.CachedDocument;
+import com.lowtuna.gymclasscal.util.FetchScheduler;
 import com.lowtuna.gymclasscal.util.JsoupDocumentLoader;
+import com.lowtuna.gymclasscal.util.RefreshPolicy;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
 import lombok.extern.slf4j.Slf4j;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.junit.Before;
@@ -24,6 +41,8 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.when;
 
@@ -57,6 +76,13 @@ public class TestClassScheduleManager {
             }
         });
 
+        Mockito.when(metricRegistry.meter(Mockito.anyString())).then(new Answer<Meter>() {
+            @Override
+            public Meter answer(InvocationOnMock invocation) throws Throwable {
+                return new Meter();
+            }
+        });
+
         Mockito.when(timer.time()).then(new Answer<Timer.Context>() {
             @Override
             public Timer.Context answer(InvocationOnMock invocation) throws Throwable {
@@ -91,14 +117,171 @@ public class TestClassScheduleManager {
                 return Optional.fromNullable(document);
             }
         });
+        when(documentLoader.loadCachedDocument(anyString())).then(new Answer<Optional<CachedDocument>>() {
+            @Override
+            public Optional<CachedDocument> answer(InvocationOnMock invocation) throws Throwable {
+                Optional<Document> document = documentLoader.loadDocument((String) invocation.getArguments()[0]);
+                return Optional.of(CachedDocument.builder().document(document.orNull()).fetchedAt(System.currentTimeMillis()).build());
+            }
+        });
     }
 
     @Test
     public void testGetMultipleWeeks() {
         ExecutorService executorService = Executors.newCachedThreadPool();
         TwentyFourHourParser parser = new TwentyFourHourParser(config.getClubListBaseUrl(), config.getClubDetailPattern(), config.getClubCalendarTemplate(), metricRegistry, null, documentLoader);
-        ClassScheduleManager manager = new ClassScheduleManager(parser, 4, executorService);
+        RefreshPolicy refreshPolicy = new RefreshPolicy(config.getCacheSoftTtl(), config.getCacheHardTtl(), executorService);
+        ScheduleStore scheduleStore = new ScheduleStore(parser, Size.megabytes(1), Size.megabytes(1), refreshPolicy, metricRegistry);
+        ClassScheduleManager manager = new ClassScheduleManager(scheduleStore, 4, new FetchScheduler(config.getFetchScheduler(), metricRegistry));
         Collection<ClassInfo> allClasses = manager.getClassInfos(572);
         TestClassScheduleManager.log.debug("Found {} classes over 4 weeks", allClasses.size());
     }
+
+    @Test
+    public void testServesLastKnownGoodWhenLoadingFails() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        StubParser parser = new StubParser(config, registry);
+        ClassScheduleManager manager = stubManager(parser, registry);
+
+        assertEquals(2, manager.getSchedule(572).getClasses().size());
+        Thread.sleep(10);
+        parser.failing = true;
+        ClubSchedule schedule = manager.getSchedule(572);
+        assertEquals(2, schedule.getClasses().size());
+        assertEquals(2, schedule.getFallbackWeeks());
+        assertEquals(0, schedule.getMissingWeeks());
+        assertEquals(2, registry.meter(MetricRegistry.name(ScheduleStore.class, "lastKnownGood", "serves")).getCount());
+    }
+
+    @Test
+    public void testCountsMissingWeeksWithoutLastKnownGood() {
+        MetricRegistry registry = new MetricRegistry();
+        StubParser parser = new StubParser(config, registry);
+        parser.failing = true;
+        ClubSchedule schedule = stubManager(parser, registry).getSchedule(572);
+        assertTrue(schedule.getClasses().isEmpty());
+        assertEquals(0, schedule.getFallbackWeeks());
+        assertEquals(2, schedule.getMissingWeeks());
+        assertEquals(2, registry.meter(MetricRegistry.name(ScheduleStore.class, "lastKnownGood", "misses")).getCount());
+    }
+
+    @Test
+    public void testServesLastKnownGoodAfterDeadline() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        StubParser parser = new StubParser(config, registry);
+        ClassScheduleManager manager = stubManager(parser, registry);
+
+        assertEquals(2, manager.getSchedule(572).getClasses().size());
+        Thread.sleep(10);
+        parser.blocked = new CountDownLatch(1);
+        try {
+            ClubSchedule schedule = manager.getScheduleAsync(572, System.currentTimeMillis() + 100).get(5, TimeUnit.SECONDS);
+            assertEquals(2, schedule.getClasses().size());
+            assertEquals(2, schedule.getFallbackWeeks());
+        } finally {
+            parser.blocked.countDown();
+        }
+    }
+
+    @Test
+    public void testFailedFetchDoesNotReplaceLastKnownGood() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        StubParser parser = new StubParser(config, registry);
+        ScheduleStore scheduleStore = stubStore(parser, registry);
+        ClassScheduleManager manager = new ClassScheduleManager(scheduleStore, 2, new FetchScheduler(config.getFetchScheduler(), registry));
+
+        assertEquals(2, manager.getSchedule(572).getClasses().size());
+        Thread.sleep(10);
+        parser.unavailable = true;
+        ClubSchedule schedule = manager.getSchedule(572);
+        assertEquals(2, schedule.getClasses().size());
+        assertEquals(2, schedule.getFallbackWeeks());
+        LocalDate weekStart = new LocalDate().dayOfWeek().withMinimumValue();
+        assertEquals(1, scheduleStore.getLastKnownGood(572, weekStart).get().size());
+    }
+
+    @Test
+    public void testEmptyWeekReplacesLastKnownGood() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        StubParser parser = new StubParser(config, registry);
+        ScheduleStore scheduleStore = stubStore(parser, registry);
+        ClassScheduleManager manager = new ClassScheduleManager(scheduleStore, 2, new FetchScheduler(config.getFetchScheduler(), registry));
+
+        assertEquals(2, manager.getSchedule(572).getClasses().size());
+        Thread.sleep(10);
+        parser.empty = true;
+        ClubSchedule schedule = manager.getSchedule(572);
+        assertTrue(schedule.getClasses().isEmpty());
+        assertEquals(0, schedule.getFallbackWeeks());
+        LocalDate weekStart = new LocalDate().dayOfWeek().withMinimumValue();
+        assertEquals(0, scheduleStore.getLastKnownGood(572, weekStart).get().size());
+    }
+
+    @Test
+    public void testDoesNotWaitOnHistoryBeforeDeadline() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        StubParser parser = new StubParser(config, registry);
+        ScheduleHistory history = new ScheduleHistory(null, 10, Duration.seconds(1), Duration.seconds(1), Duration.minutes(1), registry) {
+            @Override
+            public ListenableFuture<Optional<StoredWeek>> readWeek(ClubWeek key) {
+                return SettableFuture.create();
+            }
+        };
+        RefreshPolicy refreshPolicy = new RefreshPolicy(Duration.hours(1), Duration.hours(1), MoreExecutors.sameThreadExecutor());
+        ScheduleStore scheduleStore = new ScheduleStore(parser, Size.megabytes(1), Size.megabytes(1), refreshPolicy, Optional.of(history), registry);
+        ClassScheduleManager manager = new ClassScheduleManager(scheduleStore, 2, 4, new FetchScheduler(config.getFetchScheduler(), registry));
+
+        long start = System.currentTimeMillis();
+        ListenableFuture<ClubSchedule> schedule = manager.getScheduleAsync(572, start + 200);
+        assertTrue(System.currentTimeMillis() - start < 200);
+        assertEquals(2, schedule.get(5, TimeUnit.SECONDS).getClasses().size());
+    }
+
+    private ClassScheduleManager stubManager(StubParser parser, MetricRegistry registry) {
+        return new ClassScheduleManager(stubStore(parser, registry), 2, new FetchScheduler(config.getFetchScheduler(), registry));
+    }
+
+    /**
+     * A store whose weeks expire right after they're loaded, so every request goes back to the parser.
+     */
+    private static ScheduleStore stubStore(StubParser parser, MetricRegistry registry) {
+        RefreshPolicy refreshPolicy = new RefreshPolicy(Duration.hours(1), Duration.milliseconds(1), MoreExecutors.sameThreadExecutor());
+        return new ScheduleStore(parser, Size.megabytes(1), Size.megabytes(1), refreshPolicy, registry);
+    }
+
+    /**
+     * Answers every week with one class, no classes, a failed fetch, a failure or only once it's unblocked.
+     */
+    private static class StubParser extends TwentyFourHourParser {
+        private volatile boolean failing;
+        private volatile boolean empty;
+        private volatile boolean unavailable;
+        private volatile CountDownLatch blocked;
+
+        private StubParser(GymClassCalConfig config, MetricRegistry registry) {
+            super(config.getClubListBaseUrl(), config.getClubDetailPattern(), config.getClubCalendarTemplate(), registry, null, null);
+        }
+
+        @Override
+        public FetchedWeek fetchWeek(int clubId, LocalDate weekStart) {
+            CountDownLatch latch = blocked;
+            if (latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failing) {
+                throw new IllegalStateException("Upstream is down");
+            }
+            if (unavailable) {
+                return new FetchedWeek(ImmutableSet.<ClassInfo>of(), System.currentTimeMillis(), true);
+            }
+            Set<ClassInfo> classes = empty
+                    ? ImmutableSet.<ClassInfo>of()
+                    : ImmutableSet.of(ClassInfo.builder().time(weekStart.toLocalDateTime(new LocalTime(6, 0))).name("Cycle").instructor("Ann").build());
+            return new FetchedWeek(classes, System.currentTimeMillis(), false);
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.lowtuna.gymclasscal.core.Club;
+import com.lowtuna.gymclasscal.core.GeoPoint;
+import com.lowtuna.gymclasscal.util.ZipCentroids;
+import io.dropwizard.util.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestClubLocator {
+    private final GeoPoint boulder = new GeoPoint(40.0, -105.3);
+    private final Club pearl = club(572, "1 Pearl St, Boulder, CO 80302");
+    private final Club baseline = club(573, "2 Baseline Rd, Boulder, CO 80303");
+
+    private ClubManager clubManager;
+    private ClubLocator clubLocator;
+
+    @Before
+    public void setUp() throws IOException {
+        String table = "GEOID\tINTPTLAT\tINTPTLONG\n"
+                + "80302\t40.0\t-105.3\n"
+                + "80303\t40.0\t-105.2\n";
+        clubManager = Mockito.mock(ClubManager.class);
+        Mockito.when(clubManager.getLoadedClubs()).thenReturn(ImmutableList.of(pearl));
+        clubLocator = new ClubLocator(ZipCentroids.load(new ByteArrayInputStream(table.getBytes(Charsets.UTF_8))), clubManager, Duration.minutes(1), new MetricRegistry());
+    }
+
+    @Test
+    public void testRebuildsOnceClubsWereLoaded() {
+        assertEquals(1, clubLocator.near(boulder, 25, 10).size());
+
+        Mockito.when(clubManager.getLoadedClubs()).thenReturn(ImmutableList.of(pearl, baseline));
+        clubLocator.onClub(baseline);
+        assertEquals(1, clubLocator.near(boulder, 25, 10).size());
+
+        clubLocator.rebuildIfChanged();
+        assertEquals(2, clubLocator.near(boulder, 25, 10).size());
+    }
+
+    @Test
+    public void testDropsClubsThatExpired() {
+        Mockito.when(clubManager.getLoadedClubs()).thenReturn(ImmutableList.<Club>of());
+        clubLocator.rebuildIfChanged();
+        assertEquals(0, clubLocator.near(boulder, 25, 10).size());
+    }
+
+    private static Club club(int clubId, String address) {
+        return Club.builder().clubId(clubId).name("Boulder " + clubId).address(address).build();
+    }
+}
@@ -0,0 +1,126 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.lowtuna.gymclasscal.core.ClassChange;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.ClubSchedule;
+import com.lowtuna.gymclasscal.core.ScheduleChanges;
+import com.lowtuna.gymclasscal.core.ScheduleIndex;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestScheduleChangeLog {
+    private static final int CLUB_ID = 572;
+
+    private final ClassInfo monday = classInfo(new LocalDateTime(2014, 1, 27, 6, 0), "Cycle", "Ann");
+    private final ClassInfo tuesday = classInfo(new LocalDateTime(2014, 1, 28, 6, 0), "Yoga", "Bob");
+    private final ClassInfo wednesday = classInfo(new LocalDateTime(2014, 1, 29, 6, 0), "Zumba", "Cat");
+
+    private final ScheduleChangeLog changeLog = new ScheduleChangeLog(10, 100, new MetricRegistry());
+
+    @Test
+    public void testFirstSyncIsFull() {
+        ScheduleChanges changes = changeLog.getChanges(CLUB_ID, schedule(1, monday, tuesday), null);
+        assertTrue(changes.isFullSync());
+        assertEquals(2, changes.getChanges().size());
+    }
+
+    @Test
+    public void testDeltaSinceToken() {
+        String token = changeLog.getChanges(CLUB_ID, schedule(1, monday, tuesday), null).getSyncToken();
+
+        ClassInfo substituted = classInfo(tuesday.getTime(), "Yoga", "Dee");
+        ScheduleChanges changes = changeLog.getChanges(CLUB_ID, schedule(2, monday, substituted, wednesday), token);
+        assertFalse(changes.isFullSync());
+        Map<String, ClassChange> byUid = byUid(changes);
+        assertEquals(2, byUid.size());
+        assertEquals(ClassChange.Type.CHANGED, byUid.get(tuesday.uid(CLUB_ID)).getType());
+        assertEquals("Dee", byUid.get(tuesday.uid(CLUB_ID)).getClassInfo().getInstructor());
+        assertEquals(ClassChange.Type.ADDED, byUid.get(wednesday.uid(CLUB_ID)).getType());
+
+        assertTrue(changeLog.getChanges(CLUB_ID, schedule(2, monday, substituted, wednesday), changes.getSyncToken()).getChanges().isEmpty());
+    }
+
+    @Test
+    public void testChangesAreMergedAcrossVersions() {
+        String token = changeLog.getChanges(CLUB_ID, schedule(1, monday, tuesday), null).getSyncToken();
+        changeLog.record(CLUB_ID, schedule(2, monday, tuesday, wednesday));
+        changeLog.record(CLUB_ID, schedule(3, monday));
+
+        Map<String, ClassChange> byUid = byUid(changeLog.getChanges(CLUB_ID, schedule(3, monday), token));
+        assertEquals(1, byUid.size());
+        assertEquals(ClassChange.Type.REMOVED, byUid.get(tuesday.uid(CLUB_ID)).getType());
+    }
+
+    @Test
+    public void testClassesLeavingTheWindowAreNotRemoved() {
+        String token = changeLog.getChanges(CLUB_ID, schedule(1, monday, tuesday), null).getSyncToken();
+        ScheduleChanges changes = changeLog.getChanges(CLUB_ID, schedule(2, tuesday, wednesday), token);
+        assertEquals(1, changes.getChanges().size());
+        assertEquals(ClassChange.Type.ADDED, changes.getChanges().get(0).getType());
+    }
+
+    @Test
+    public void testUnknownTokenGetsFullSync() {
+        changeLog.getChanges(CLUB_ID, schedule(1, monday, tuesday), null);
+        assertTrue(changeLog.getChanges(CLUB_ID, schedule(1, monday, tuesday), "abc-1").isFullSync());
+    }
+
+    @Test
+    public void testSchedulesMissingWeeksAreNotLogged() {
+        String token = changeLog.getChanges(CLUB_ID, schedule(1, monday, tuesday), null).getSyncToken();
+        ClubSchedule partial = new ClubSchedule(ScheduleIndex.build(ImmutableSet.of(monday), 2), System.currentTimeMillis(), 0, 1, 2);
+        changeLog.record(CLUB_ID, partial);
+
+        assertTrue(changeLog.getChanges(CLUB_ID, schedule(1, monday, tuesday), token).getChanges().isEmpty());
+    }
+
+    @Test
+    public void testTokenOfEvictedLogGetsFullSync() {
+        ScheduleChangeLog oneClub = new ScheduleChangeLog(1, 100, new MetricRegistry());
+        String token = oneClub.getChanges(CLUB_ID, schedule(1, monday, tuesday), null).getSyncToken();
+        oneClub.record(CLUB_ID + 1, schedule(1, wednesday));
+
+        ScheduleChanges changes = oneClub.getChanges(CLUB_ID, schedule(2, monday, wednesday), token);
+        assertTrue(changes.isFullSync());
+        assertEquals(2, changes.getChanges().size());
+    }
+
+    @Test
+    public void testSameClassAtSameTimeKeepsBoth() {
+        ClassInfo otherRoom = classInfo(monday.getTime(), "Cycle", "Eve");
+        String token = changeLog.getChanges(CLUB_ID, schedule(1, monday), null).getSyncToken();
+
+        ScheduleChanges changes = changeLog.getChanges(CLUB_ID, schedule(2, monday, otherRoom), token);
+        assertEquals(1, changes.getChanges().size());
+        assertEquals(ClassChange.Type.ADDED, changes.getChanges().get(0).getType());
+        assertEquals(otherRoom, changes.getChanges().get(0).getClassInfo());
+        assertEquals(2, changeLog.getChanges(CLUB_ID, schedule(2, monday, otherRoom), null).getChanges().size());
+    }
+
+    private static ClubSchedule schedule(long version, ClassInfo... classes) {
+        Set<ClassInfo> classInfos = ImmutableSet.copyOf(classes);
+        return new ClubSchedule(ScheduleIndex.build(classInfos, version), System.currentTimeMillis(), 0, 0, version);
+    }
+
+    private static ClassInfo classInfo(LocalDateTime time, String name, String instructor) {
+        return ClassInfo.builder().time(time).name(name).instructor(instructor).build();
+    }
+
+    private static Map<String, ClassChange> byUid(ScheduleChanges changes) {
+        Map<String, ClassChange> byUid = Maps.newHashMap();
+        for (ClassChange change: changes.getChanges()) {
+            byUid.put(change.getUid(), change);
+        }
+        return byUid;
+    }
+}
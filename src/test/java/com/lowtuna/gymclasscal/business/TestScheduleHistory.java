@@ -0,0 +1,122 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.util.List;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.fakemongo.Fongo;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.ClubWeek;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import io.dropwizard.util.Duration;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestScheduleHistory {
+    private final LocalDate weekStart = new LocalDate().dayOfWeek().withMinimumValue();
+    private final ClubWeek week = new ClubWeek(572, weekStart);
+    private final ClassInfo cycle = classInfo(weekStart.toLocalDateTime(new LocalTime(6, 0)), "Cycle", "Ann");
+    private final ClassInfo yoga = classInfo(weekStart.plusDays(1).toLocalDateTime(new LocalTime(18, 30)), "Yoga", "Bob");
+
+    private DBCollection collection;
+    private MetricRegistry metricRegistry;
+    private ScheduleHistory history;
+
+    @Before
+    public void startHistory() throws Exception {
+        collection = new Fongo("history").getDB("gymclasscal").getCollection("schedules");
+        metricRegistry = new MetricRegistry();
+        history = new ScheduleHistory(collection, 10, Duration.hours(1), Duration.seconds(1), Duration.hours(1), metricRegistry);
+        history.start();
+    }
+
+    @After
+    public void stopHistory() throws Exception {
+        history.stop();
+    }
+
+    @Test
+    public void testWritesInBackgroundAndReadsBack() {
+        history.record(week, ImmutableSet.of(yoga, cycle), 1000L);
+        assertFalse(history.getWeek(week).isPresent());
+
+        history.flush();
+        Optional<ScheduleHistory.StoredWeek> stored = history.getWeek(week);
+        assertTrue(stored.isPresent());
+        assertEquals(ImmutableList.of(cycle, yoga), stored.get().getClasses());
+        assertEquals(1000L, stored.get().getLoadedAt());
+    }
+
+    @Test
+    public void testRemembersMissingWeeksUntilWritten() throws Exception {
+        assertFalse(history.readWeek(week).get().isPresent());
+        assertFalse(history.readWeek(week).get().isPresent());
+        assertEquals(1, metricRegistry.meter(MetricRegistry.name(ScheduleHistory.class, "missingWeekHits")).getCount());
+
+        history.record(week, ImmutableSet.of(cycle, yoga), 1000L);
+        history.flush();
+        Optional<ScheduleHistory.StoredWeek> stored = history.readWeek(week).get();
+        assertTrue(stored.isPresent());
+        assertEquals(1000L, stored.get().getLoadedAt());
+    }
+
+    @Test
+    public void testOnlyWritesChangedWeeks() {
+        history.record(week, ImmutableSet.of(cycle, yoga), 1000L);
+        history.flush();
+        history.record(week, ImmutableSet.of(yoga, cycle), 2000L);
+        history.flush();
+        assertEquals(1, metricRegistry.meter(MetricRegistry.name(ScheduleHistory.class, "upserts")).getCount());
+        assertEquals(1, metricRegistry.meter(MetricRegistry.name(ScheduleHistory.class, "unchanged")).getCount());
+
+        ClassInfo substitution = classInfo(yoga.getTime(), "Yoga", "Cat");
+        history.record(week, ImmutableSet.of(cycle, substitution), 3000L);
+        history.flush();
+        assertEquals(ImmutableList.of(cycle, substitution), history.getWeek(week).get().getClasses());
+        assertEquals(1, collection.count());
+    }
+
+    @Test
+    public void testRestartRemembersWrittenWeeks() throws Exception {
+        history.record(week, ImmutableSet.of(cycle, yoga), 1000L);
+        history.flush();
+
+        MetricRegistry restartedRegistry = new MetricRegistry();
+        ScheduleHistory restarted = new ScheduleHistory(collection, 10, Duration.hours(1), Duration.seconds(1), Duration.hours(1), restartedRegistry);
+        restarted.start();
+        try {
+            restarted.record(week, ImmutableSet.of(cycle, yoga), 2000L);
+            restarted.flush();
+            assertEquals(1, restartedRegistry.meter(MetricRegistry.name(ScheduleHistory.class, "unchanged")).getCount());
+            assertEquals(1000L, restarted.getWeek(week).get().getLoadedAt());
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    @Test
+    public void testWritesBatchesOfSeveralWeeks() {
+        List<ClubWeek> weeks = ImmutableList.of(week, new ClubWeek(572, weekStart.plusWeeks(1)), new ClubWeek(573, weekStart));
+        for (ClubWeek clubWeek: weeks) {
+            history.record(clubWeek, ImmutableSet.of(cycle), 1000L);
+        }
+        history.flush();
+        assertEquals(3, collection.count());
+        assertEquals(2, collection.count(new BasicDBObject("clubId", 572)));
+    }
+
+    private static ClassInfo classInfo(LocalDateTime time, String name, String instructor) {
+        return ClassInfo.builder().time(time).name(name).instructor(instructor).build();
+    }
+}
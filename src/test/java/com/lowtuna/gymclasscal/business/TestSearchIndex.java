@@ -0,0 +1,146 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.lowtuna.gymclasscal.config.SearchIndexConfig;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.ClassMatch;
+import com.lowtuna.gymclasscal.core.Club;
+import com.lowtuna.gymclasscal.core.ScheduleIndex;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestSearchIndex {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private final LocalDateTime tomorrow = LocalDate.now().plusDays(1).toLocalDateTime(new LocalTime(6, 0));
+    private final Club downtown = club(572, "Denver Downtown", "1 Main St, Denver, CO 80202");
+    private final Club aurora = club(573, "Aurora Sport", "2 Side St, Aurora, CO 80012");
+
+    private SearchIndex searchIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        SearchIndexConfig config = new SearchIndexConfig();
+        config.setClusterName("test-" + UUID.randomUUID());
+        ClubManager clubManager = Mockito.mock(ClubManager.class);
+        Mockito.when(clubManager.getLoadedClubs()).thenReturn(ImmutableList.of(downtown));
+        ClassScheduleManager scheduleManager = Mockito.mock(ClassScheduleManager.class);
+        Mockito.when(scheduleManager.getLoadedIndexes()).thenReturn(Collections.<Integer, ScheduleIndex>emptyMap());
+
+        searchIndex = new SearchIndex(config, clubManager, scheduleManager, new MetricRegistry());
+        searchIndex.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        searchIndex.stop();
+    }
+
+    @Test
+    public void testSearchesClubsByTextAndZip() throws Exception {
+        searchIndex.onClub(aurora);
+
+        assertClubs(ImmutableSet.of(572), "downtown", null);
+        assertClubs(ImmutableSet.of(573), null, "80012");
+        assertClubs(ImmutableSet.<Integer>of(), "downtown", "80012");
+    }
+
+    @Test
+    public void testUpdatesAndDeletesChangedClasses() throws Exception {
+        ClassInfo cycle = classInfo(tomorrow, "Cycle", "Ann");
+        ClassInfo yoga = classInfo(tomorrow.plusHours(1), "Yoga", "Bob");
+        searchIndex.onSchedule(572, ScheduleIndex.build(ImmutableList.of(cycle, yoga), 1));
+        assertClasses(ImmutableSet.of(cycle), "cycle", null, null);
+        assertClasses(ImmutableSet.of(yoga), null, "bob", null);
+
+        ClassInfo substituted = classInfo(yoga.getTime(), "Yoga", "Dee");
+        ClassInfo otherRoom = classInfo(tomorrow.plusHours(1), "Cycle", "Eve");
+        searchIndex.onSchedule(572, ScheduleIndex.build(ImmutableList.of(substituted, otherRoom), 2));
+        assertClasses(ImmutableSet.of(otherRoom), "cycle", null, null);
+        assertClasses(ImmutableSet.of(substituted), "yoga", null, null);
+        assertClasses(ImmutableSet.<ClassInfo>of(), null, "bob", null);
+    }
+
+    @Test
+    public void testSearchesClassesAtOneClub() throws Exception {
+        ClassInfo downtownCycle = classInfo(tomorrow, "Cycle", "Ann");
+        ClassInfo auroraCycle = classInfo(tomorrow, "Cycle", "Bob");
+        ClassInfo pastCycle = classInfo(tomorrow.minusDays(3), "Cycle", "Cat");
+        searchIndex.onSchedule(572, ScheduleIndex.build(ImmutableList.of(downtownCycle, pastCycle), 1));
+        searchIndex.onSchedule(573, ScheduleIndex.build(ImmutableList.of(auroraCycle), 1));
+
+        assertClasses(ImmutableSet.of(downtownCycle, auroraCycle), "cycle", null, null);
+        assertClasses(ImmutableSet.of(auroraCycle), "cycle", null, 573);
+        assertClasses(ImmutableSet.of(downtownCycle), "cycle", "ann", null);
+    }
+
+    @Test
+    public void testDropsClassesOfEvictedSchedules() throws Exception {
+        ClassInfo downtownCycle = classInfo(tomorrow, "Cycle", "Ann");
+        ClassInfo auroraCycle = classInfo(tomorrow, "Cycle", "Bob");
+        searchIndex.onSchedule(572, ScheduleIndex.build(ImmutableList.of(downtownCycle), 1));
+        searchIndex.onSchedule(573, ScheduleIndex.build(ImmutableList.of(auroraCycle), 1));
+        assertClasses(ImmutableSet.of(downtownCycle, auroraCycle), "cycle", null, null);
+
+        searchIndex.onScheduleEvicted(572);
+        assertClasses(ImmutableSet.of(auroraCycle), "cycle", null, null);
+
+        searchIndex.onSchedule(572, ScheduleIndex.build(ImmutableList.of(downtownCycle), 2));
+        assertClasses(ImmutableSet.of(downtownCycle, auroraCycle), "cycle", null, null);
+    }
+
+    /**
+     * Indexing is asynchronous and searches only see what the node has refreshed, so wait for the results to settle.
+     */
+    private void assertClubs(Set<Integer> expected, String text, String zip) throws InterruptedException {
+        Set<Integer> found = null;
+        for (long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS; System.currentTimeMillis() < deadline; Thread.sleep(100)) {
+            found = Sets.newHashSet();
+            for (Club club: searchIndex.searchClubs(text, zip)) {
+                found.add(club.getClubId());
+            }
+            if (found.equals(expected)) {
+                return;
+            }
+        }
+        assertEquals(expected, found);
+    }
+
+    private void assertClasses(Set<ClassInfo> expected, String name, String instructor, Integer clubId) throws InterruptedException {
+        Set<ClassInfo> found = null;
+        for (long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS; System.currentTimeMillis() < deadline; Thread.sleep(100)) {
+            List<ClassMatch> matches = searchIndex.searchClasses(name, instructor, clubId);
+            found = Sets.newHashSet();
+            for (ClassMatch match: matches) {
+                found.add(match.getClassInfo());
+            }
+            if (found.equals(expected)) {
+                return;
+            }
+        }
+        assertEquals(expected, found);
+    }
+
+    private static Club club(int clubId, String name, String address) {
+        return Club.builder().clubId(clubId).name(name).address(address).phoneNumber("303-555-0100").build();
+    }
+
+    private static ClassInfo classInfo(LocalDateTime time, String name, String instructor) {
+        return ClassInfo.builder().time(time).name(name).instructor(instructor).build();
+    }
+}
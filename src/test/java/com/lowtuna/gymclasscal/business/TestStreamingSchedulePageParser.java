@@ -0,0 +1,52 @@
+package com.lowtuna.gymclasscal.business;
+
+import java.io.ByteArrayInputStream;
+import java.util.Set;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestStreamingSchedulePageParser {
+    private static final String[] FIXTURES = {"572_2014-01-27.html", "572_2014-02-03.html", "572_2014-02-10.html", "572_2014-02-17.html"};
+
+    @Test
+    public void testMatchesDomParser() throws Exception {
+        StreamingSchedulePageParser streamingParser = new StreamingSchedulePageParser();
+        for (String fixture: FIXTURES) {
+            byte[] page = Resources.toByteArray(Resources.getResource(fixture));
+            Document document = Jsoup.parse(new ByteArrayInputStream(page), "utf-8", "http://24hourfit.schedulesource.com/public/");
+
+            Set<ClassInfo> expected = TwentyFourHourParser.parseClassSchedules(document);
+            Set<ClassInfo> actual = streamingParser.parse(page, "utf-8");
+
+            assertFalse(fixture, expected.isEmpty());
+            assertEquals(fixture, expected, actual);
+        }
+    }
+
+    @Test
+    public void testSniffsMetaCharset() throws Exception {
+        String page = "<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=iso-8859-1\"></head><body>"
+                + "<span id=\"WeekTitle\">January 27, 2014</span>"
+                + "<table id=\"cal\"><tr><td><table><tr><td class=\"days\">&nbsp;</td><td class=\"days\">MON Jan-27</td></tr>"
+                + "<tr><td class=\"hours\">5:30am</td><td>\n<span >\n<a class='cLink'>Cycle</a><br />Zo\u00eb & \"Al\"</span></td></tr>"
+                + "</table></td></tr></table></body></html>";
+        Set<ClassInfo> classes = new StreamingSchedulePageParser().parse(page.getBytes(Charsets.ISO_8859_1), null);
+
+        assertEquals(1, classes.size());
+        assertEquals("Zo&euml; &amp; &quot;Al&quot;", classes.iterator().next().getInstructor());
+    }
+
+    @Test
+    public void testEscape() {
+        assertEquals("Chris", StreamingSchedulePageParser.escape("Chris"));
+        assertEquals("Ren&eacute;e &lt;3&gt; &#55357;&#56833;", StreamingSchedulePageParser.escape("Ren\u00e9e <3> \ud83d\ude01"));
+    }
+}
@@ -10,6 +10,7 @@ import com.google.common.collect.Sets;
 import com.lowtuna.gymclasscal.config.GymClassCalConfig;
 import com.lowtuna.gymclasscal.core.ClassInfo;
 import com.lowtuna.gymclasscal.core.Club;
+import com.lowtuna.gymclasscal.util.CachedDocument;
 import com.lowtuna.gymclasscal.util.JsoupDocumentLoader;
 import lombok.extern.slf4j.Slf4j;
 import org.joda.time.LocalDate;
@@ -73,6 +74,13 @@ public class TestTwentyFourHourClubParser {
                 return Optional.fromNullable(document);
             }
         });
+        when(documentLoader.loadCachedDocument(anyString())).then(new Answer<Optional<CachedDocument>>() {
+            @Override
+            public Optional<CachedDocument> answer(InvocationOnMock invocation) throws Throwable {
+                Optional<Document> document = documentLoader.loadDocument((String) invocation.getArguments()[0]);
+                return Optional.of(CachedDocument.builder().document(document.orNull()).fetchedAt(System.currentTimeMillis()).build());
+            }
+        });
     }
 
     @Test
@@ -0,0 +1,20 @@
+package com.lowtuna.gymclasscal.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestClub {
+    @Test
+    public void testZipFromAddress() {
+        assertEquals("80202", club("1600 Broadway, Denver, CO 80202").getZip());
+        assertEquals("80202", club("1600 Broadway, Denver, CO 80202-4920 ").getZip());
+        assertNull(club("1600 Broadway, Denver, CO").getZip());
+        assertNull(club(null).getZip());
+    }
+
+    private static Club club(String address) {
+        return Club.builder().clubId(572).name("Denver Downtown").address(address).build();
+    }
+}
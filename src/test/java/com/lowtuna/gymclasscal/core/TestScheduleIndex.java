@@ -0,0 +1,75 @@
+package com.lowtuna.gymclasscal.core;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestScheduleIndex {
+    private static final List<String> NONE = Collections.emptyList();
+
+    // 2014-01-27 is a Monday
+    private final ClassInfo mondayCycle = classInfo(new LocalDateTime(2014, 1, 27, 6, 0), "Cycle", "Ann");
+    private final ClassInfo mondayYoga = classInfo(new LocalDateTime(2014, 1, 27, 18, 30), "Yoga", "Bob");
+    private final ClassInfo tuesdayCycle = classInfo(new LocalDateTime(2014, 1, 28, 5, 30), "Cycle", "Bob");
+    private final ClassInfo wednesdayZumba = classInfo(new LocalDateTime(2014, 1, 29, 23, 0), "Zumba", "Ann");
+
+    private final ScheduleIndex index = ScheduleIndex.build(ImmutableList.of(wednesdayZumba, mondayYoga, tuesdayCycle, mondayCycle), 1);
+
+    @Test
+    public void testNoFilterKeepsEverythingInTimeOrder() {
+        assertEquals(ImmutableList.of(mondayCycle, mondayYoga, tuesdayCycle, wednesdayZumba), index.filter(ClassFilter.ALL));
+    }
+
+    @Test
+    public void testNamesAndInstructorsIgnoreCase() {
+        assertEquals(ImmutableList.of(mondayCycle, tuesdayCycle), index.filter(ClassFilter.of(ImmutableList.of("cycle"), NONE, NONE, null, null)));
+        assertEquals(ImmutableList.of(mondayYoga, tuesdayCycle), index.filter(ClassFilter.of(NONE, ImmutableList.of("BOB"), NONE, null, null)));
+        assertEquals(ImmutableList.of(mondayCycle, mondayYoga, tuesdayCycle), index.filter(ClassFilter.of(ImmutableList.of("Cycle", "Yoga"), NONE, NONE, null, null)));
+    }
+
+    @Test
+    public void testClassAndInstructorFiltersCombine() {
+        assertEquals(ImmutableList.of(tuesdayCycle), index.filter(ClassFilter.of(ImmutableList.of("Cycle"), ImmutableList.of("Bob"), NONE, null, null)));
+    }
+
+    @Test
+    public void testDaysAndTimeOfDay() {
+        assertEquals(ImmutableList.of(mondayCycle, mondayYoga), index.filter(ClassFilter.of(NONE, NONE, ImmutableList.of("Monday"), null, null)));
+        assertEquals(ImmutableList.of(tuesdayCycle, wednesdayZumba), index.filter(ClassFilter.of(NONE, NONE, ImmutableList.of("2", "wed"), null, null)));
+        assertEquals(ImmutableList.of(mondayCycle, tuesdayCycle), index.filter(ClassFilter.of(NONE, NONE, NONE, "05:00", "09:00")));
+        assertEquals(ImmutableList.of(tuesdayCycle, wednesdayZumba), index.filter(ClassFilter.of(NONE, NONE, NONE, "22:00", "06:00")));
+    }
+
+    @Test
+    public void testSameNameAtSameTimeGetsOwnUid() {
+        ClassInfo otherRoom = classInfo(mondayCycle.getTime(), "Cycle", "Eve");
+        ScheduleIndex withOtherRoom = ScheduleIndex.build(ImmutableList.of(otherRoom, mondayYoga, mondayCycle), 1);
+        assertEquals(mondayCycle.uid(572), withOtherRoom.uid(572, mondayCycle));
+        assertEquals(mondayYoga.uid(572), withOtherRoom.uid(572, mondayYoga));
+        assertFalse(mondayCycle.uid(572).equals(withOtherRoom.uid(572, otherRoom)));
+        assertEquals(otherRoom.uid(572, 1), withOtherRoom.uid(572, otherRoom));
+    }
+
+    @Test
+    public void testDateRange() {
+        assertEquals(ImmutableList.of(mondayYoga, tuesdayCycle), index.filter(ClassFilter.ALL, new LocalDateTime(2014, 1, 27, 7, 0), new LocalDateTime(2014, 1, 29, 0, 0)));
+        assertEquals(ImmutableList.of(tuesdayCycle), index.filter(ClassFilter.of(ImmutableList.of("Cycle"), NONE, NONE, null, null), new LocalDateTime(2014, 1, 28, 0, 0), null));
+        assertEquals(ImmutableList.of(mondayCycle), index.filter(ClassFilter.of(NONE, ImmutableList.of("Ann"), NONE, null, null), null, new LocalDateTime(2014, 1, 29, 23, 0)));
+        assertEquals(Collections.<ClassInfo>emptyList(), index.filter(ClassFilter.ALL, new LocalDateTime(2014, 1, 29, 0, 0), new LocalDateTime(2014, 1, 28, 0, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownDay() {
+        ClassFilter.of(NONE, NONE, ImmutableList.of("Someday"), null, null);
+    }
+
+    private static ClassInfo classInfo(LocalDateTime time, String name, String instructor) {
+        return ClassInfo.builder().time(time).name(name).instructor(instructor).build();
+    }
+}
@@ -0,0 +1,58 @@
+package com.lowtuna.gymclasscal.jersey;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.lowtuna.gymclasscal.core.ClassFilter;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class TestCalendarCache {
+    private final CalendarCache cache = new CalendarCache(Size.megabytes(1), Duration.hours(1), new MetricRegistry());
+
+    @Test
+    public void testFiltersAreNormalized() {
+        CalendarCache.Key key = key(Arrays.asList("Yoga", "Cycle", "Yoga"));
+        cache.put(key, 1, "BEGIN:VCALENDAR".getBytes(Charsets.UTF_8));
+
+        CalendarCache.Key sameKey = key(Arrays.asList("cycle", "YOGA"));
+        assertEquals(key, sameKey);
+        assertArrayEquals("BEGIN:VCALENDAR".getBytes(Charsets.UTF_8), cache.getIfCurrent(sameKey, 1).getBody());
+    }
+
+    @Test
+    public void testNewVersionInvalidates() {
+        CalendarCache.Key key = key(Collections.<String>emptyList());
+        cache.put(key, 1, "BEGIN:VCALENDAR".getBytes(Charsets.UTF_8));
+        assertNull(cache.getIfCurrent(key, 2));
+    }
+
+    @Test
+    public void testGzippedBodyAndEtags() throws IOException {
+        CalendarCache.Key key = key(Collections.<String>emptyList());
+        byte[] body = "BEGIN:VCALENDAR\r\nEND:VCALENDAR\r\n".getBytes(Charsets.UTF_8);
+        CalendarCache.RenderedCalendar rendered = cache.put(key, 1, body);
+
+        assertArrayEquals(body, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(rendered.getGzippedBody()))));
+        assertFalse(rendered.getEtag(false).equals(rendered.getEtag(true)));
+        assertEquals(rendered.getEtag(false), cache.put(key, 2, body).getEtag(false));
+    }
+
+    private static CalendarCache.Key key(List<String> classes) {
+        return new CalendarCache.Key(ImmutableList.of(572), ClassFilter.of(classes, Collections.<String>emptyList(), Collections.<String>emptyList(), null, null), "America/Denver");
+    }
+}
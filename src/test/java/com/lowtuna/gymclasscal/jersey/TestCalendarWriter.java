@@ -0,0 +1,81 @@
+package com.lowtuna.gymclasscal.jersey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.lowtuna.gymclasscal.core.ClassFilter;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import com.lowtuna.gymclasscal.core.Club;
+import com.lowtuna.gymclasscal.core.ScheduleIndex;
+import net.fortuna.ical4j.model.TimeZoneRegistryFactory;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCalendarWriter {
+    @Test
+    public void testEscapesText() throws IOException {
+        assertEquals("DESCRIPTION:Instructor: Smith\\, J.\\; Jones \\\\ Lee\\nBackup\\nSub\r\n",
+                write("DESCRIPTION", "Instructor: Smith, J.; Jones \\ Lee\r\nBackup\nSub"));
+    }
+
+    @Test
+    public void testFoldsLongLines() throws IOException {
+        String folded = write("SUMMARY", Strings.repeat("x", 200));
+        for (String line: folded.split("\r\n")) {
+            assertTrue(line.length() <= CalendarWriter.FOLD_LENGTH);
+        }
+        assertEquals("SUMMARY:" + Strings.repeat("x", 200), folded.replace("\r\n ", "").trim());
+    }
+
+    @Test
+    public void testDoesNotSplitCharactersWhenFolding() throws IOException {
+        String folded = write("LOCATION", Strings.repeat("\u00e9", 100));
+        for (String line: folded.split("\r\n")) {
+            assertTrue(line.getBytes(Charsets.UTF_8).length <= CalendarWriter.FOLD_LENGTH);
+        }
+        assertEquals("LOCATION:" + Strings.repeat("\u00e9", 100), folded.replace("\r\n ", "").trim());
+    }
+
+    @Test
+    public void testWritesDateTimes() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CalendarWriter.LineWriter out = new CalendarWriter.LineWriter(output);
+        out.name("DTSTAMP").dateTime(1390838400000L, true).end();
+        out.name("DTSTART").dateTime(1390838400000L, false).end();
+        out.flush();
+        assertEquals("DTSTAMP:20140127T160000Z\r\nDTSTART:20140127T160000\r\n", new String(output.toByteArray(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testStampsEventsWithLoadTime() throws IOException {
+        CalendarWriter writer = new CalendarWriter(TimeZoneRegistryFactory.getInstance().createRegistry());
+        Club club = Club.builder().clubId(572).name("Denver Downtown").address("1 Main St, Denver, CO 80202").build();
+        ScheduleIndex index = ScheduleIndex.build(ImmutableList.of(
+                ClassInfo.builder().time(new LocalDateTime(2014, 1, 27, 9, 0)).name("Cycle").instructor("Smith").build()), 1);
+        List<ClassInfo> classes = index.filter(ClassFilter.ALL);
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        writer.write(club, index, classes, 1390838400000L, "America/Denver", first);
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        writer.write(club, index, classes, 1390838400000L, "America/Denver", second);
+
+        assertArrayEquals(first.toByteArray(), second.toByteArray());
+        assertTrue(new String(first.toByteArray(), Charsets.UTF_8).contains("\r\nDTSTAMP:20140127T160000Z\r\n"));
+    }
+
+    private static String write(String name, String text) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CalendarWriter.LineWriter out = new CalendarWriter.LineWriter(output);
+        out.name(name).text(text).end();
+        out.flush();
+        return new String(output.toByteArray(), Charsets.UTF_8);
+    }
+}
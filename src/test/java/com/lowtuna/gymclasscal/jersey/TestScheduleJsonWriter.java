@@ -0,0 +1,45 @@
+package com.lowtuna.gymclasscal.jersey;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.lowtuna.gymclasscal.core.ClassInfo;
+import org.joda.time.LocalDateTime;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestScheduleJsonWriter {
+    private final ScheduleJsonWriter writer = new ScheduleJsonWriter();
+
+    @Test
+    public void testWritesDictionariesAndColumns() throws IOException {
+        ImmutableList<ClassInfo> classes = ImmutableList.of(
+                classInfo(new LocalDateTime(2014, 1, 27, 6, 0), "Cycle", "Ann"),
+                classInfo(new LocalDateTime(2014, 1, 27, 18, 30), "Yoga", "Bob"),
+                classInfo(new LocalDateTime(2014, 1, 28, 5, 30), "Cycle", "Bob"));
+        assertEquals("{\"clubId\":572,\"version\":\"1f\",\"base\":\"2014-01-27T00:00:00.000\","
+                + "\"names\":[\"Cycle\",\"Yoga\"],\"instructors\":[\"Ann\",\"Bob\"],"
+                + "\"starts\":[360,1110,1770],\"name\":[0,1,0],\"instructor\":[0,1,1]}", write(classes));
+    }
+
+    @Test
+    public void testWritesEmptySchedule() throws IOException {
+        assertEquals("{\"clubId\":572,\"version\":\"1f\",\"base\":null,\"names\":[],\"instructors\":[],\"starts\":[],\"name\":[],\"instructor\":[]}",
+                write(Collections.<ClassInfo>emptyList()));
+    }
+
+    private String write(List<ClassInfo> classes) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writer.write(572, 31, classes, output);
+        return new String(output.toByteArray(), Charsets.UTF_8);
+    }
+
+    private static ClassInfo classInfo(LocalDateTime time, String name, String instructor) {
+        return ClassInfo.builder().time(time).name(name).instructor(instructor).build();
+    }
+}
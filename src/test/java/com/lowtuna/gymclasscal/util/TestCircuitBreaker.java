@@ -0,0 +1,51 @@
+package com.lowtuna.gymclasscal.util;
+
+import com.codahale.metrics.MetricRegistry;
+import com.lowtuna.gymclasscal.config.CircuitBreakerConfig;
+import io.dropwizard.util.Duration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCircuitBreaker {
+    private CircuitBreaker newCircuitBreaker(Duration openDuration) {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setWindowSize(10);
+        config.setMinimumCalls(4);
+        config.setFailureRateThreshold(0.5);
+        config.setSlowCallThreshold(Duration.seconds(1));
+        config.setOpenDuration(openDuration);
+        return new CircuitBreaker("test", config, new MetricRegistry());
+    }
+
+    @Test
+    public void testOpensOnFailuresAndSlowCalls() {
+        CircuitBreaker circuitBreaker = newCircuitBreaker(Duration.minutes(1));
+        circuitBreaker.recordResult(false, 10);
+        circuitBreaker.recordResult(true, 10);
+        circuitBreaker.recordResult(false, 10);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+        circuitBreaker.recordResult(false, 5000);
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void testTrialCallClosesBreaker() throws Exception {
+        CircuitBreaker circuitBreaker = newCircuitBreaker(Duration.milliseconds(20));
+        for (int i = 0; i < 4; i++) {
+            circuitBreaker.recordResult(true, 10);
+        }
+        assertFalse(circuitBreaker.allowRequest());
+        Thread.sleep(30);
+
+        assertTrue(circuitBreaker.allowRequest());
+        assertFalse(circuitBreaker.allowRequest());
+        circuitBreaker.recordResult(false, 10);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+}
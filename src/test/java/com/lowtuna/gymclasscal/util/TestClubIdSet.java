@@ -0,0 +1,51 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestClubIdSet {
+    @Test
+    public void testMembership() {
+        Set<Integer> expected = Sets.newHashSet();
+        for (int i = 0; i < 1000; i++) {
+            expected.add(i * 7919 - 3000);
+        }
+        ClubIdSet clubIds = ClubIdSet.of(expected);
+
+        assertEquals(expected, clubIds);
+        for (int i = -5000; i < 8000000; i += 13) {
+            assertEquals(expected.contains(i), clubIds.contains(i));
+        }
+        assertFalse(clubIds.contains("572"));
+        assertFalse(ClubIdSet.EMPTY.contains(0));
+    }
+
+    @Test
+    public void testPlusKeepsSnapshotsIndependent() {
+        ClubIdSet first = ClubIdSet.of(Arrays.asList(572, 13, 572));
+        ClubIdSet second = first.plus(Arrays.asList(13, 1024));
+
+        assertEquals(ImmutableSet.of(13, 572), first);
+        assertEquals(ImmutableSet.of(13, 572, 1024), second);
+        assertSame(second, second.plus(Arrays.asList(572, 1024)));
+    }
+
+    @Test
+    public void testChanges() {
+        ClubIdSet previous = ClubIdSet.of(Arrays.asList(1, 2, 3));
+        ClubIdSet current = ClubIdSet.of(Arrays.asList(2, 3, 4, 5));
+
+        assertEquals(ImmutableSet.of(4, 5), current.added(previous));
+        assertEquals(ImmutableSet.of(1), current.removed(previous));
+        assertTrue(current.added(current).isEmpty());
+    }
+}
@@ -0,0 +1,174 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.lowtuna.gymclasscal.config.FetchSchedulerConfig;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestFetchScheduler {
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private FetchScheduler fetchScheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        FetchSchedulerConfig config = new FetchSchedulerConfig();
+        config.setThreads(1);
+        config.setMaxQueuedTasks(4);
+        config.setBackgroundQueueShare(0.5);
+        fetchScheduler = new FetchScheduler(config, metricRegistry);
+        fetchScheduler.start();
+
+        fetchScheduler.submit(FetchScheduler.Priority.INTERACTIVE, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        fetchScheduler.stop();
+    }
+
+    @Test
+    public void testRunsQueuedWorkByPriority() throws Exception {
+        List<String> ran = new CopyOnWriteArrayList<>();
+        ListenableFuture<Void> background = fetchScheduler.submit(FetchScheduler.Priority.BACKGROUND, record(ran, "background"));
+        ListenableFuture<Void> prewarm = fetchScheduler.submit(FetchScheduler.Priority.PREWARM, record(ran, "prewarm"));
+        ListenableFuture<Void> first = fetchScheduler.submit(FetchScheduler.Priority.INTERACTIVE, record(ran, "first"));
+        ListenableFuture<Void> second = fetchScheduler.submit(FetchScheduler.Priority.INTERACTIVE, record(ran, "second"));
+
+        release.countDown();
+        Futures.allAsList(ImmutableList.of(background, prewarm, first, second)).get(5, TimeUnit.SECONDS);
+        assertEquals(ImmutableList.of("first", "second", "prewarm", "background"), ran);
+        assertEquals(0, queueDepth());
+    }
+
+    @Test
+    public void testShedsBackgroundWorkBeforeInteractive() throws Exception {
+        List<String> ran = new CopyOnWriteArrayList<>();
+        fetchScheduler.submit(FetchScheduler.Priority.BACKGROUND, record(ran, "background"));
+        fetchScheduler.submit(FetchScheduler.Priority.PREWARM, record(ran, "prewarm"));
+        assertRejected(FetchScheduler.Priority.BACKGROUND);
+        assertRejected(FetchScheduler.Priority.PREWARM);
+
+        fetchScheduler.submit(FetchScheduler.Priority.INTERACTIVE, record(ran, "first"));
+        fetchScheduler.submit(FetchScheduler.Priority.INTERACTIVE, record(ran, "second"));
+        assertRejected(FetchScheduler.Priority.INTERACTIVE);
+
+        assertEquals(4, queueDepth());
+        assertEquals(1, queueDepth("background"));
+        assertEquals(1, queueDepth("prewarm"));
+        assertEquals(2, queueDepth("interactive"));
+        assertEquals(1, rejections("background"));
+        assertEquals(1, rejections("prewarm"));
+        assertEquals(1, rejections("interactive"));
+    }
+
+    @Test
+    public void testStopCancelsQueuedWork() throws Exception {
+        List<String> ran = new CopyOnWriteArrayList<>();
+        ListenableFuture<Void> background = fetchScheduler.submit(FetchScheduler.Priority.BACKGROUND, record(ran, "background"));
+        ListenableFuture<Void> interactive = fetchScheduler.submit(FetchScheduler.Priority.INTERACTIVE, record(ran, "interactive"));
+
+        fetchScheduler.stop();
+        assertTrue(background.isCancelled());
+        assertTrue(interactive.isCancelled());
+        assertEquals(0, queueDepth());
+        assertEquals(0, queueDepth("background"));
+        assertEquals(0, queueDepth("interactive"));
+        assertTrue(ran.isEmpty());
+    }
+
+    @Test
+    public void testRunsEachTaskOnItsOwnVirtualThread() throws Exception {
+        Assume.assumeTrue(hasVirtualThreads());
+        FetchSchedulerConfig config = new FetchSchedulerConfig();
+        config.setExecutionMode(FetchScheduler.ExecutionMode.VIRTUAL_THREADS);
+        config.setThreads(1);
+        config.setMaxVirtualThreads(4);
+        FetchScheduler virtualScheduler = new FetchScheduler(config, new MetricRegistry());
+        virtualScheduler.start();
+        try {
+            final CountDownLatch running = new CountDownLatch(4);
+            List<ListenableFuture<Void>> futures = Lists.newArrayList();
+            for (int i = 0; i < 4; i++) {
+                futures.add(virtualScheduler.submit(FetchScheduler.Priority.INTERACTIVE, new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        running.countDown();
+                        assertTrue(running.await(5, TimeUnit.SECONDS));
+                        return null;
+                    }
+                }));
+            }
+            Futures.allAsList(futures).get(5, TimeUnit.SECONDS);
+        } finally {
+            virtualScheduler.stop();
+        }
+    }
+
+    private void assertRejected(FetchScheduler.Priority priority) {
+        try {
+            fetchScheduler.submit(priority, record(new CopyOnWriteArrayList<String>(), "rejected"));
+            fail(priority + " fetch should have been shed");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    private int queueDepth() {
+        return (Integer) metricRegistry.getGauges().get(MetricRegistry.name(FetchScheduler.class, "queueDepth")).getValue();
+    }
+
+    private int queueDepth(String priority) {
+        return (Integer) metricRegistry.getGauges().get(MetricRegistry.name(FetchScheduler.class, priority, "queueDepth")).getValue();
+    }
+
+    private long rejections(String priority) {
+        return metricRegistry.meter(MetricRegistry.name(FetchScheduler.class, priority, "rejections")).getCount();
+    }
+
+    private static boolean hasVirtualThreads() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static Callable<Void> record(final List<String> ran, final String name) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                ran.add(name);
+                return null;
+            }
+        };
+    }
+}
@@ -0,0 +1,36 @@
+package com.lowtuna.gymclasscal.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestFrequencySketch {
+    @Test
+    public void testEstimatesNeverUndercount() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        for (int clubId = 0; clubId < 50; clubId++) {
+            for (int i = 0; i <= clubId % 5; i++) {
+                sketch.increment(clubId);
+            }
+        }
+        for (int clubId = 0; clubId < 50; clubId++) {
+            assertTrue(sketch.estimate(clubId) >= clubId % 5 + 1);
+        }
+        assertEquals(0, sketch.estimate(572));
+    }
+
+    @Test
+    public void testCountsDecay() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment(572);
+        }
+        int before = sketch.estimate(572);
+        for (int i = 0; i < 160; i++) {
+            sketch.increment(i + 1000);
+        }
+        assertTrue(sketch.estimate(572) < before);
+        assertTrue(sketch.estimate(572) > 0);
+    }
+}
@@ -0,0 +1,54 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.lowtuna.gymclasscal.core.GeoPoint;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestGeoGrid {
+    private final GeoGrid<String> grid = GeoGrid.build(ImmutableMap.of(
+            "center", new GeoPoint(40.0, -105.0),
+            "north", new GeoPoint(40.2, -105.0),
+            "east", new GeoPoint(40.0, -104.5),
+            "far", new GeoPoint(42.0, -105.0)), 0.5);
+
+    @Test
+    public void testNearestFirstWithinRadius() {
+        List<GeoGrid.Neighbor<String>> neighbors = grid.near(new GeoPoint(40.01, -105.0), 50, 10);
+        assertEquals(Lists.newArrayList("center", "north", "east"), values(neighbors));
+        assertEquals(0.69, neighbors.get(0).getDistanceMiles(), 0.01);
+        assertTrue(neighbors.get(1).getDistanceMiles() < neighbors.get(2).getDistanceMiles());
+    }
+
+    @Test
+    public void testLimit() {
+        assertEquals(Lists.newArrayList("center", "north"), values(grid.near(new GeoPoint(40.01, -105.0), 500, 2)));
+        assertEquals(4, grid.near(new GeoPoint(40.01, -105.0), 500, 10).size());
+    }
+
+    @Test
+    public void testNothingNearby() {
+        assertTrue(grid.near(new GeoPoint(30.0, -90.0), 25, 10).isEmpty());
+    }
+
+    @Test
+    public void testAcrossTheAntimeridian() {
+        GeoGrid<String> pacific = GeoGrid.build(ImmutableMap.of(
+                "west", new GeoPoint(0.0, 179.9),
+                "east", new GeoPoint(0.0, -179.9)), 0.5);
+        assertEquals(Lists.newArrayList("east", "west"), values(pacific.near(new GeoPoint(0.0, -179.95), 25, 10)));
+    }
+
+    private static List<String> values(List<GeoGrid.Neighbor<String>> neighbors) {
+        List<String> values = Lists.newArrayList();
+        for (GeoGrid.Neighbor<String> neighbor: neighbors) {
+            values.add(neighbor.getValue());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,88 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.io.File;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestPersistentPageCache {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testPagesSurviveRestart() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        byte[] body = "<html><body>Lowry Sport</body></html>".getBytes(Charsets.UTF_8);
+
+        PersistentPageCache cache = new PersistentPageCache(directory, Duration.hours(1), Size.megabytes(1));
+        cache.start();
+        assertFalse(cache.get("http://example.com/a").isPresent());
+        cache.put("http://example.com/a", body, "utf-8", "\"abc\"", null);
+        cache.stop();
+
+        PersistentPageCache reopened = new PersistentPageCache(directory, Duration.hours(1), Size.megabytes(1));
+        reopened.start();
+        Optional<StoredPage> page = reopened.get("http://example.com/a");
+        assertTrue(page.isPresent());
+        assertArrayEquals(body, page.get().getBody());
+        assertEquals("utf-8", page.get().getCharset());
+        assertEquals("\"abc\"", page.get().getEtag());
+        assertEquals(1, reopened.getHitCount());
+        reopened.stop();
+    }
+
+    @Test
+    public void testCompactionKeepsLatestPages() throws Exception {
+        PersistentPageCache cache = new PersistentPageCache(temporaryFolder.newFolder(), Duration.hours(1), Size.kilobytes(64));
+        cache.start();
+        for (int i = 0; i < 40; i++) {
+            cache.put("http://example.com/" + (i % 4), new byte[4096 + i], null, null, null);
+        }
+        assertEquals(4, cache.size());
+        assertEquals(4096 + 39, cache.get("http://example.com/3").get().getBody().length);
+        assertTrue(cache.getSegmentBytes() <= Size.kilobytes(64).toBytes());
+        cache.stop();
+    }
+
+    @Test
+    public void testFullSegmentEvictsOldestPages() throws Exception {
+        PersistentPageCache cache = new PersistentPageCache(temporaryFolder.newFolder(), Duration.hours(1), Size.kilobytes(64));
+        cache.start();
+        for (int i = 0; i < 40; i++) {
+            cache.put("http://example.com/" + i, new byte[4096], null, null, null);
+            Thread.sleep(1);
+        }
+        assertTrue(cache.size() < 16);
+        assertTrue(cache.getSegmentBytes() <= Size.kilobytes(64).toBytes());
+        assertTrue(cache.get("http://example.com/39").isPresent());
+        assertFalse(cache.get("http://example.com/0").isPresent());
+        cache.stop();
+    }
+
+    @Test
+    public void testExpiredPagesCanBeRevalidated() throws Exception {
+        PersistentPageCache cache = new PersistentPageCache(temporaryFolder.newFolder(), Duration.milliseconds(50), Size.megabytes(1));
+        cache.start();
+        cache.put("http://example.com/a", new byte[128], null, null, "Mon, 27 Jan 2014 00:00:00 GMT");
+        cache.put("http://example.com/b", new byte[128], null, null, null);
+        Thread.sleep(60);
+
+        assertFalse(cache.get("http://example.com/a").isPresent());
+        assertTrue(cache.getExpired("http://example.com/a").get().hasValidators());
+        assertFalse(cache.getExpired("http://example.com/b").get().hasValidators());
+
+        cache.touch("http://example.com/a");
+        assertTrue(cache.get("http://example.com/a").isPresent());
+        cache.stop();
+    }
+}
@@ -0,0 +1,35 @@
+package com.lowtuna.gymclasscal.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import com.google.common.base.Charsets;
+import com.lowtuna.gymclasscal.core.GeoPoint;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestZipCentroids {
+    @Test
+    public void testLoadsGazetteerColumns() throws IOException {
+        String table = "GEOID\tALAND\tAWATER\tINTPTLAT\tINTPTLONG\n"
+                + "80302\t1\t2\t40.0\t-105.3\n"
+                + "00501\t1\t2\t40.8\t-73.0\n"
+                + "bad\t1\t2\t1.0\t1.0\n";
+        ZipCentroids centroids = ZipCentroids.load(new ByteArrayInputStream(table.getBytes(Charsets.UTF_8)));
+
+        assertEquals(2, centroids.size());
+        GeoPoint boulder = centroids.get("80302").get();
+        assertEquals(40.0, boulder.getLatitude(), 0.0001);
+        assertEquals(-105.3, boulder.getLongitude(), 0.0001);
+        assertEquals(-73.0, centroids.get("00501").get().getLongitude(), 0.0001);
+        assertFalse(centroids.get("80303").isPresent());
+        assertFalse(centroids.get(null).isPresent());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingColumn() throws IOException {
+        ZipCentroids.load(new ByteArrayInputStream("GEOID\tINTPTLAT\n80302\t40.0\n".getBytes(Charsets.UTF_8)));
+    }
+}